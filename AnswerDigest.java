@@ -0,0 +1,53 @@
+import java.security.SecureRandom;
+
+// Keyed 64-bit digests of puzzle answers (SipHash-2-4 over the UTF-16 chars,
+// with a random key per JVM). Puzzles keep only the digest of their answer, and
+// checking a guess hashes it straight from the String: nothing is allocated,
+// and the time taken depends on the guess's length, never on the answer.
+// Digests are only compared within one JVM, so the key is never stored.
+public final class AnswerDigest {
+    private static final long K0;
+    private static final long K1;
+
+    static {
+        SecureRandom random = new SecureRandom();
+        K0 = random.nextLong();
+        K1 = random.nextLong();
+    }
+
+    private AnswerDigest() {
+    }
+
+    // ignoreCase folds each char to lower case first, as riddles compare answers
+    public static long of(String text, boolean ignoreCase) {
+        long v0 = K0 ^ 0x736f6d6570736575L;
+        long v1 = K1 ^ 0x646f72616e646f6dL;
+        long v2 = K0 ^ 0x6c7967656e657261L;
+        long v3 = K1 ^ 0x7465646279746573L;
+        int length = text.length();
+        int words = length / 4 + 1; // four chars per word; the last one also holds the byte length
+        for (int w = 0, i = 0; w < words; w++) {
+            long m = w == words - 1 ? (long) (length * 2) << 56 : 0;
+            for (int shift = 0; shift < 64 && i < length && (w < words - 1 || shift < 48); shift += 16, i++) {
+                char c = text.charAt(i);
+                m |= (long) (ignoreCase ? Character.toLowerCase(c) : c) << shift;
+            }
+            v3 ^= m;
+            for (int round = 0; round < 2; round++) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
+        v2 ^= 0xff;
+        for (int round = 0; round < 4; round++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+}
@@ -0,0 +1,308 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Attempts used on code locks, and when each may be tried again, for every
+// session in the JVM. Keyed by owner and lock: the owner is a session, or SHARED
+// for attempts that belong to the puzzle itself (cooperative rooms, puzzles used
+// outside an engine); the lock is a CodePuzzle id that session copies share.
+// Lock-free: a bucket is an immutable list swapped with compareAndSet, and an
+// entry's count and cooldown are one long updated with compareAndSet, so once a
+// session has tried a lock, further attempts allocate nothing. The buckets are
+// split into segments, and a segment doubles its buckets when it holds more
+// entries than 3/4 of them; only that segment's threads wait while it grows.
+// Sessions release their entries when their game ends; SHARED ones go when
+// their puzzle is garbage collected (see CodePuzzle).
+public final class AttemptTable {
+    public static final AttemptTable INSTANCE = new AttemptTable(64);
+    public static final long SHARED = 0;
+    public static final long JAMMED = Long.MIN_VALUE; // claim(): no attempts left
+
+    private static final AtomicLong NEXT_OWNER = new AtomicLong(1);
+    private static final long RELEASED = -1;
+    private static final int COUNT_BITS = 16; // low bits: attempts used; high bits: micros until the next try
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final int INITIAL_BUCKETS = 16; // per segment
+    private static final Node MOVED = new Node(null, null); // the bucket's entries are going to a bigger array
+
+    private final Segment[] segments;
+    private final int segmentShift; // the hash's top bits pick the segment, its low bits the bucket
+    private final long epoch = System.nanoTime();
+
+    AttemptTable(int segments) {
+        this.segments = new Segment[Integer.highestOneBit(Math.max(1, segments - 1)) << 1];
+        for (int i = 0; i < this.segments.length; i++) {
+            this.segments[i] = new Segment();
+        }
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(this.segments.length);
+    }
+
+    // A new session's owner id
+    public static long newOwner() {
+        return NEXT_OWNER.getAndIncrement();
+    }
+
+    // Uses up one attempt. Returns the attempts used including this one, JAMMED
+    // if none are left, or minus the milliseconds until the lock can be tried again.
+    public long claim(long owner, int lock, int maxAttempts, long cooldownNanos) {
+        int max = (int) Math.min(maxAttempts, COUNT_MASK);
+        Entry e = entry(owner, lock);
+        while (true) {
+            long now = micros();
+            long state = e.get();
+            if (state == RELEASED) {
+                e = entry(owner, lock);
+                continue;
+            }
+            long used = state & COUNT_MASK;
+            if (used >= max) {
+                return JAMMED;
+            }
+            long readyAt = state >>> COUNT_BITS;
+            if (readyAt > now) {
+                return -Math.max(1, (readyAt - now + 999) / 1000);
+            }
+            long next = cooldownNanos > 0 ? (now + cooldownNanos / 1000) << COUNT_BITS : 0;
+            if (e.compareAndSet(state, next | (used + 1))) {
+                return used + 1;
+            }
+        }
+    }
+
+    // Gives back an attempt that turned out not to count (a lock someone else opened first)
+    public void refund(long owner, int lock) {
+        Entry e = find(owner, lock);
+        if (e == null) {
+            return;
+        }
+        long state;
+        do {
+            state = e.get();
+            if (state == RELEASED || (state & COUNT_MASK) == 0) {
+                return;
+            }
+        } while (!e.compareAndSet(state, state - 1));
+    }
+
+    // Journal replay: counts one attempt, with no cooldown
+    public void restore(long owner, int lock) {
+        Entry e = entry(owner, lock);
+        while (true) {
+            long state = e.get();
+            if (state == RELEASED) {
+                e = entry(owner, lock);
+                continue;
+            }
+            if ((state & COUNT_MASK) == COUNT_MASK || e.compareAndSet(state, state + 1)) {
+                return;
+            }
+        }
+    }
+
+    public int used(long owner, int lock) {
+        Entry e = find(owner, lock);
+        long state = e != null ? e.get() : RELEASED;
+        return state == RELEASED ? 0 : (int) (state & COUNT_MASK);
+    }
+
+    // Forgets the owner's attempts on the lock
+    public void release(long owner, int lock) {
+        long h = hash(owner, lock);
+        Segment s = segment(h);
+        Entry e = find(s, h, owner, lock);
+        if (e == null) {
+            return;
+        }
+        e.set(RELEASED);
+        while (true) {
+            AtomicReferenceArray<Node> buckets = s.buckets;
+            int b = (int) h & (buckets.length() - 1);
+            Node head = buckets.get(b);
+            if (head == MOVED) {
+                s.awaitGrow();
+                continue;
+            }
+            Node rest = without(head, e);
+            if (rest == head) {
+                return; // already dropped by a grow
+            }
+            if (buckets.compareAndSet(b, head, rest)) {
+                s.count.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    // Entries in the table, released ones not yet unlinked included
+    int size() {
+        int size = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                AtomicReferenceArray<Node> buckets = s.buckets;
+                for (int b = 0; b < buckets.length(); b++) {
+                    for (Node n = buckets.get(b); n != null; n = n.next) {
+                        size++;
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    // Nodes in the longest bucket
+    int longestChain() {
+        int longest = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                AtomicReferenceArray<Node> buckets = s.buckets;
+                for (int b = 0; b < buckets.length(); b++) {
+                    int length = 0;
+                    for (Node n = buckets.get(b); n != null; n = n.next) {
+                        length++;
+                    }
+                    longest = Math.max(longest, length);
+                }
+            }
+        }
+        return longest;
+    }
+
+    private Entry entry(long owner, int lock) {
+        long h = hash(owner, lock);
+        Segment s = segment(h);
+        while (true) {
+            AtomicReferenceArray<Node> buckets = s.buckets;
+            int b = (int) h & (buckets.length() - 1);
+            Node head = buckets.get(b);
+            if (head == MOVED) {
+                s.awaitGrow();
+                continue;
+            }
+            Entry e = find(head, owner, lock);
+            if (e != null) {
+                return e;
+            }
+            e = new Entry(owner, lock);
+            if (buckets.compareAndSet(b, head, new Node(e, head))) {
+                if (s.count.incrementAndGet() > buckets.length() / 4 * 3) {
+                    s.grow(buckets);
+                }
+                return e;
+            }
+        }
+    }
+
+    private Entry find(long owner, int lock) {
+        long h = hash(owner, lock);
+        return find(segment(h), h, owner, lock);
+    }
+
+    private static Entry find(Segment s, long h, long owner, int lock) {
+        while (true) {
+            AtomicReferenceArray<Node> buckets = s.buckets;
+            Node head = buckets.get((int) h & (buckets.length() - 1));
+            if (head != MOVED) {
+                return find(head, owner, lock);
+            }
+            s.awaitGrow();
+        }
+    }
+
+    private static Entry find(Node head, long owner, int lock) {
+        for (Node n = head; n != null; n = n.next) {
+            Entry e = n.entry;
+            if (e.owner == owner && e.lock == lock && e.get() != RELEASED) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    // The list without e: the nodes in front of it are copied onto the rest,
+    // which is shared. The copies come out reversed; a bucket's order doesn't matter.
+    private static Node without(Node head, Entry e) {
+        Node n = head;
+        while (n != null && n.entry != e) {
+            n = n.next;
+        }
+        if (n == null) {
+            return head;
+        }
+        Node rest = n.next;
+        for (Node front = head; front != n; front = front.next) {
+            rest = new Node(front.entry, rest);
+        }
+        return rest;
+    }
+
+    private Segment segment(long h) {
+        return segments[(int) (h >>> segmentShift)];
+    }
+
+    private static long hash(long owner, int lock) {
+        long h = (owner * 0x9E3779B97F4A7C15L) ^ lock;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        return h ^ (h >>> 32);
+    }
+
+    private long micros() {
+        return (System.nanoTime() - epoch) / 1000;
+    }
+
+    // One stripe of buckets. Only grow() takes its lock; everything else is
+    // lock-free and just waits out a grow when it meets a MOVED bucket.
+    private static final class Segment {
+        private volatile AtomicReferenceArray<Node> buckets = new AtomicReferenceArray<>(INITIAL_BUCKETS);
+        private final AtomicInteger count = new AtomicInteger(); // linked entries
+
+        // Moves every live entry to an array twice the size. Each old bucket is
+        // swapped for MOVED as it goes, so no insert or unlink can land in the
+        // old array once its entries have been copied. Released entries are
+        // dropped on the way.
+        synchronized void grow(AtomicReferenceArray<Node> old) {
+            if (buckets != old) {
+                return; // another thread grew it first
+            }
+            AtomicReferenceArray<Node> bigger = new AtomicReferenceArray<>(old.length() * 2);
+            int mask = bigger.length() - 1;
+            for (int b = 0; b < old.length(); b++) {
+                for (Node n = old.getAndSet(b, MOVED); n != null; n = n.next) {
+                    Entry e = n.entry;
+                    if (e.get() == RELEASED) {
+                        count.decrementAndGet();
+                        continue;
+                    }
+                    int to = (int) hash(e.owner, e.lock) & mask;
+                    bigger.set(to, new Node(e, bigger.get(to)));
+                }
+            }
+            buckets = bigger;
+        }
+
+        // grow() holds the lock until the bigger array is in place
+        synchronized void awaitGrow() {
+        }
+    }
+
+    private static final class Entry extends AtomicLong {
+        private static final long serialVersionUID = 1L; // never serialized; AtomicLong just is Serializable
+        final long owner;
+        final int lock;
+
+        Entry(long owner, int lock) {
+            this.owner = owner;
+            this.lock = lock;
+        }
+    }
+
+    private static final class Node {
+        final Entry entry;
+        final Node next;
+
+        Node(Entry entry, Node next) {
+            this.entry = entry;
+            this.next = next;
+        }
+    }
+}
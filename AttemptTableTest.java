@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Fills an AttemptTable with far more entries than it starts with buckets for,
+// from several threads at once, so its segments have to grow while other
+// threads claim and release. Checks that no attempt is lost or doubled, that
+// the buckets stay short, and that releasing everything empties the table.
+// A fixed 1 << 16 bucket table would average 16 entries a bucket at the default size.
+// Usage: java AttemptTableTest [entries] [threads]
+public class AttemptTableTest {
+    private static final int LOCKS = 4; // locks tried per owner
+    private static final int MAX_CHAIN = 16;
+
+    public static void main(String[] args) throws InterruptedException {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+        int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int owners = entries / LOCKS;
+
+        AttemptTable table = new AttemptTable(64);
+        long start = System.nanoTime();
+        // Two attempts on every lock; every eighth owner lets go of lock 0 straight away
+        run(threadCount, owners, (owner) -> {
+            for (int lock = 0; lock < LOCKS; lock++) {
+                table.claim(owner, lock, 5, 0);
+                table.claim(owner, lock, 5, 0);
+            }
+            if (owner % 8 == 0) {
+                table.release(owner, 0);
+            }
+        });
+        long filled = System.nanoTime();
+
+        int problems = 0;
+        int expected = entries - (owners + 7) / 8;
+        int size = table.size();
+        int longest = table.longestChain();
+        if (size != expected) {
+            problems++;
+            System.out.println("Table holds " + size + " entries, not " + expected);
+        }
+        if (longest > MAX_CHAIN) {
+            problems++;
+            System.out.println("Longest bucket has " + longest + " entries");
+        }
+        problems += check(table, owners, 2);
+
+        // A third attempt on odd owners while even ones release everything
+        run(threadCount, owners, (owner) -> {
+            for (int lock = 0; lock < LOCKS; lock++) {
+                if (owner % 2 == 1) {
+                    table.claim(owner, lock, 5, 0);
+                } else {
+                    table.release(owner, lock);
+                }
+            }
+        });
+        problems += check(table, owners, 3);
+
+        run(threadCount, owners, (owner) -> {
+            for (int lock = 0; lock < LOCKS; lock++) {
+                table.release(owner, lock);
+            }
+        });
+        if (table.size() != 0) {
+            problems++;
+            System.out.println(table.size() + " entries left after releasing them all");
+        }
+
+        System.out.println("Entries:     " + entries + " from " + threadCount + " threads, filled in "
+                + (filled - start) / 1_000_000 + " ms");
+        System.out.println("Longest bucket: " + longest);
+        System.out.println(problems == 0 ? "OK: every attempt counted once, buckets stayed short" : problems + " problems");
+        if (problems > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Attempts each owner should have on each lock after a phase: odd owners
+    // `odd`, even ones as the phase left them
+    private static int check(AttemptTable table, int owners, int odd) {
+        int problems = 0;
+        for (int owner = 1; owner <= owners; owner++) {
+            for (int lock = 0; lock < LOCKS; lock++) {
+                int expected;
+                if (owner % 2 == 1) {
+                    expected = odd;
+                } else if (odd == 3) {
+                    expected = 0;
+                } else {
+                    expected = owner % 8 == 0 && lock == 0 ? 0 : 2;
+                }
+                int used = table.used(owner, lock);
+                if (used != expected && problems++ < 5) {
+                    System.out.println("Owner " + owner + " lock " + lock + ": " + used + " attempts, not " + expected);
+                }
+            }
+        }
+        return problems;
+    }
+
+    interface OwnerTask {
+        void run(long owner);
+    }
+
+    // Owners 1..owners, interleaved between the threads
+    private static void run(int threadCount, int owners, OwnerTask task) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int first = t + 1;
+            Thread thread = new Thread(() -> {
+                for (int owner = first; owner <= owners; owner += threadCount) {
+                    task.run(owner);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,392 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Plays many headless sessions as fast as the engine allows, to size hardware
+// and catch slowdowns in the engine loop. Each worker thread owns a slice of
+// the sessions and plays them round-robin, one command per session in turn,
+// straight into GameEngine.executeTurn: no server, mailbox or console in
+// between. A session whose game ends starts a new one.
+//
+// Bots pick commands that make sense where they stand: doors out of the
+// current room, its items and puzzles (right and wrong answers), plus back,
+// map, look and inventory. The commands for each room are built once, so
+// picking one allocates nothing.
+//
+// With a log file a run is recorded: every command with its session, status
+// and a hash of its output. 'replay' plays a log back, each session's commands
+// in order, and checks every status and output hash still match, so a change to
+// the engine that alters behaviour shows up as mismatches.
+//
+// The first quarter of a run is warm-up and not measured. Output is thrown
+// away unless recording or replaying, where it is only hashed.
+// Usage: java BotDriver [sessions] [seconds] [threads] [world] [recordLog]
+//        java BotDriver replay <log> [threads] [world]
+// world: a .world text file, a compiled .bin world, generate:<rooms>:<seed>,
+// or - for the built-in game
+public class BotDriver {
+    private static final String[] ANYWHERE = {"back", "map", "look", "inventory"};
+    private static final int FLUSH_CHARS = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("replay")) {
+            int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+            replay(Path.of(args[1]), threads, loadWorld(args.length > 3 ? args[3] : "-"));
+            return;
+        }
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        WorldDefinition world = loadWorld(args.length > 3 ? args[3] : "-");
+        Path log = args.length > 4 ? Path.of(args[4]) : null;
+        run(world, sessions, seconds, threads, log);
+    }
+
+    static WorldDefinition loadWorld(String spec) throws IOException, WorldFormatException {
+        if (spec.equals("-")) {
+            return GameEngine.setupGame();
+        } else if (spec.startsWith("generate:")) {
+            String[] parts = spec.split(":");
+            return new WorldGenerator(Long.parseLong(parts[2])).rooms(Integer.parseInt(parts[1])).generate();
+        } else if (spec.endsWith(".world")) {
+            return WorldCompiler.readText(Path.of(spec));
+        }
+        return MappedWorld.open(Path.of(spec)).toDefinition();
+    }
+
+    private static void run(WorldDefinition world, int sessions, int seconds, int threadCount, Path logFile)
+            throws IOException, InterruptedException {
+        String[][] commands = commandsByRoom(world);
+        long start = System.nanoTime();
+        long measureFrom = start + seconds * 250_000_000L;
+        long deadline = start + seconds * 1_000_000_000L;
+        Writer log = logFile != null ? Files.newBufferedWriter(logFile) : null;
+
+        List<Bot> bots = new ArrayList<>();
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            Bot bot = new Bot(world, commands, sessions * t / threadCount, sessions * (t + 1) / threadCount,
+                    new SplittableRandom(t), log);
+            bots.add(bot);
+            Thread thread = new Thread(() -> {
+                try {
+                    bot.play(measureFrom, deadline);
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }, "bot-" + t);
+            threads.add(thread);
+            thread.start();
+        }
+        Thread.sleep(Math.max(0, (measureFrom - System.nanoTime()) / 1_000_000));
+        GcSnapshot gcBefore = new GcSnapshot();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        GcSnapshot gcAfter = new GcSnapshot();
+        if (log != null) {
+            log.close();
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long total = 0;
+        long games = 0;
+        long allocated = 0;
+        for (Bot bot : bots) {
+            latency.add(bot.latency);
+            total += bot.commands;
+            games += bot.games;
+            allocated += bot.allocated;
+        }
+        double measured = (deadline - measureFrom) / 1e9;
+        System.out.println("Sessions:            " + sessions);
+        System.out.println("Threads:             " + threadCount);
+        System.out.println("Rooms:               " + world.getRoomCount());
+        System.out.printf("Measured:            %.1f s after %.1f s warm-up%n", measured, (measureFrom - start) / 1e9);
+        System.out.println("Commands:            " + total);
+        System.out.println("Games started:       " + games);
+        printResults(latency, total, measured, allocated, gcBefore, gcAfter);
+        if (logFile != null) {
+            System.out.println("Recorded to:         " + logFile);
+        }
+        for (Throwable e : failures) {
+            System.out.println("FAIL: bot thread failed: " + e);
+        }
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static void replay(Path logFile, int threadCount, WorldDefinition world)
+            throws IOException, InterruptedException {
+        // Session -> its commands in the order they were played
+        TreeMap<Integer, List<String[]>> bySession = new TreeMap<>();
+        try (BufferedReader in = Files.newBufferedReader(logFile)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", 4); // session, status, output hash, command
+                bySession.computeIfAbsent(Integer.parseInt(fields[0]), s -> new ArrayList<>()).add(fields);
+            }
+        }
+        List<List<String[]>> sessions = new ArrayList<>(bySession.values());
+
+        ConcurrentLinkedQueue<String> mismatches = new ConcurrentLinkedQueue<>();
+        List<Replayer> replayers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        GcSnapshot gcBefore = new GcSnapshot();
+        long start = System.nanoTime();
+        for (int t = 0; t < threadCount; t++) {
+            Replayer replayer = new Replayer(world, sessions.subList(sessions.size() * t / threadCount,
+                    sessions.size() * (t + 1) / threadCount), mismatches);
+            replayers.add(replayer);
+            Thread thread = new Thread(replayer::play, "replay-" + t);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        GcSnapshot gcAfter = new GcSnapshot();
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long total = 0;
+        long allocated = 0;
+        for (Replayer replayer : replayers) {
+            latency.add(replayer.latency);
+            total += replayer.commands;
+            allocated += replayer.allocated;
+        }
+        System.out.println("Log:                 " + logFile);
+        System.out.println("Sessions:            " + sessions.size());
+        System.out.println("Threads:             " + threadCount);
+        System.out.println("Commands:            " + total);
+        printResults(latency, total, elapsed, allocated, gcBefore, gcAfter);
+        if (mismatches.isEmpty()) {
+            System.out.println("OK: every status and output matched the log");
+            return;
+        }
+        int shown = 0;
+        for (String m : mismatches) {
+            if (shown++ == 10) {
+                System.out.println("...");
+                break;
+            }
+            System.out.println("FAIL: " + m);
+        }
+        System.out.println(mismatches.size() + " sessions differ from the log");
+        System.exit(1);
+    }
+
+    private static void printResults(LatencyHistogram latency, long total, double seconds, long allocated,
+                                     GcSnapshot gcBefore, GcSnapshot gcAfter) {
+        System.out.printf("Throughput:          %.0f commands/s%n", total / seconds);
+        System.out.printf("Latency p50/p99/p99.9/max: %d / %d / %d / %d ns%n",
+                latency.getValueAtPercentile(50), latency.getValueAtPercentile(99),
+                latency.getValueAtPercentile(99.9), latency.getMax());
+        System.out.printf("Allocated:           %d bytes/command%n", total == 0 ? 0 : allocated / total);
+        long gcMillis = gcAfter.millis - gcBefore.millis;
+        System.out.printf("GC:                  %d collections, %d ms (%.1f%% of the time)%n",
+                gcAfter.count - gcBefore.count, gcMillis, gcMillis / (seconds * 10));
+    }
+
+    // Per room id: every command a bot standing there might type
+    static String[][] commandsByRoom(WorldDefinition world) {
+        String[][] commands = new String[world.getRoomCount()][];
+        for (int r = 0; r < commands.length; r++) {
+            WorldDefinition.RoomDef room = world.getRoom(r);
+            List<String> here = new ArrayList<>(List.of(ANYWHERE));
+            for (int e = 0; e < room.getExitCount(); e++) {
+                here.add("move " + world.getRoom(room.getExit(e)).getName());
+            }
+            for (WorldDefinition.ComponentDef c : room.getContents()) {
+                here.add("inspect " + c.getName());
+                if (c instanceof WorldDefinition.PuzzleDef) {
+                    here.add("solve " + c.getName() + " " + ((WorldDefinition.PuzzleDef) c).getAnswer());
+                    here.add("solve " + c.getName() + " wrong");
+                } else {
+                    here.add("pickup " + c.getName());
+                }
+            }
+            commands[r] = here.toArray(new String[0]);
+        }
+        return commands;
+    }
+
+    // Folds everything printed into a hash instead of keeping it
+    private static final class OutputDigest implements OutputSink {
+        int hash;
+
+        @Override
+        public void print(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                hash = 31 * hash + text.charAt(i);
+            }
+        }
+
+        @Override
+        public void println(String line) {
+            print(line);
+            hash = 31 * hash + '\n';
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    // One thread's slice of the sessions
+    private static final class Bot {
+        private final WorldDefinition world;
+        private final String[][] choicesByRoom;
+        private final int firstSession;
+        private final GameEngine[] engines;
+        private final SplittableRandom random;
+        private final Writer log; // shared by all bots, null if not recording
+        private final OutputDigest digest;
+        private final StringBuilder pending = new StringBuilder();
+        final LatencyHistogram latency = new LatencyHistogram();
+        long commands;
+        long games;
+        long allocated;
+
+        Bot(WorldDefinition world, String[][] commands, int firstSession, int endSession, SplittableRandom random,
+            Writer log) {
+            this.world = world;
+            this.choicesByRoom = commands;
+            this.firstSession = firstSession;
+            this.engines = new GameEngine[endSession - firstSession];
+            this.random = random;
+            this.log = log;
+            this.digest = log != null ? new OutputDigest() : null;
+        }
+
+        void play(long measureFrom, long deadline) throws IOException {
+            if (engines.length == 0) {
+                return;
+            }
+            OutputSink out = digest != null ? digest : DiscardOutput.INSTANCE;
+            boolean measuring = false;
+            long allocatedFrom = 0;
+            long now = System.nanoTime();
+            while (now < deadline) {
+                if (!measuring && now >= measureFrom) {
+                    measuring = true;
+                    latency.reset();
+                    commands = 0;
+                    games = 0;
+                    allocatedFrom = CommandMetrics.INSTANCE.allocatedBytes();
+                }
+                for (int s = 0; s < engines.length; s++) {
+                    GameEngine engine = engines[s];
+                    if (engine == null || !engine.isGameRunning()) {
+                        engine = engines[s] = new GameEngine(world, out);
+                        games++;
+                    }
+                    String[] choices = choicesByRoom[engine.getPlayer().getCurrentRoom().getId()];
+                    String command = choices[random.nextInt(choices.length)];
+                    if (digest != null) {
+                        digest.hash = 0;
+                    }
+                    long started = System.nanoTime();
+                    CommandResult r = engine.executeTurn(command);
+                    now = System.nanoTime();
+                    latency.record(now - started);
+                    commands++;
+                    if (log != null) {
+                        record(firstSession + s, r, command);
+                    }
+                }
+            }
+            allocated = CommandMetrics.INSTANCE.allocatedBytes() - allocatedFrom;
+            if (log != null) {
+                flush();
+            }
+        }
+
+        private void record(int session, CommandResult r, String command) throws IOException {
+            pending.append(session).append('\t').append(r.getStatus()).append('\t')
+                    .append(digest.hash).append('\t').append(command).append('\n');
+            if (pending.length() >= FLUSH_CHARS) {
+                flush();
+            }
+        }
+
+        // Lines of different bots interleave in the log, but each session's stay in order
+        private void flush() throws IOException {
+            synchronized (log) {
+                log.append(pending);
+            }
+            pending.setLength(0);
+        }
+    }
+
+    // Plays recorded sessions back one after another and compares the results
+    private static final class Replayer {
+        private final WorldDefinition world;
+        private final List<List<String[]>> sessions;
+        private final ConcurrentLinkedQueue<String> mismatches;
+        final LatencyHistogram latency = new LatencyHistogram();
+        long commands;
+        long allocated;
+
+        Replayer(WorldDefinition world, List<List<String[]>> sessions, ConcurrentLinkedQueue<String> mismatches) {
+            this.world = world;
+            this.sessions = sessions;
+            this.mismatches = mismatches;
+        }
+
+        void play() {
+            OutputDigest digest = new OutputDigest();
+            long allocatedFrom = CommandMetrics.INSTANCE.allocatedBytes();
+            for (List<String[]> session : sessions) {
+                GameEngine engine = null;
+                for (int i = 0; i < session.size(); i++) {
+                    String[] entry = session.get(i);
+                    if (engine == null || !engine.isGameRunning()) {
+                        engine = new GameEngine(world, digest);
+                    }
+                    digest.hash = 0;
+                    long started = System.nanoTime();
+                    CommandResult r = engine.executeTurn(entry[3]);
+                    latency.record(System.nanoTime() - started);
+                    commands++;
+                    if (!r.getStatus().name().equals(entry[1]) || digest.hash != Integer.parseInt(entry[2])) {
+                        // The rest of the session has diverged too, so one report per session
+                        mismatches.add("session " + entry[0] + ", command " + (i + 1) + " '" + entry[3]
+                                + "': logged " + entry[1] + " with output " + entry[2] + ", got " + r.getStatus()
+                                + " with output " + digest.hash);
+                        break;
+                    }
+                }
+            }
+            allocated = CommandMetrics.INSTANCE.allocatedBytes() - allocatedFrom;
+        }
+    }
+
+    private static final class GcSnapshot {
+        final long count;
+        final long millis;
+
+        GcSnapshot() {
+            long c = 0;
+            long t = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                c += Math.max(0, gc.getCollectionCount());
+                t += Math.max(0, gc.getCollectionTime());
+            }
+            this.count = c;
+            this.millis = t;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import java.io.PrintStream;
+
+// Collects a session's output in memory. flush() hands it to the target
+// stream in a single write; without a target, callers take it with takeText().
+public class BufferedOutput implements OutputSink {
+    private final StringBuilder buffer;
+    private final PrintStream target;
+
+    public BufferedOutput() {
+        this(null);
+    }
+
+    public BufferedOutput(PrintStream target) {
+        this.buffer = new StringBuilder(256);
+        this.target = target;
+    }
+
+    @Override
+    public void print(String text) {
+        buffer.append(text);
+    }
+
+    @Override
+    public void println(String line) {
+        buffer.append(line).append('\n');
+    }
+
+    @Override
+    public void flush() {
+        if (target == null || buffer.length() == 0) {
+            return;
+        }
+        target.append(buffer);
+        target.flush();
+        buffer.setLength(0);
+    }
+
+    public String takeText() {
+        String text = buffer.toString();
+        buffer.setLength(0);
+        return text;
+    }
+
+    // Drops collected output without writing it anywhere
+    public void clear() {
+        buffer.setLength(0);
+    }
+
+    public int length() {
+        return buffer.length();
+    }
+}
@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+// Encodes output as UTF-8 straight into a direct ByteBuffer and writes it to a
+// channel on flush(), so text never goes through a PrintStream.
+public class ByteBufferOutput implements OutputSink {
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private ByteBuffer buffer;
+
+    public ByteBufferOutput(WritableByteChannel channel, int capacity) {
+        this.channel = channel;
+        this.encoder = StandardCharsets.UTF_8.newEncoder();
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    @Override
+    public void print(String text) {
+        encode(text);
+    }
+
+    @Override
+    public void println(String line) {
+        encode(line);
+        ensureRoom(1);
+        buffer.put((byte) '\n');
+    }
+
+    @Override
+    public void flush() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void encode(String text) {
+        CharBuffer chars = CharBuffer.wrap(text);
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                ensureRoom(buffer.capacity()); // flush or grow, then keep going
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void ensureRoom(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        if (channel != null) {
+            flush();
+        }
+        if (buffer.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Checks that a session closed while its turns are still running stays closed
+// after recovery. Queues a run of turns on every session and closes every
+// other one straight away, while a single worker is still busy with them;
+// then reopens the journal and checks that exactly the open sessions came
+// back, each with all of its turns.
+// Usage: java CloseRecoveryTest [sessions] [turns]
+public class CloseRecoveryTest {
+    private static final String[] COMMANDS = {
+            "look", "move Library", "move Storage", "back", "inventory", "pickup Flashlight",
+            "pickup OldBook", "solve EasyRiddle shadow", "solve SphinxRiddle keyboard", "move Laboratory"
+    };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int sessionCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int turns = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        WorldDefinition world = GameEngine.setupGame();
+        Path dir = Files.createTempDirectory("close-recovery");
+        Journal journal = Journal.open(dir);
+        GameServer server = new GameServer(world, 1, journal);
+        Random random = new Random(42);
+        long[] ids = new long[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            ids[i] = server.openSession();
+            List<String> commands = new ArrayList<>(turns);
+            for (int t = 0; t < turns; t++) {
+                commands.add(COMMANDS[random.nextInt(COMMANDS.length)]);
+            }
+            server.submitAll(ids[i], commands);
+            if (i % 2 == 1) {
+                server.closeSession(ids[i]);
+            }
+        }
+        int[] turnCounts = new int[sessionCount];
+        while (server.getPendingCommands() > 0) {
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < sessionCount; i += 2) {
+            turnCounts[i] = server.getEngine(ids[i]).getTurnCount();
+        }
+        server.shutdown();
+        journal.close();
+
+        int problems = 0;
+        try (Journal reopened = Journal.open(dir)) {
+            Map<Long, byte[]> recovered = reopened.takeRecoveredSessions();
+            for (int i = 0; i < sessionCount; i++) {
+                byte[] events = recovered.get(ids[i]);
+                String problem = null;
+                if (i % 2 == 1) {
+                    if (events != null) {
+                        problem = "closed, but recovered with " + events.length + " bytes of events";
+                    }
+                } else if (events == null) {
+                    problem = "open, but not recovered";
+                } else {
+                    GameEngine engine = new GameEngine(world, DiscardOutput.INSTANCE);
+                    engine.replay(events, 0, events.length);
+                    if (engine.getTurnCount() != turnCounts[i]) {
+                        problem = "recovered at turn " + engine.getTurnCount() + ", not " + turnCounts[i];
+                    }
+                    engine.releaseAttempts();
+                }
+                if (problem != null && problems++ < 5) {
+                    System.out.println("Session " + ids[i] + " " + problem);
+                }
+            }
+        }
+
+        System.out.println("Sessions:  " + sessionCount + " with " + turns + " turns queued, half closed at once");
+        System.out.println(problems == 0 ? "OK: only the open sessions came back, whole" : problems + " sessions wrong");
+        if (problems > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -1,45 +1,132 @@
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class CodePuzzle extends Puzzle {
-    private String correctCode;
-    private int maxAttempts;
-    private int attempts;
+    private static final AtomicInteger NEXT_LOCK = new AtomicInteger();
+    // Wait after each try before the next, off unless -Descape.codeCooldownMillis is set
+    private static final long COOLDOWN_NANOS = Long.getLong("escape.codeCooldownMillis", 0) * 1_000_000;
+    // Drops a lock's SHARED attempts from the AttemptTable once its puzzle is gone
+    private static final Cleaner SHARED_ATTEMPTS = Cleaner.create();
+
+    private static final class Code extends Definition {
+        final long codeDigest; // AnswerDigest of the code; the code itself isn't kept
+        final int maxAttempts;
+        final int lock;        // AttemptTable key, the same for a puzzle and its session copies
+        volatile boolean sharedAttempts; // has SHARED attempts in the AttemptTable; set once, under the Code's lock
+
+        Code(int difficulty, Item reward, long codeDigest, int maxAttempts, int lock) {
+            super(difficulty, reward);
+            this.codeDigest = codeDigest;
+            this.maxAttempts = maxAttempts;
+            this.lock = lock;
+        }
+    }
 
     public CodePuzzle(String name, int difficulty, Item reward, String correctCode, int maxAttempts) {
-        super(name, difficulty, reward);
-        this.correctCode = correctCode;
-        this.maxAttempts = maxAttempts;
-        this.attempts = 0;
+        super(name, new Code(difficulty, reward, AnswerDigest.of(correctCode, false), maxAttempts,
+                NEXT_LOCK.getAndIncrement()));
+    }
+
+    private CodePuzzle(CodePuzzle original) {
+        super(original);
+    }
+
+    private Code code() {
+        return (Code) definition;
     }
 
     @Override
-    public void inspect() {
-        System.out.println("=== Code Lock: " + name + " ===");
-        System.out.println("Difficulty: " + difficulty);
-        System.out.println("Enter the correct code to unlock.");
-        System.out.println("Attempts remaining: " + (maxAttempts - attempts));
+    public void inspect(OutputSink out) {
+        inspect(out, AttemptTable.SHARED);
+    }
+
+    // Attempts remaining are the owner's
+    public void inspect(OutputSink out, long owner) {
+        out.println("=== Code Lock: " + name + " ===");
+        out.println("Difficulty: " + getDifficulty());
+        out.println("Enter the correct code to unlock.");
+        out.println("Attempts remaining: " + (code().maxAttempts - getAttemptsUsed(owner)));
         if (solved) {
-            System.out.println("(Already unlocked!)");
+            out.println("(Already unlocked!)");
         }
     }
 
     @Override
-    public boolean attemptSolve(String answer) throws InvalidPuzzleAnswerException {
+    Puzzle copy() {
+        return new CodePuzzle(this);
+    }
+
+    @Override
+    void restoreAttempt(boolean solved, long owner) {
+        noteSharedAttempts(owner);
+        AttemptTable.INSTANCE.restore(owner, code().lock);
+        super.restoreAttempt(solved, owner);
+    }
+
+    @Override
+    // Attempts are counted in the AttemptTable, so players sharing the lock each use up
+    // one without locking it; only opening it takes the puzzle's lock, so only one does
+    public boolean attemptSolve(String answer, long owner, OutputSink out) throws InvalidPuzzleAnswerException {
         if (solved) {
             throw new InvalidPuzzleAnswerException("This lock has already been opened!");
         }
-        if (attempts >= maxAttempts) {
+        if (getAttemptsUsed(owner) >= code().maxAttempts) {
             throw new InvalidPuzzleAnswerException("No attempts remaining! The lock is jammed.");
         }
         if (answer == null || answer.trim().isEmpty()) {
             throw new InvalidPuzzleAnswerException("Code cannot be empty!");
         }
 
-        attempts++;
-        if (answer.equals(correctCode)) {
-            solved = true;
-            System.out.println("*Click* The lock opens!");
+        noteSharedAttempts(owner);
+        long used = AttemptTable.INSTANCE.claim(owner, code().lock, code().maxAttempts, COOLDOWN_NANOS);
+        if (used == AttemptTable.JAMMED) {
+            throw new InvalidPuzzleAnswerException("No attempts remaining! The lock is jammed.");
+        }
+        if (used < 0) {
+            throw new InvalidPuzzleAnswerException("The lock is still resetting. Try again in " + -used + " ms.");
+        }
+        if (AnswerDigest.of(answer, false) == code().codeDigest) {
+            synchronized (this) {
+                if (solved) {
+                    AttemptTable.INSTANCE.refund(owner, code().lock);
+                    throw new InvalidPuzzleAnswerException("This lock has already been opened!");
+                }
+                solved = true;
+            }
+            out.println("*Click* The lock opens!");
             return true;
         }
-        System.out.println("Wrong code. Attempts remaining: " + (maxAttempts - attempts));
+        out.println("Wrong code. Attempts remaining: " + (code().maxAttempts - used));
         return false;
     }
+
+    // Sessions release their own attempts when their game ends. SHARED ones
+    // (cooperative rooms, puzzles used outside an engine) belong to the puzzle,
+    // so they go when the puzzle, its copies and its world are all unreachable.
+    private void noteSharedAttempts(long owner) {
+        Code code = code();
+        if (owner != AttemptTable.SHARED || code.sharedAttempts) {
+            return;
+        }
+        synchronized (code) {
+            if (!code.sharedAttempts) {
+                int lock = code.lock;
+                SHARED_ATTEMPTS.register(code, () -> AttemptTable.INSTANCE.release(AttemptTable.SHARED, lock));
+                code.sharedAttempts = true;
+            }
+        }
+    }
+
+    public int getAttemptsUsed(long owner) {
+        return AttemptTable.INSTANCE.used(owner, code().lock);
+    }
+
+    public int getMaxAttempts() {
+        return code().maxAttempts;
+    }
+
+    // With the owner, this puzzle's key in the AttemptTable
+    public int getLock() {
+        return code().lock;
+    }
 }
@@ -0,0 +1,230 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Count, latency, allocated bytes and errors per command type, shared by every
+// engine in the JVM. Off unless started with -Descape.metrics=true or switched
+// on through JMX; while off the engine only reads one volatile flag. Players
+// can look at them with "stats" but not change them.
+public class CommandMetrics implements CommandMetricsMXBean {
+    public static final CommandMetrics INSTANCE = new CommandMetrics();
+
+    private final Stats[] byCommand; // indexed by CommandParser command id
+    private final LongAdder lockedRoom = new LongAdder();
+    private final LongAdder invalidCommand = new LongAdder();
+    private final LongAdder invalidPuzzleAnswer = new LongAdder();
+    private final LongAdder unexpected = new LongAdder();
+    private final com.sun.management.ThreadMXBean allocation;
+    private volatile boolean enabled;
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(INSTANCE, new ObjectName("escape-room:type=CommandMetrics"));
+        } catch (JMException e) {
+            // Already registered, e.g. by a second class loader; the metrics still work locally
+        }
+    }
+
+    private CommandMetrics() {
+        this.byCommand = new Stats[CommandParser.COMMAND_COUNT];
+        for (int command = 0; command < byCommand.length; command++) {
+            byCommand[command] = new Stats();
+        }
+        this.allocation = allocationCounter();
+        this.enabled = Boolean.getBoolean("escape.metrics");
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+            if (counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled()) {
+                return counter;
+            }
+        }
+        return null; // not HotSpot: allocation columns stay at 0
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // Bytes allocated so far by the calling thread
+    public long allocatedBytes() {
+        return allocation != null ? Math.max(0, allocation.getCurrentThreadAllocatedBytes()) : 0;
+    }
+
+    // command is a CommandParser id; failure is the exception it threw, or null
+    public void record(int command, long nanos, long bytes, Throwable failure) {
+        Stats stats = byCommand[command];
+        stats.count.increment();
+        stats.latency.record(nanos);
+        stats.allocated.add(bytes);
+        if (failure == null) {
+            return;
+        }
+        stats.errors.increment();
+        if (failure instanceof LockedRoomException) {
+            lockedRoom.increment();
+        } else if (failure instanceof InvalidCommandException) {
+            invalidCommand.increment();
+        } else if (failure instanceof InvalidPuzzleAnswerException) {
+            invalidPuzzleAnswer.increment();
+        } else {
+            unexpected.increment();
+        }
+    }
+
+    @Override
+    public long getTotalCommands() {
+        long total = 0;
+        for (Stats stats : byCommand) {
+            total += stats.count.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getLockedRoomExceptions() {
+        return lockedRoom.sum();
+    }
+
+    @Override
+    public long getInvalidCommandExceptions() {
+        return invalidCommand.sum();
+    }
+
+    @Override
+    public long getInvalidPuzzleAnswerExceptions() {
+        return invalidPuzzleAnswer.sum();
+    }
+
+    @Override
+    public long getUnexpectedExceptions() {
+        return unexpected.sum();
+    }
+
+    // Commands that have run at least once, in command id order
+    @Override
+    public List<CommandStat> getCommandStats() {
+        List<CommandStat> result = new ArrayList<>();
+        for (int command = 0; command < byCommand.length; command++) {
+            Stats stats = byCommand[command];
+            long count = stats.count.sum();
+            if (count > 0) {
+                LatencyHistogram h = stats.latency;
+                result.add(new CommandStat(CommandParser.commandName(command), count, stats.errors.sum(), h.getMean() / 1000.0,
+                        h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+                        h.getMax() / 1000.0, stats.allocated.sum() / count));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        for (Stats stats : byCommand) {
+            stats.count.reset();
+            stats.errors.reset();
+            stats.allocated.reset();
+            stats.latency.reset();
+        }
+        lockedRoom.reset();
+        invalidCommand.reset();
+        invalidPuzzleAnswer.reset();
+        unexpected.reset();
+    }
+
+    public void report(OutputSink out) {
+        out.println("=== STATS " + (enabled ? "(recording)" : "(off, -Descape.metrics=true or JMX to record)") + " ===");
+        out.println(String.format("%-10s %8s %7s %10s %10s %10s %10s %12s",
+                "command", "count", "errors", "mean us", "p50 us", "p99 us", "max us", "bytes/cmd"));
+        for (CommandStat s : getCommandStats()) {
+            out.println(String.format("%-10s %8d %7d %10.1f %10.1f %10.1f %10.1f %12d",
+                    s.getCommand(), s.getCount(), s.getErrors(), s.getMeanMicros(), s.getP50Micros(),
+                    s.getP99Micros(), s.getMaxMicros(), s.getAllocatedBytesPerCommand()));
+        }
+        out.println("LockedRoomException: " + getLockedRoomExceptions()
+                + "  InvalidCommandException: " + getInvalidCommandExceptions()
+                + "  InvalidPuzzleAnswerException: " + getInvalidPuzzleAnswerExceptions()
+                + "  other: " + getUnexpectedExceptions());
+    }
+
+    private static class Stats {
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder allocated = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram(); // nanoseconds
+    }
+
+    // One row of the stats table; JMX shows it as CompositeData
+    public static class CommandStat {
+        private final String command;
+        private final long count;
+        private final long errors;
+        private final double meanMicros;
+        private final double p50Micros;
+        private final double p99Micros;
+        private final double maxMicros;
+        private final long allocatedBytesPerCommand;
+
+        public CommandStat(String command, long count, long errors, double meanMicros, double p50Micros,
+                           double p99Micros, double maxMicros, long allocatedBytesPerCommand) {
+            this.command = command;
+            this.count = count;
+            this.errors = errors;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+            this.allocatedBytesPerCommand = allocatedBytesPerCommand;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getErrorRate() {
+            return count == 0 ? 0 : (double) errors / count;
+        }
+
+        public double getMeanMicros() {
+            return meanMicros;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getMaxMicros() {
+            return maxMicros;
+        }
+
+        public long getAllocatedBytesPerCommand() {
+            return allocatedBytesPerCommand;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+import java.util.List;
+
+// JMX view of CommandMetrics, registered as escape-room:type=CommandMetrics
+public interface CommandMetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getTotalCommands();
+
+    long getLockedRoomExceptions();
+
+    long getInvalidCommandExceptions();
+
+    long getInvalidPuzzleAnswerExceptions();
+
+    long getUnexpectedExceptions();
+
+    List<CommandMetrics.CommandStat> getCommandStats();
+
+    void reset();
+}
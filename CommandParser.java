@@ -0,0 +1,143 @@
+// Tokenizes one command line at a time into a reused char buffer: no regex,
+// no split array, no lower-cased copy. The command word resolves to an int id
+// through a fixed table, and words of the argument resolve to the interned
+// names of the world, so well-formed input allocates nothing. A puzzle answer
+// is copied as typed: puzzles keep only a digest of theirs, so there is
+// nothing to intern it against. One parser per engine; not thread-safe.
+public class CommandParser {
+    public static final int HELP = 0;
+    public static final int LOOK = 1;
+    public static final int MOVE = 2;
+    public static final int BACK = 3;
+    public static final int PICKUP = 4;
+    public static final int INVENTORY = 5;
+    public static final int SOLVE = 6;
+    public static final int INSPECT = 7;
+    public static final int MAP = 8;
+    public static final int STATUS = 9;
+    public static final int STATS = 10;
+    public static final int QUIT = 11;
+    public static final int UNKNOWN = 12;
+    public static final int COMMAND_COUNT = 13;
+
+    private static final String[] COMMAND_NAMES = {
+            "help", "look", "move", "back", "pickup", "inventory", "solve",
+            "inspect", "map", "status", "stats", "quit", "unknown"
+    };
+    private static final NameTable COMMAND_TABLE = new NameTable(true);
+    private static final int[] COMMAND_IDS; // COMMAND_TABLE id -> command id
+
+    static {
+        String[][] spellings = {{"help"}, {"look"}, {"move"}, {"back"}, {"pickup"}, {"inventory"},
+                {"solve"}, {"inspect"}, {"map"}, {"status"}, {"stats"}, {"quit", "exit"}};
+        COMMAND_IDS = new int[16];
+        for (int command = 0; command < spellings.length; command++) {
+            for (String spelling : spellings[command]) {
+                COMMAND_IDS[COMMAND_TABLE.add(spelling)] = command;
+            }
+        }
+    }
+
+    private final NameTable names;
+    private char[] buffer = new char[64];
+    private int command;
+    private int commandStart;
+    private int commandEnd;
+    private int argumentStart;
+    private int argumentEnd;
+    private int wordEnd;   // end of the argument's first word
+    private int restStart; // start of the argument after that word
+
+    // names: case-insensitive room, item and puzzle names
+    public CommandParser(NameTable names) {
+        this.names = names;
+    }
+
+    public static String commandName(int command) {
+        return COMMAND_NAMES[command];
+    }
+
+    public void parse(String line) {
+        int length = line.length();
+        if (buffer.length < length) {
+            buffer = new char[Math.max(length, buffer.length * 2)];
+        }
+        line.getChars(0, length, buffer, 0);
+
+        commandStart = skipSpace(0, length);
+        commandEnd = skipWord(commandStart, length);
+        int id = COMMAND_TABLE.find(buffer, commandStart, commandEnd - commandStart);
+        command = id == NameTable.NOT_FOUND ? UNKNOWN : COMMAND_IDS[id];
+
+        argumentStart = skipSpace(commandEnd, length);
+        argumentEnd = length;
+        while (argumentEnd > argumentStart && Character.isWhitespace(buffer[argumentEnd - 1])) {
+            argumentEnd--;
+        }
+        wordEnd = skipWord(argumentStart, argumentEnd);
+        restStart = skipSpace(wordEnd, argumentEnd);
+    }
+
+    public int command() {
+        return command;
+    }
+
+    // The command word as typed, lower-cased, for error messages
+    public String commandText() {
+        return new String(buffer, commandStart, commandEnd - commandStart).toLowerCase();
+    }
+
+    public boolean hasArgument() {
+        return argumentEnd > argumentStart;
+    }
+
+    public boolean hasRest() {
+        return argumentEnd > restStart;
+    }
+
+    // Everything after the command, as a lookup key: the interned lower-case
+    // name if the world knows it, otherwise a copy of what was typed
+    public String argument() {
+        return resolve(names, argumentStart, argumentEnd);
+    }
+
+    // The first word of the argument, as a lookup key
+    public String word() {
+        return resolve(names, argumentStart, wordEnd);
+    }
+
+    // The argument after its first word, e.g. the answer in "solve <puzzle> <answer>",
+    // as typed. Never looked up in a table, so the only comparison an answer
+    // goes through is the puzzle's digest check.
+    public String rest() {
+        return new String(buffer, restStart, argumentEnd - restStart);
+    }
+
+    // What the player typed, for messages
+    public String argumentText() {
+        return new String(buffer, argumentStart, argumentEnd - argumentStart);
+    }
+
+    public String wordText() {
+        return new String(buffer, argumentStart, wordEnd - argumentStart);
+    }
+
+    private String resolve(NameTable table, int start, int end) {
+        int id = table.find(buffer, start, end - start);
+        return id != NameTable.NOT_FOUND ? table.name(id) : new String(buffer, start, end - start);
+    }
+
+    private int skipSpace(int i, int end) {
+        while (i < end && Character.isWhitespace(buffer[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private int skipWord(int i, int end) {
+        while (i < end && !Character.isWhitespace(buffer[i])) {
+            i++;
+        }
+        return i;
+    }
+}
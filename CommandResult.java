@@ -0,0 +1,64 @@
+// Outcome of one command run through GameEngine.executeTurn
+public class CommandResult {
+    public enum Status {
+        OK,
+        INVALID_COMMAND,
+        LOCKED,
+        PUZZLE_ERROR,
+        ERROR,
+        GAME_OVER // the session had already ended, command ignored
+    }
+
+    private final Status status;
+    private final String message;
+    private final int turnCount;
+    private final boolean gameRunning;
+    private final String output;
+
+    public CommandResult(Status status, String message, int turnCount, boolean gameRunning) {
+        this(status, message, turnCount, gameRunning, null);
+    }
+
+    public CommandResult(Status status, String message, int turnCount, boolean gameRunning, String output) {
+        this.status = status;
+        this.message = message;
+        this.turnCount = turnCount;
+        this.gameRunning = gameRunning;
+        this.output = output;
+    }
+
+    public CommandResult withOutput(String output) {
+        return new CommandResult(status, message, turnCount, gameRunning, output);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isOk() {
+        return status == Status.OK;
+    }
+
+    // Error text for failed commands, null on success
+    public String getMessage() {
+        return message;
+    }
+
+    public int getTurnCount() {
+        return turnCount;
+    }
+
+    public boolean isGameRunning() {
+        return gameRunning;
+    }
+
+    // Everything the command printed, when the session buffers its output
+    public String getOutput() {
+        return output;
+    }
+
+    @Override
+    public String toString() {
+        return status + (message != null ? ": " + message : "") + " (turn " + turnCount + ")";
+    }
+}
@@ -0,0 +1,23 @@
+// Writes straight to System.out, one println at a time. This is the old
+// behaviour and what the no-argument inspect() methods still use.
+public class ConsoleOutput implements OutputSink {
+    public static final ConsoleOutput INSTANCE = new ConsoleOutput();
+
+    private ConsoleOutput() {
+    }
+
+    @Override
+    public void print(String text) {
+        System.out.print(text);
+    }
+
+    @Override
+    public void println(String line) {
+        System.out.println(line);
+    }
+
+    @Override
+    public void flush() {
+        System.out.flush();
+    }
+}
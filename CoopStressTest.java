@@ -0,0 +1,202 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Many players on many threads racing for the same items and code locks in
+// one cooperative world. Afterwards every item must be in exactly one place,
+// each lock must have used exactly as many attempts as players were told they
+// made, and each reward must have gone to at most one player.
+// Usage: java CoopStressTest [threads] [gamesPerThread]
+public class CoopStressTest {
+    private static final int GEMS = 400;
+    private static final int COINS = 40;  // all called "Coin", half in each room
+    private static final int LOCKS = 8;
+    private static final int MAX_ATTEMPTS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int gamesPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        WorldDefinition world = buildWorld();
+        Room[] rooms = world.instantiate();
+        IdentityHashMap<Item, Boolean> original = new IdentityHashMap<>();
+        Map<Integer, CodePuzzle> locks = new HashMap<>();
+        for (Room room : rooms) {
+            for (GameComponent gc : room.getContents()) {
+                if (gc instanceof Item) {
+                    original.put((Item) gc, Boolean.TRUE);
+                } else if (gc instanceof CodePuzzle) {
+                    locks.put(Integer.parseInt(gc.getName().substring(4)), (CodePuzzle) gc);
+                }
+            }
+        }
+
+        AtomicIntegerArray attemptsReported = new AtomicIntegerArray(LOCKS);
+        ConcurrentLinkedQueue<Player> players = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CyclicBarrier startLine = new CyclicBarrier(threadCount);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            long seed = t;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    startLine.await();
+                    for (int game = 0; game < gamesPerThread; game++) {
+                        GameEngine engine = new GameEngine(world, rooms, DiscardOutput.INSTANCE);
+                        players.add(engine.getPlayer());
+                        while (engine.isGameRunning()) {
+                            int lock = random.nextInt(LOCKS);
+                            String command = randomCommand(random, lock);
+                            CommandResult r = engine.executeTurn(command);
+                            if (r.getStatus() == CommandResult.Status.ERROR) {
+                                throw new IllegalStateException(command + ": " + r.getMessage());
+                            }
+                            if (command.startsWith("solve") && r.getStatus() == CommandResult.Status.OK) {
+                                attemptsReported.incrementAndGet(lock);
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }, "player-" + t);
+            threads.add(thread);
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        List<String> problems = new ArrayList<>();
+        for (Throwable e : failures) {
+            problems.add("player thread failed: " + e);
+        }
+
+        // Every original item is in exactly one room or inventory; rewards in at most one inventory
+        IdentityHashMap<Item, Integer> seen = new IdentityHashMap<>();
+        for (Room room : rooms) {
+            for (GameComponent gc : room.getContents()) {
+                if (gc instanceof Item) {
+                    seen.merge((Item) gc, 1, Integer::sum);
+                }
+            }
+        }
+        int rewardsHeld = 0;
+        for (Player p : players) {
+            for (Item item : p.getInventory()) {
+                seen.merge(item, 1, Integer::sum);
+                if (!original.containsKey(item)) {
+                    rewardsHeld++;
+                }
+            }
+        }
+        for (Item item : original.keySet()) {
+            int count = seen.getOrDefault(item, 0);
+            if (count != 1) {
+                problems.add(item.getName() + " found " + count + " times");
+            }
+        }
+        for (Map.Entry<Item, Integer> e : seen.entrySet()) {
+            if (!original.containsKey(e.getKey()) && e.getValue() != 1) {
+                problems.add("reward " + e.getKey().getName() + " held " + e.getValue() + " times");
+            }
+        }
+
+        // Each lock's attempt counter matches what players were told, and rewards match solved locks
+        int solved = 0;
+        for (int i = 0; i < LOCKS; i++) {
+            CodePuzzle lock = locks.get(i);
+            if (lock.getAttemptsUsed(AttemptTable.SHARED) != attemptsReported.get(i)) {
+                problems.add(lock.getName() + " used " + lock.getAttemptsUsed(AttemptTable.SHARED) + " attempts, players made "
+                        + attemptsReported.get(i));
+            }
+            if (lock.getAttemptsUsed(AttemptTable.SHARED) > MAX_ATTEMPTS) {
+                problems.add(lock.getName() + " used more than " + MAX_ATTEMPTS + " attempts");
+            }
+            if (lock.isSolved()) {
+                solved++;
+            }
+        }
+        if (rewardsHeld != solved) {
+            problems.add(solved + " locks opened but " + rewardsHeld + " rewards handed out");
+        }
+
+        System.out.println("Threads:       " + threadCount);
+        System.out.println("Players:       " + players.size());
+        System.out.printf("Elapsed:       %.0f ms%n", elapsed / 1e6);
+        System.out.println("Items:         " + original.size() + ", " + (original.size() - countInRooms(rooms)) + " picked up");
+        System.out.println("Locks opened:  " + solved + " of " + LOCKS);
+        if (problems.isEmpty()) {
+            System.out.println("OK");
+        } else {
+            for (String problem : problems) {
+                System.out.println("FAIL: " + problem);
+            }
+            System.exit(1);
+        }
+    }
+
+    private static String randomCommand(Random random, int lock) {
+        int roll = random.nextInt(100);
+        if (roll < 40) {
+            return "pickup Gem" + random.nextInt(GEMS);
+        } else if (roll < 50) {
+            return "pickup Coin";
+        } else if (roll < 65) {
+            return "solve Lock" + lock + " " + (40 + random.nextInt(8)); // the code is 42
+        } else if (roll < 75) {
+            return random.nextBoolean() ? "move Annex" : "move Hall";
+        } else if (roll < 80) {
+            return "back";
+        } else if (roll < 88) {
+            return "look";
+        } else if (roll < 94) {
+            return "inspect Lock" + lock;
+        }
+        return "map";
+    }
+
+    private static int countInRooms(Room[] rooms) {
+        int count = 0;
+        for (Room room : rooms) {
+            for (GameComponent gc : room.getContents()) {
+                if (gc instanceof Item) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    // A hall and an annex, both full of gems and coins, with code locks split between them
+    private static WorldDefinition buildWorld() {
+        WorldDefinition.Builder world = new WorldDefinition.Builder();
+        int hall = world.addRoom("Hall", false);
+        int annex = world.addRoom("Annex", false);
+        world.connect(hall, annex);
+        world.connect(annex, hall);
+        for (int i = 0; i < GEMS; i++) {
+            world.addItem(i % 2 == 0 ? hall : annex, "Gem" + i, i, ItemType.TREASURE, null);
+        }
+        for (int i = 0; i < COINS; i++) {
+            world.addItem(i % 2 == 0 ? hall : annex, "Coin", 1, ItemType.TREASURE, null);
+        }
+        for (int i = 0; i < LOCKS; i++) {
+            WorldDefinition.ItemDef prize = new WorldDefinition.ItemDef("Prize" + i, 50, ItemType.TREASURE, null);
+            world.addCodePuzzle(i % 2 == 0 ? hall : annex, "Lock" + i, 2, prize, "42", MAX_ATTEMPTS);
+        }
+        world.setStartRoom(hall);
+        return world.build();
+    }
+}
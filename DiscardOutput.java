@@ -0,0 +1,19 @@
+// Swallows everything, e.g. while a recovered session replays its journal
+public class DiscardOutput implements OutputSink {
+    public static final DiscardOutput INSTANCE = new DiscardOutput();
+
+    private DiscardOutput() {
+    }
+
+    @Override
+    public void print(String text) {
+    }
+
+    @Override
+    public void println(String line) {
+    }
+
+    @Override
+    public void flush() {
+    }
+}
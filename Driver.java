@@ -1,6 +1,17 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
 public class Driver {
-    public static void main(String[] args) {
-        GameEngine game = new GameEngine();
+    // Optional argument: a .world text file or a compiled binary world
+    public static void main(String[] args) throws IOException, WorldFormatException {
+        GameEngine game;
+        if (args.length == 0) {
+            game = new GameEngine();
+        } else if (args[0].endsWith(".world")) {
+            game = new GameEngine(WorldCompiler.readText(Path.of(args[0])));
+        } else {
+            game = new GameEngine(MappedWorld.open(Path.of(args[0])), new BufferedOutput(System.out));
+        }
         game.start();
     }
 }
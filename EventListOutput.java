@@ -0,0 +1,43 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Keeps output as a list of lines instead of text, for clients that render
+// it themselves. A print() without newline is joined to the next line.
+public class EventListOutput implements OutputSink {
+    private final List<String> lines = new ArrayList<>();
+    private final StringBuilder partial = new StringBuilder();
+
+    @Override
+    public void print(String text) {
+        partial.append(text);
+    }
+
+    @Override
+    public void println(String line) {
+        if (partial.length() > 0) {
+            lines.add(partial.append(line).toString());
+            partial.setLength(0);
+        } else {
+            lines.add(line);
+        }
+    }
+
+    @Override
+    public void flush() {
+        endPartialLine();
+    }
+
+    public List<String> takeLines() {
+        endPartialLine();
+        List<String> result = new ArrayList<>(lines);
+        lines.clear();
+        return result;
+    }
+
+    private void endPartialLine() {
+        if (partial.length() > 0) {
+            lines.add(partial.toString());
+            partial.setLength(0);
+        }
+    }
+}
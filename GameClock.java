@@ -0,0 +1,102 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Wall-clock timers for the whole JVM: session time limits, hibernation
+// sweeps, anything that should happen some time from now whether or not a
+// player does anything. Every timer lives in one TimerWheel of 10 ms ticks
+// turned by a single daemon thread, so a timer costs one small object and
+// scheduling or cancelling it is O(1), with no thread or executor task per
+// timer. Any thread may schedule or cancel; the requests are queued and the
+// clock thread applies them before it next turns the wheel. Timers fire on
+// the clock thread and must be quick: hand real work to another executor.
+// A timer that throws goes to the default uncaught exception handler, and the
+// clock carries on with the others.
+public final class GameClock {
+    public static final GameClock INSTANCE = new GameClock(10_000_000L);
+
+    private final long tickNanos;
+    private final long origin = System.nanoTime();
+    private final TimerWheel wheel = new TimerWheel(6, 4, this::timerFailed); // 2^24 ticks, about 46 hours, before timers wrap
+    private final AtomicLong timerFailures = new AtomicLong();
+    private final ConcurrentLinkedQueue<Request> requests = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+
+    GameClock(long tickNanos) {
+        this.tickNanos = tickNanos;
+        this.thread = new Thread(this::run, "game-clock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Fires the timer delayNanos from now, rounded up to a tick. A timer that
+    // is already scheduled moves.
+    public void schedule(TimerWheel.Timer timer, long delayNanos) {
+        long at = System.nanoTime() - origin + Math.max(0, delayNanos);
+        request(new Request(timer, (at + tickNanos - 1) / tickNanos));
+    }
+
+    // Does nothing if the timer has already fired
+    public void cancel(TimerWheel.Timer timer) {
+        request(new Request(timer, -1));
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    // Timers whose expire threw
+    public long getTimerFailures() {
+        return timerFailures.get();
+    }
+
+    private void request(Request r) {
+        requests.add(r);
+        if (Thread.currentThread() != thread) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Request r;
+            while ((r = requests.poll()) != null) {
+                if (r.tick < 0) {
+                    wheel.cancel(r.timer);
+                } else {
+                    wheel.schedule(r.timer, r.tick);
+                }
+            }
+            wheel.advanceTo((System.nanoTime() - origin) / tickNanos);
+            if (!requests.isEmpty()) {
+                continue; // timers that fired scheduled more
+            }
+            if (wheel.size() == 0) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, tickNanos - (System.nanoTime() - origin) % tickNanos);
+            }
+        }
+    }
+
+    // Reported as if it had killed the clock thread, which it doesn't
+    private void timerFailed(TimerWheel.Timer timer, RuntimeException failure) {
+        timerFailures.incrementAndGet();
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        if (handler == null) {
+            handler = thread.getThreadGroup(); // prints it, as for any uncaught exception
+        }
+        handler.uncaughtException(thread, new IllegalStateException(
+                "Timer " + timer + " due on tick " + timer.getDeadline() + " failed", failure));
+    }
+
+    private static final class Request {
+        final TimerWheel.Timer timer;
+        final long tick; // -1 to cancel
+
+        Request(TimerWheel.Timer timer, long tick) {
+            this.tick = tick;
+            this.timer = timer;
+        }
+    }
+}
@@ -1,11 +1,28 @@
+import java.util.Locale;
+
 public abstract class GameComponent {
     protected String name;
-    public abstract void inspect();
+    private final String key; // lower-cased name for case-insensitive lookups; copies share it
+    public abstract void inspect(OutputSink out);
+
+    public void inspect() {
+        inspect(ConsoleOutput.INSTANCE);
+    }
 
     public GameComponent(String name){
+        this(name, name == null ? null : name.toLowerCase(Locale.ROOT));
+    }
+
+    // For copies of a component, which take its key rather than lower-case the name again
+    GameComponent(String name, String key) {
         this.name = name;
+        this.key = key;
     }
     public String getName(){
         return name;
     }
+
+    public String getKey() {
+        return key;
+    }
 }
@@ -1,264 +1,739 @@
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
 
 public class GameEngine {
-    private ArrayList<Room> map;
-    private Queue<String> hintQueue;
+    public static final int MAX_TURNS = 35;
+    private static final int HINT_EVERY = 3; // turns
+
+    private List<Room> map; // by room id
+    private Queue<String> hintQueue;  // the world's own hints, shown first
+    private RouteHints routeHints;    // then hints about the way out; null for MappedWorld games
     private Player player;
     private int turnCount;
     private boolean gameRunning;
     private Room startRoom;
+    private final OutputSink out;
+    private final CommandParser parser;
+    private final NameTable names;
+    private Journal journal;          // null unless the session is journaled
+    private long sessionId;
+    private SessionEvents events;     // this turn's state changes, while journaled or keeping history
+    private SessionEvents history;    // every state change since the game began, see keepHistory
+    private CompletableFuture<Void> commit;
+    private long attemptOwner;        // whose code lock attempts these are, see AttemptTable
+    private int[] triedLocks;         // locks with attempts of this session's in the AttemptTable
+    private int triedLockCount;
+    private LockJamListener lockJamListener; // null unless someone resets jammed locks
+    private final TimerWheel turnRules = new TimerWheel(2, 1); // ticks are turns, see advanceTurn
+    private final Rule timeLimit = new Rule(Rule.TIME_LIMIT);
+    private final Rule hint = new Rule(Rule.HINT);
+    private final Rule winCheck = new Rule(Rule.WIN_CHECK);
+    private OutputSink turnOut;       // where this turn's rules print
 
     public GameEngine() {
-        this.map = new ArrayList<>();
+        this(setupGame());
+    }
+
+    public GameEngine(WorldDefinition world) {
+        this(world, new BufferedOutput(System.out));
+    }
+
+    public GameEngine(WorldDefinition world, OutputSink out) {
+        // All engines read the world's one shared Room graph; what this player
+        // changes goes into a WorldOverlay of their own
+        this(world.sharedRooms(), world.getStartRoom(), world.getHints(), out,
+                world.getNames(), new CommandParser(world.getNames()));
+        player.setOverlay(new WorldOverlay());
+        this.routeHints = world.routeHints();
+    }
+
+    // A cooperative game: the player acts directly on rooms that other players,
+    // possibly on other threads, play in too (see GameServer.cooperative)
+    public GameEngine(WorldDefinition world, Room[] rooms, OutputSink out) {
+        this(rooms, world.getStartRoom(), world.getHints(), out,
+                world.getNames(), new CommandParser(world.getNames()));
+        this.routeHints = world.routeHints();
+        this.attemptOwner = AttemptTable.SHARED; // a lock's attempts are everyone's
+    }
+
+    public GameEngine(MappedWorld world, OutputSink out) {
+        // Only the start room exists up front; the rest load as the player reaches them.
+        // Names aren't known ahead of time, so arguments are copied rather than interned.
+        this(new Room[] {world.newInstance().getStartRoom()}, 0, world.getHints(), out,
+                null, new CommandParser(new NameTable(true)));
+    }
+
+    private GameEngine(Room[] rooms, int start, List<String> hints, OutputSink out,
+                       NameTable names, CommandParser parser) {
+        this.out = out;
+        this.names = names;
+        this.parser = parser;
         this.hintQueue = new LinkedList<>();
         this.turnCount = 0;
         this.gameRunning = true;
-        setupGame();
+
+        this.map = Arrays.asList(rooms); // a view, so shared rooms aren't copied per session
+        this.startRoom = rooms[start];
+        this.player = new Player(startRoom, out);
+        this.attemptOwner = AttemptTable.newOwner();
+        hintQueue.addAll(hints);
+        turnRules.schedule(timeLimit, MAX_TURNS);
+        turnRules.schedule(hint, HINT_EVERY);
+        turnRules.schedule(winCheck, 1);
     }
 
-    private void setupGame() {
+    public static WorldDefinition setupGame() {
+        WorldDefinition.Builder world = new WorldDefinition.Builder();
+
         // Create rooms
-        Room lobby = new Room("Lobby", false);
-        Room library = new Room("Library", false);
-        Room lab = new Room("Laboratory", false, "LabKey"); // Requires LabKey
-        Room storage = new Room("Storage", false);
-        Room exitRoom = new Room("ExitRoom", true,"ExitKey");
-
-        // Connect rooms 
-        lobby.addConnectedRoom(library);  
-        lobby.addConnectedRoom(storage);  
-        library.addConnectedRoom(lab);    
-        lab.addConnectedRoom(exitRoom);   
+        int lobby = world.addRoom("Lobby", false);
+        int library = world.addRoom("Library", false);
+        int lab = world.addRoom("Laboratory", false, "LabKey"); // Requires LabKey
+        int storage = world.addRoom("Storage", false);
+        int exitRoom = world.addRoom("ExitRoom", true, "ExitKey");
+
+        // Connect rooms
+        world.connect(lobby, library);
+        world.connect(lobby, storage);
+        world.connect(library, lab);
+        world.connect(lab, exitRoom);
 
         // Add items
-        lobby.addContent(new Item("Flashlight", 10, "TOOL", "A sturdy LED flashlight."));
-        storage.addContent(new Item("OldBook", 5, "CLUE", "An interesting book'."));
-        Item labKey = new Item("LabKey", 100, "KEY", "A heavy brass key labeled 'LAB'.");
-        Item exitKey = new Item("ExitKey", 100, "KEY", "A key to open exit room.");
-        lab.addContent(new Item("ScrapPaper",1,"CLUE", "password '1234' is too easy to guess!"));
-        lab.addContent(new CodePuzzle("SafeLock",3,exitKey,"1234",5));
+        world.addItem(lobby, "Flashlight", 10, ItemType.TOOL, "A sturdy LED flashlight.");
+        world.addItem(storage, "OldBook", 5, ItemType.CLUE, "An interesting book'.");
+        WorldDefinition.ItemDef labKey = new WorldDefinition.ItemDef("LabKey", 100, ItemType.KEY, "A heavy brass key labeled 'LAB'.");
+        WorldDefinition.ItemDef exitKey = new WorldDefinition.ItemDef("ExitKey", 100, ItemType.KEY, "A key to open exit room.");
+        world.addItem(lab, "ScrapPaper", 1, ItemType.CLUE, "password '1234' is too easy to guess!");
+        world.addCodePuzzle(lab, "SafeLock", 3, exitKey, "1234", 5);
         // Add puzzles
-        library.addContent(new RiddlePuzzle("SphinxRiddle",2,labKey,
-                "What has keys but no locks, space but no room, and you can enter but can't go inside?","keyboard"));
-        library.addContent(new RiddlePuzzle("EasyRiddle",1,null,
+        world.addRiddlePuzzle(library, "SphinxRiddle", 2, labKey,
+                "What has keys but no locks, space but no room, and you can enter but can't go inside?", "keyboard");
+        world.addRiddlePuzzle(library, "EasyRiddle", 1, null,
                 "What has no weight, no shape, but follows you wherever you go?",
-                "shadow"));
-        
-        // Add rooms to map
-        map.add(lobby);
-        map.add(library);
-        map.add(lab);
-        map.add(storage);
-        map.add(exitRoom);
-
-        // Set starting room and create player
-        this.startRoom = lobby;
-        this.player = new Player(startRoom);
+                "shadow");
+
+        // Set starting room
+        world.setStartRoom(lobby);
 
         // Add some hints to the queue
-        hintQueue.add("Hint: You should to visit all the room");
-        hintQueue.add("Hint: Some doors need keys to unlock.");
-        hintQueue.add("Hint: Solving puzzles may reveal useful information.");
-        hintQueue.add("Hint: The password for safe lock has 4 numbers");
-        hintQueue.add("Hint: Inspect the ScrapPaper can reveal the password");
+        world.addHint("Hint: You should to visit all the room");
+        world.addHint("Hint: Some doors need keys to unlock.");
+        world.addHint("Hint: Solving puzzles may reveal useful information.");
+        world.addHint("Hint: The password for safe lock has 4 numbers");
+        world.addHint("Hint: Inspect the ScrapPaper can reveal the password");
 
+        return world.build();
     }
 
     public void start() {
         Scanner scanner = new Scanner(System.in);
-        System.out.println("========================================");
-        System.out.println("  WELCOME TO THE ESCAPE ROOM!");
-        System.out.println("========================================");
-        System.out.println("You wake up in a locked facility.");
-        System.out.println("Find the exit to escape!\n");
-        System.out.println("Type 'help' for available commands.\n");
-
-        player.getCurrentRoom().inspect();
+        welcome();
 
         while (gameRunning) {
-            System.out.print("\n> ");
+            out.print("\n> ");
+            out.flush();
             String input = scanner.nextLine().trim();
             if (input.isEmpty()) {
                 continue;
             }
-            try {
-                processCommand(input);
-                turnCount++;
-                if (turnCount >= 35) { // Example limit
-                    System.out.println("Time has run out! You are trapped forever.");
+            Puzzle pending = puzzleAwaitingAnswer(input);
+            if (pending != null) {
+                pending.inspect(out);
+                out.print("Your answer: ");
+                out.flush();
+                input = input + " " + scanner.nextLine().trim();
+            }
+            executeTurn(input);
+        }
+        if (!timeLimit.isScheduled()) {
+            return; // Ran out of time, nothing more to say
+        }
+
+        scanner.close();
+        out.println("Thanks for playing!");
+        out.flush();
+    }
+
+    // The opening text and the room the player starts in; not a turn
+    public CommandResult welcome() {
+        out.println("========================================");
+        out.println("  WELCOME TO THE ESCAPE ROOM!");
+        out.println("========================================");
+        out.println("You wake up in a locked facility.");
+        out.println("Find the exit to escape!\n");
+        out.println("Type 'help' for available commands.\n");
+
+        player.getCurrentRoom().inspect(out);
+        out.flush();
+        return result(CommandResult.Status.OK, null);
+    }
+
+    // Runs one command plus the per-turn rules (turn limit, hints, win check).
+    // Shared by the console loop and GameServer sessions. Output is flushed once, at the end.
+    public CommandResult executeTurn(String input) {
+        if (!gameRunning) {
+            return result(CommandResult.Status.GAME_OVER, "The game is over.");
+        }
+        try {
+            runCommand(input);
+            if (parser.command() == CommandParser.STATS) {
+                return result(CommandResult.Status.OK, null); // about the server, not the game: not a turn
+            }
+            if (events != null) {
+                events.turn();
+            }
+            advanceTurn(out);
+            return result(CommandResult.Status.OK, null);
+        } catch (InvalidCommandException e) {
+            out.println("Error: " + e.getMessage());
+            return result(CommandResult.Status.INVALID_COMMAND, e.getMessage());
+        } catch (LockedRoomException e) {
+            out.println("LOCKED: " + e.getMessage());
+            return result(CommandResult.Status.LOCKED, e.getMessage());
+        } catch (InvalidPuzzleAnswerException e) {
+            out.println("Puzzle Error: " + e.getMessage());
+            return result(CommandResult.Status.PUZZLE_ERROR, e.getMessage());
+        } catch (Exception e) {
+            out.println("An unexpected error occurred: " + e.getMessage());
+            return result(CommandResult.Status.ERROR, e.getMessage());
+        } finally {
+            commitEvents();
+            if (!gameRunning) {
+                releaseAttempts();
+            }
+            out.flush();
+        }
+    }
+
+    // The session ran out of wall-clock time (see GameServer.enableTimeLimit).
+    // Not a turn: the game just ends, and the text waits for the next reply.
+    public void timeUp() {
+        if (!gameRunning) {
+            return;
+        }
+        out.println("Time has run out! You are trapped forever.");
+        gameRunning = false;
+        if (events != null) {
+            events.timeUp();
+        }
+        commitEvents();
+        releaseAttempts();
+        out.flush();
+    }
+
+    private void commitEvents() {
+        if (events != null && events.size() > 0) {
+            if (journal != null) {
+                commit = journal.append(sessionId, events.array(), events.size());
+            }
+            if (history != null) {
+                history.append(events.array(), 0, events.size());
+            }
+            events.clear();
+        }
+    }
+
+    // Runs the per-turn rules due this turn; a turn is a tick of turnRules
+    private void advanceTurn(OutputSink out) {
+        turnCount++;
+        turnOut = out;
+        turnRules.advanceTo(turnCount);
+    }
+
+    // A rule that runs on some turn. Rules due on the same turn run in rank order.
+    private final class Rule extends TimerWheel.Timer {
+        static final int TIME_LIMIT = 0; // first, so nothing else happens on the last turn
+        static final int HINT = 1;
+        static final int WIN_CHECK = 2;
+
+        Rule(int rank) {
+            super(rank);
+        }
+
+        @Override
+        protected void expire(long turn) {
+            switch (rank()) {
+                case TIME_LIMIT:
+                    turnOut.println("Time has run out! You are trapped forever.");
                     gameRunning = false;
-                    return; // Stop the method
+                    turnRules.cancel(hint);
+                    turnRules.cancel(winCheck);
+                    break;
+                case HINT:
+                    String text = nextHint();
+                    if (text != null) {
+                        turnOut.println("\n*** " + text + " ***");
+                    }
+                    turnRules.schedule(this, turn + HINT_EVERY);
+                    break;
+                default:
+                    if (winConditionCheck()) {
+                        turnOut.println("\n========================================");
+                        turnOut.println("  CONGRATULATIONS! YOU ESCAPED!");
+                        turnOut.println("  Turns taken: " + turnCount);
+                        turnOut.println("========================================");
+                        gameRunning = false;
+                    } else {
+                        turnRules.schedule(this, turn + 1);
+                    }
+                    break;
+            }
+        }
+    }
+
+    // A hint on the clock rather than on a turn (see GameServer.enableTimedHints).
+    // Not a turn: the text waits for the next reply.
+    public void timedHint() {
+        if (!gameRunning) {
+            return;
+        }
+        String text = nextHint();
+        if (text == null) {
+            return;
+        }
+        out.println("\n*** " + text + " ***");
+        if (events != null) {
+            events.hint();
+        }
+        commitEvents();
+        out.flush();
+    }
+
+    // Told when the player has used every attempt on a code lock without
+    // opening it, and again on each try at it while it stays jammed (see
+    // GameServer.enableLockReset). Room and name are ids, as in SessionEvents.
+    public interface LockJamListener {
+        void lockJammed(int room, int name);
+    }
+
+    // Only engines built from a WorldDefinition report jams: the others have no name ids
+    public void setLockJamListener(LockJamListener listener) {
+        this.lockJamListener = listener;
+    }
+
+    // The player's attempts on a code lock are given back, as if it had never
+    // been tried. Not a turn: the text waits for the next reply.
+    public void resetLock(int room, int name) {
+        if (!gameRunning) {
+            return;
+        }
+        Puzzle puzzle = map.get(room).findPuzzle(names.name(name));
+        if (!(puzzle instanceof CodePuzzle) || puzzle.isSolved()) {
+            return; // in a cooperative game, someone may have opened it since
+        }
+        AttemptTable.INSTANCE.release(attemptOwner, ((CodePuzzle) puzzle).getLock());
+        out.println("\n*** Somewhere a lock whirrs: " + puzzle.getName() + " has reset. ***");
+        if (events != null) {
+            events.lockReset(room, name);
+        }
+        commitEvents();
+        out.flush();
+    }
+
+    // The world's own hints first, then ones about the way out
+    private String nextHint() {
+        if (!hintQueue.isEmpty()) {
+            return hintQueue.poll();
+        }
+        return routeHints != null ? routeHints.hint(player.getCurrentRoom().getId(), player) : null;
+    }
+
+    // From now on every turn's state changes go to the journal as one record.
+    // Only for engines built from a WorldDefinition, whose rooms and names have ids.
+    public void attachJournal(Journal journal, long sessionId) {
+        if (names == null) {
+            throw new IllegalStateException("Journaling needs a WorldDefinition-backed engine");
+        }
+        if (player.getOverlay() == null) {
+            throw new IllegalStateException("Cooperative games can't be journaled: replay can't undo other players");
+        }
+        this.journal = journal;
+        this.sessionId = sessionId;
+        if (events == null) {
+            events = new SessionEvents();
+        }
+    }
+
+    // From now on the engine keeps every state change since the game began, so
+    // the session can be put away and rebuilt later by replaying getHistory()
+    // into a new engine (see GameServer.enableHibernation). Call before replay,
+    // which adds what it replays. Same restrictions as attachJournal.
+    public void keepHistory() {
+        if (names == null) {
+            throw new IllegalStateException("Keeping history needs a WorldDefinition-backed engine");
+        }
+        if (player.getOverlay() == null) {
+            throw new IllegalStateException("Cooperative games can't keep history: replay can't undo other players");
+        }
+        this.history = new SessionEvents();
+        if (events == null) {
+            events = new SessionEvents();
+        }
+    }
+
+    // Events since the game began, in journal format; null unless keepHistory was called
+    public SessionEvents getHistory() {
+        return history;
+    }
+
+    // The journal write for the last turn, or null if it changed nothing
+    public CompletableFuture<Void> takeCommit() {
+        CompletableFuture<Void> c = commit;
+        commit = null;
+        return c;
+    }
+
+    // Rebuilds state from journaled events, printing nothing. Call before attachJournal.
+    public void replay(byte[] data, int offset, int length) {
+        if (history != null) {
+            history.append(data, offset, length);
+        }
+        ByteBuffer in = ByteBuffer.wrap(data, offset, length);
+        while (in.hasRemaining()) {
+            byte type = in.get();
+            switch (type) {
+                case SessionEvents.MOVE:
+                    player.restoreMove(map.get(SessionEvents.readVarint(in)));
+                    break;
+                case SessionEvents.BACK:
+                    player.restoreBack();
+                    break;
+                case SessionEvents.PICKUP: {
+                    Room room = editRoom(SessionEvents.readVarint(in));
+                    Item item = room.findItem(names.name(SessionEvents.readVarint(in)));
+                    room.removeContent(item);
+                    player.addToInventory(item);
+                    break;
                 }
-                // Show hint every 3 turns
-                if (turnCount % 3 == 0 && !hintQueue.isEmpty()) {
-                    System.out.println("\n*** " + hintQueue.poll() + " ***");
+                case SessionEvents.ATTEMPT: {
+                    Room room = editRoom(SessionEvents.readVarint(in));
+                    Puzzle puzzle = room.findPuzzle(names.name(SessionEvents.readVarint(in)));
+                    boolean solved = in.get() != 0;
+                    puzzle.restoreAttempt(solved, attemptOwner);
+                    noteAttempt(puzzle);
+                    if (solved && puzzle.getReward() != null) {
+                        player.addToInventory(puzzle.getReward());
+                    }
+                    break;
                 }
-
-                // Check win condition
-                if (winConditionCheck()) {
-                    System.out.println("\n========================================");
-                    System.out.println("  CONGRATULATIONS! YOU ESCAPED!");
-                    System.out.println("  Turns taken: " + turnCount);
-                    System.out.println("========================================");
-                    gameRunning = false;
+                case SessionEvents.LOCK_RESET: {
+                    Puzzle puzzle = map.get(SessionEvents.readVarint(in)).findPuzzle(names.name(SessionEvents.readVarint(in)));
+                    AttemptTable.INSTANCE.release(attemptOwner, ((CodePuzzle) puzzle).getLock());
+                    break;
                 }
-            } catch (InvalidCommandException e) {
-                System.out.println("Error: " + e.getMessage());
-            } catch (LockedRoomException e) {
-                System.out.println("LOCKED: " + e.getMessage());
-            } catch (InvalidPuzzleAnswerException e) {
-                System.out.println("Puzzle Error: " + e.getMessage());
-            } catch (Exception e) {
-                System.out.println("An unexpected error occurred: " + e.getMessage());
+                case SessionEvents.TURN:
+                    advanceTurn(DiscardOutput.INSTANCE);
+                    break;
+                case SessionEvents.HINT:
+                    hintQueue.poll(); // a route hint changes nothing
+                    break;
+                case SessionEvents.QUIT:
+                case SessionEvents.TIME_UP:
+                    gameRunning = false;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown journal event " + type);
             }
         }
+        if (!gameRunning) {
+            releaseAttempts();
+        }
+    }
 
-        scanner.close();
-        System.out.println("Thanks for playing!");
+    private void noteAttempt(Puzzle puzzle) {
+        if (!(puzzle instanceof CodePuzzle) || attemptOwner == AttemptTable.SHARED) {
+            return;
+        }
+        int lock = ((CodePuzzle) puzzle).getLock();
+        for (int i = 0; i < triedLockCount; i++) {
+            if (triedLocks[i] == lock) {
+                return;
+            }
+        }
+        if (triedLocks == null) {
+            triedLocks = new int[4];
+        } else if (triedLockCount == triedLocks.length) {
+            triedLocks = Arrays.copyOf(triedLocks, triedLockCount * 2);
+        }
+        triedLocks[triedLockCount++] = lock;
     }
 
-    public void processCommand(String cmd) throws InvalidCommandException, LockedRoomException, InvalidPuzzleAnswerException {
-        String[] parts = cmd.split("\\s+", 2);
-        String command = parts[0].toLowerCase();
-        String argument = parts.length > 1 ? parts[1] : "";
+    // Drops this session's code lock attempts from the AttemptTable. Done when
+    // the game ends; a server closing a session mid-game calls it too.
+    public void releaseAttempts() {
+        for (int i = 0; i < triedLockCount; i++) {
+            AttemptTable.INSTANCE.release(attemptOwner, triedLocks[i]);
+        }
+        triedLockCount = 0;
+    }
+
+    private CommandResult result(CommandResult.Status status, String message) {
+        return new CommandResult(status, message, turnCount, gameRunning);
+    }
+
+    // processCommand, timed into CommandMetrics when metrics are on
+    private void runCommand(String input) throws InvalidCommandException, LockedRoomException, InvalidPuzzleAnswerException {
+        CommandMetrics metrics = CommandMetrics.INSTANCE;
+        if (!metrics.isEnabled()) {
+            processCommand(input);
+            return;
+        }
+        long bytes = metrics.allocatedBytes();
+        long started = System.nanoTime();
+        try {
+            processCommand(input);
+        } catch (InvalidCommandException | LockedRoomException | InvalidPuzzleAnswerException | RuntimeException e) {
+            metrics.record(parser.command(), System.nanoTime() - started, metrics.allocatedBytes() - bytes, e);
+            throw e;
+        }
+        metrics.record(parser.command(), System.nanoTime() - started, metrics.allocatedBytes() - bytes, null);
+    }
 
-        switch (command) {
-            case "help":
+    public void processCommand(String cmd) throws InvalidCommandException, LockedRoomException, InvalidPuzzleAnswerException {
+        parser.parse(cmd);
+        switch (parser.command()) {
+            case CommandParser.HELP:
                 printHelp();
                 break;
-            case "look":
-                player.getCurrentRoom().inspect();
+            case CommandParser.LOOK:
+                player.getCurrentRoom().inspect(out);
                 break;
-            case "move":
-                handleMove(argument);
+            case CommandParser.MOVE:
+                handleMove();
                 break;
-            case "back":
-                player.goBack();
+            case CommandParser.BACK:
+                handleBack();
                 break;
-            case "pickup":
-                handlePickup(argument);
+            case CommandParser.PICKUP:
+                handlePickup();
                 break;
-            case "inventory":
+            case CommandParser.INVENTORY:
                 player.showInventory();
                 break;
-            case "solve":
-                handleSolve(argument);
+            case CommandParser.SOLVE:
+                handleSolve();
                 break;
-            case "inspect":
-                handleInspect(argument);
+            case CommandParser.INSPECT:
+                handleInspect();
                 break;
-            case "map":
+            case CommandParser.MAP:
                 printMap();
                 break;
-            case "status":
+            case CommandParser.STATUS:
                 printStatus();
                 break;
-            case "quit":
-            case "exit":
+            case CommandParser.STATS:
+                handleStats();
+                break;
+            case CommandParser.QUIT:
                 gameRunning = false;
+                if (events != null) {
+                    events.quit();
+                }
                 break;
             default:
-                throw new InvalidCommandException("Unknown command: " + command + ". Type 'help' for commands.");
+                throw new InvalidCommandException("Unknown command: " + parser.commandText() + ". Type 'help' for commands.");
         }
     }
+
+    // Room `id` ready to be changed by this session
+    private Room editRoom(int id) {
+        if (player.getCurrentRoom().getId() == id) {
+            return player.editCurrentRoom();
+        }
+        WorldOverlay overlay = player.getOverlay();
+        return overlay != null ? overlay.writable(map.get(id)) : map.get(id);
+    }
+
     private void handleLook() {
         Room currentRoom = player.getCurrentRoom();
-        currentRoom.inspect();
+        currentRoom.inspect(out);
     }
 
-    private void handleMove(String roomName) throws InvalidCommandException, LockedRoomException {
-        if (roomName.isEmpty()) {
+    private void handleMove() throws InvalidCommandException, LockedRoomException {
+        if (!parser.hasArgument()) {
             throw new InvalidCommandException("Usage: move <roomName>");
         }
-        Room targetRoom = player.getCurrentRoom().getConnectedRoom(roomName);
+        Room targetRoom = player.getCurrentRoom().getConnectedRoom(parser.argument());
         if (targetRoom == null) {
-            throw new InvalidCommandException("No room called '" + roomName + "' is connected to this room.");
+            throw new InvalidCommandException("No room called '" + parser.argumentText() + "' is connected to this room.");
         }
         player.moveTo(targetRoom);
+        if (events != null) {
+            events.move(targetRoom.getId());
+        }
         handleLook();
     }
 
-    private void handlePickup(String itemName) throws InvalidCommandException {
-        if (itemName.isEmpty()) {
+    private void handleBack() throws InvalidCommandException {
+        int steps = 1;
+        if (parser.hasArgument()) {
+            try {
+                steps = Integer.parseInt(parser.argumentText());
+            } catch (NumberFormatException e) {
+                steps = 0;
+            }
+            if (steps < 1) {
+                throw new InvalidCommandException("Usage: back [steps]");
+            }
+        }
+        if (player.goBack(steps) && events != null) {
+            for (int i = 0; i < steps; i++) {
+                events.back(); // one event per room, as replay pops them one by one
+            }
+        }
+    }
+
+    private void handlePickup() throws InvalidCommandException {
+        if (!parser.hasArgument()) {
             throw new InvalidCommandException("Usage: pickup <itemName>");
         }
-        player.pickUpItem(itemName);
+        Item item = player.takeItem(parser.argument());
+        if (item == null) {
+            out.println("No item called '" + parser.argumentText() + "' in this room.");
+            return;
+        }
+        item.collect(player);
+        if (events != null) {
+            events.pickup(player.getCurrentRoom().getId(), names.find(item.getName()));
+        }
     }
 
-    private void handleSolve(String puzzleName) throws InvalidCommandException, InvalidPuzzleAnswerException {
-        if (puzzleName.isEmpty()) {
-            throw new InvalidCommandException("Usage: solve <puzzleName>");
+    // The argument is "<puzzleName> <answer>"; the answer may contain spaces
+    private void handleSolve() throws InvalidCommandException, InvalidPuzzleAnswerException {
+        if (!parser.hasArgument()) {
+            throw new InvalidCommandException("Usage: solve <puzzleName> <answer>");
         }
-        Puzzle puzzle = player.getCurrentRoom().findPuzzle(puzzleName);
+        Puzzle puzzle = player.getCurrentRoom().findPuzzle(parser.word());
         if (puzzle == null) {
-            throw new InvalidCommandException("No puzzle called '" + puzzleName + "' in this room.");
+            throw new InvalidCommandException("No puzzle called '" + parser.wordText() + "' in this room.");
         }
+        if (!parser.hasRest()) {
+            throw new InvalidCommandException("Usage: solve <puzzleName> <answer>");
+        }
+        // Attempts change the puzzle, so work on this session's copy of it
+        puzzle = player.editCurrentRoom().findPuzzle(parser.word());
 
-        puzzle.inspect();
-        System.out.print("Your answer: ");
-        Scanner scanner = new Scanner(System.in);
-        String answer = scanner.nextLine().trim();
-
-        if (puzzle.attemptSolve(answer)) {
+        noteAttempt(puzzle);
+        boolean solved;
+        try {
+            solved = puzzle.attemptSolve(parser.rest(), attemptOwner, out);
+        } finally {
+            noteJam(puzzle);
+        }
+        if (events != null) {
+            events.attempt(player.getCurrentRoom().getId(), names.find(puzzle.getName()), solved);
+        }
+        if (solved) {
             Item reward = puzzle.getReward();
             if (reward != null) {
             player.addToInventory(reward); 
-            System.out.println("*** REWARD: " + reward.getName() + " added to inventory! ***");
+            out.println("*** REWARD: " + reward.getName() + " added to inventory! ***");
         }
         } else {
-            System.out.println("That's not the correct answer. Try again!");
+            out.println("That's not the correct answer. Try again!");
+        }
+    }
+
+    private void noteJam(Puzzle puzzle) {
+        if (lockJamListener == null || names == null || !(puzzle instanceof CodePuzzle) || puzzle.isSolved()) {
+            return;
+        }
+        CodePuzzle lock = (CodePuzzle) puzzle;
+        if (lock.getAttemptsUsed(attemptOwner) >= lock.getMaxAttempts()) {
+            lockJamListener.lockJammed(player.getCurrentRoom().getId(), names.find(puzzle.getName()));
         }
     }
 
-    private void handleInspect(String targetName) throws InvalidCommandException {
-        if (targetName.isEmpty()) {
+    // The console lets players type "solve <puzzleName>" and then the answer on
+    // its own line. Returns the puzzle to prompt for, or null if no prompt is needed.
+    private Puzzle puzzleAwaitingAnswer(String input) {
+        parser.parse(input);
+        if (parser.command() != CommandParser.SOLVE || !parser.hasArgument() || parser.hasRest()) {
+            return null;
+        }
+        return player.getCurrentRoom().findPuzzle(parser.word());
+    }
+
+    private void handleInspect() throws InvalidCommandException {
+        if (!parser.hasArgument()) {
             throw new InvalidCommandException("Usage: inspect <itemName|puzzleName>");
         }
-        for (GameComponent gc : player.getCurrentRoom().getContents()) {
-            if (gc.getName().equalsIgnoreCase(targetName)) {
-                gc.inspect();return;
-            }
+        String name = parser.argument();
+        GameComponent gc = player.getCurrentRoom().findComponent(name);
+        if (gc == null) {
+            gc = player.findItem(name);
         }
-        for (Item item : player.getInventory()) {
-            if (item.getName().equalsIgnoreCase(targetName)) {
-                item.inspect();return;
-            }
+        if (gc == null) {
+            throw new InvalidCommandException("Nothing called '" + parser.argumentText() + "' found in this room or your inventory.");
+        }
+        if (gc instanceof CodePuzzle) {
+            ((CodePuzzle) gc).inspect(out, attemptOwner);
+        } else {
+            gc.inspect(out);
+        }
+    }
+
+    // Read-only: the metrics are the whole JVM's, so only the operator turns
+    // them on, off or clears them (-Descape.metrics, or JMX)
+    private void handleStats() throws InvalidCommandException {
+        if (parser.hasArgument()) {
+            throw new InvalidCommandException("Usage: stats");
         }
-        throw new InvalidCommandException("Nothing called '" + targetName + "' found in this room or your inventory.");
+        CommandMetrics.INSTANCE.report(out);
     }
 
     private void printHelp() {
-        System.out.println("=== COMMANDS ===");
-        System.out.println("  look              - Show current room contents");
-        System.out.println("  move <roomName>   - Move to a connected room");
-        System.out.println("  back              - Go back to previous room");
-        System.out.println("  pickup <itemName> - Pick up an item");
-        System.out.println("  inventory         - Show your inventory");
-        System.out.println("  solve <puzzleName>- Attempt to solve a puzzle");
-        System.out.println("  inspect <name>    - Inspect an item or puzzle");
-        System.out.println("  map               - Show the full map");
-        System.out.println("  status            - Show game status");
-        System.out.println("  quit              - Exit the game");
+        out.println("=== COMMANDS ===");
+        out.println("  look              - Show current room contents");
+        out.println("  move <roomName>   - Move to a connected room");
+        out.println("  back [steps]      - Go back to previous room, or that many rooms back");
+        out.println("  pickup <itemName> - Pick up an item");
+        out.println("  inventory         - Show your inventory");
+        out.println("  solve <puzzle> [answer] - Attempt to solve a puzzle");
+        out.println("  inspect <name>    - Inspect an item or puzzle");
+        out.println("  map               - Show the full map");
+        out.println("  status            - Show game status");
+        out.println("  stats             - Show command timings");
+        out.println("  quit              - Exit the game");
     }
 
     public void printStatus() {
-        System.out.println("=== STATUS ===");
-        System.out.println("Current Room: " + player.getCurrentRoom().getName());
-        System.out.println("Turn: " + turnCount);
-        System.out.println("Items in inventory: " + player.getInventory().size());
+        out.println("=== STATUS ===");
+        out.println("Current Room: " + player.getCurrentRoom().getName());
+        out.println("Turn: " + turnCount);
+        out.println("Items in inventory: " + player.getInventory().size());
     }
 
     private void printMap() {
-        System.out.println("=== FULL MAP (Recursive View) ===");
-        startRoom.exploreRecursive(0);
-        System.out.println("\nMax Depth: " + startRoom.maxDepthRecursive());
+        out.println("=== FULL MAP (Recursive View) ===");
+        startRoom.exploreRecursive(0, out);
+        out.println("\nMax Depth: " + startRoom.maxDepthRecursive());
     }
 
     public boolean winConditionCheck() {
         return player.getCurrentRoom().isExit();
     }
 
+    public boolean isGameRunning() {
+        return gameRunning;
+    }
+
+    public int getTurnCount() {
+        return turnCount;
+    }
+
+    public OutputSink getOutput() {
+        return out;
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
 }
@@ -0,0 +1,705 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Hosts many game sessions in one JVM. All sessions share one world definition;
+// each one has its own GameEngine (player, rooms, puzzles, turn counter), or in
+// a cooperative server its own player in rooms all sessions share.
+// Commands go into a per-session mailbox that a small worker pool drains, so a
+// session never runs on two threads at once and no thread is parked per player.
+// submit() returns right away with a future for the command's result, which
+// carries the text the command printed (sessions never write to System.out).
+// With a Journal, sessions survive a restart: the constructor brings back every
+// session the journal knows about, and a command's future completes only once
+// its state changes are on disk.
+// With hibernation on, sessions nobody has used for a while give up their
+// engine and wait off-heap as their event history, see enableHibernation.
+// With a time limit, a session's game ends that long after it opened, see
+// enableTimeLimit; with lock resets, jammed code locks open up again after a
+// while, see enableLockReset; with timed hints, awake sessions get a hint every
+// so often, see enableTimedHints. All of these run on the shared GameClock.
+public class GameServer {
+    // Commands run per session before its worker moves on to other sessions
+    private static final int BATCH_SIZE = 64;
+
+    private final Function<OutputSink, GameEngine> newGame;
+    private final ExecutorService workers;
+    private final ConcurrentHashMap<Long, Session> sessions;
+    private final AtomicLong nextSessionId;
+    private final AtomicLong pendingCommands;
+    private final LatencyHistogram latency;
+    private final Journal journal; // null if sessions aren't journaled
+    private final boolean replayable; // sessions can be rebuilt from their events
+    private final AtomicInteger residentSessions = new AtomicInteger();
+    private final LatencyHistogram resumeLatency = new LatencyHistogram();
+    private volatile SessionStore store; // null unless hibernation is on
+    private long hibernateAfterNanos;
+    private int maxResident;
+    private Sweeper sweeper;
+    private long timeLimitNanos;   // 0 for none
+    private volatile long lockResetNanos; // 0 for none
+    private long hintNanos;        // 0 for none
+    private volatile boolean shutDown;
+
+    public GameServer(WorldDefinition world, int workerThreads) {
+        this(out -> new GameEngine(world, out), workerThreads, null, true);
+    }
+
+    // Recovers the journal's sessions, then journals every session from here on
+    public GameServer(WorldDefinition world, int workerThreads, Journal journal) {
+        this(out -> new GameEngine(world, out), workerThreads, journal, true);
+    }
+
+    public GameServer(MappedWorld world, int workerThreads) {
+        this(out -> new GameEngine(world, out), workerThreads, null, false);
+    }
+
+    // All sessions play in the same rooms: what one player picks up is gone for
+    // the others and a solved puzzle stays solved. Rooms and puzzles lock
+    // themselves, so sessions on different workers can share them safely.
+    public static GameServer cooperative(WorldDefinition world, int workerThreads) {
+        Room[] rooms = world.instantiate();
+        return new GameServer(out -> new GameEngine(world, rooms, out), workerThreads, null, false);
+    }
+
+    private GameServer(Function<OutputSink, GameEngine> newGame, int workerThreads, Journal journal,
+                       boolean replayable) {
+        this.newGame = newGame;
+        this.journal = journal;
+        this.replayable = replayable;
+        this.workers = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread t = new Thread(r, "game-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        this.sessions = new ConcurrentHashMap<>();
+        this.nextSessionId = new AtomicLong(1);
+        this.pendingCommands = new AtomicLong();
+        this.latency = new LatencyHistogram();
+        if (journal != null) {
+            recover();
+        }
+    }
+
+    // Sessions are rebuilt on the worker pool, a slice of the journal per worker
+    private void recover() {
+        List<Map.Entry<Long, byte[]>> recovered = new ArrayList<>(journal.takeRecoveredSessions().entrySet());
+        int slices = Math.max(1, Math.min(recovered.size() / 1024, 64));
+        CompletableFuture<?>[] done = new CompletableFuture<?>[slices];
+        for (int slice = 0; slice < slices; slice++) {
+            List<Map.Entry<Long, byte[]>> part = recovered.subList(
+                    recovered.size() * slice / slices, recovered.size() * (slice + 1) / slices);
+            done[slice] = CompletableFuture.runAsync(() -> {
+                for (Map.Entry<Long, byte[]> e : part) {
+                    Session session = new Session(e.getKey());
+                    byte[] events = e.getValue();
+                    session.engine.replay(events, 0, events.length);
+                    session.engine.attachJournal(journal, e.getKey());
+                    sessions.put(e.getKey(), session);
+                }
+            }, workers);
+        }
+        CompletableFuture.allOf(done).join();
+        long maxId = 0;
+        for (Map.Entry<Long, byte[]> e : recovered) {
+            maxId = Math.max(maxId, e.getKey());
+        }
+        nextSessionId.set(maxId + 1);
+    }
+
+    // Hibernation: a session idle for idleNanos, or among the least recently
+    // used while more than maxResident are in memory, is put away. Its engine
+    // is dropped and only its event history is kept (the journal's encoding, a
+    // few bytes a turn), off-heap in a SessionStore; its next command replays
+    // that into a new engine first. Code lock cooldowns don't survive this,
+    // attempt counts do. Only sessions opened from now on hibernate, and not on
+    // cooperative or MappedWorld servers, whose sessions can't be replayed.
+    public void enableHibernation(long idleNanos, int maxResident) {
+        if (!replayable) {
+            throw new IllegalStateException("Sessions on this server can't be rebuilt from their events");
+        }
+        if (store != null) {
+            throw new IllegalStateException("Hibernation is already on");
+        }
+        this.hibernateAfterNanos = idleNanos;
+        this.maxResident = maxResident;
+        this.store = new SessionStore();
+        this.sweeper = new Sweeper(Math.max(10_000_000L, Math.min(idleNanos / 4, 1_000_000_000L)));
+        GameClock.INSTANCE.schedule(sweeper, sweeper.period);
+    }
+
+    // Each session opened from now on ends limitNanos after it opened, whatever
+    // it is doing: the time-out text goes out with the reply to its next
+    // command, and the game is over. Hibernated sessions wake up to end, and a
+    // journal records the ending, so it survives hibernation and restarts.
+    public void enableTimeLimit(long limitNanos) {
+        if (limitNanos <= 0) {
+            throw new IllegalArgumentException("Time limit must be positive: " + limitNanos);
+        }
+        this.timeLimitNanos = limitNanos;
+    }
+
+    // A code lock a player has jammed, by using up its attempts, gives them back
+    // resetNanos later: the text goes out with the next reply, and the reset is
+    // journaled with the session's other state changes. Applies to every
+    // session, including ones already open or recovered. A reset still pending
+    // when the server stops is lost, but the lock's next try arms it again.
+    public void enableLockReset(long resetNanos) {
+        if (resetNanos <= 0) {
+            throw new IllegalArgumentException("Lock reset time must be positive: " + resetNanos);
+        }
+        this.lockResetNanos = resetNanos;
+    }
+
+    // Each session opened from now on gets a hint every hintNanos, on top of the
+    // one every few turns, while it is awake: the text goes out with the next
+    // reply, and the hint is journaled so replay keeps the hints in step.
+    // Hibernated sessions aren't woken for it; nobody is there to read it.
+    public void enableTimedHints(long hintNanos) {
+        if (hintNanos <= 0) {
+            throw new IllegalArgumentException("Hint interval must be positive: " + hintNanos);
+        }
+        this.hintNanos = hintNanos;
+    }
+
+    // Sweeps for sessions to hibernate every period, on a worker, so the clock thread isn't held up
+    private final class Sweeper extends TimerWheel.Timer {
+        final long period;
+
+        Sweeper(long period) {
+            this.period = period;
+        }
+
+        @Override
+        protected void expire(long tick) {
+            if (shutDown) {
+                return;
+            }
+            workers.execute(() -> {
+                try {
+                    sweep();
+                } finally {
+                    if (!shutDown) {
+                        GameClock.INSTANCE.schedule(this, period);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public String toString() {
+            return "hibernation sweep";
+        }
+    }
+
+    // Queues hibernation for sessions idle too long, then for the least recently
+    // used while too many are resident. Ages are counted in power-of-two buckets
+    // rather than sorted: every session older than the bucket the bound falls in
+    // goes, and as many from that bucket as are still needed, in no set order.
+    private void sweep() {
+        long now = System.nanoTime();
+        int excess = residentSessions.get() - maxResident;
+        int cutBucket = Integer.MAX_VALUE; // bucket the LRU cut falls in
+        int fromCutBucket = 0;
+        if (excess > 0) {
+            int[] byAge = new int[63];
+            for (Session s : sessions.values()) {
+                if (s.resident && !s.hibernating) {
+                    byAge[ageBucket(now - s.lastUsed)]++;
+                }
+            }
+            int older = 0;
+            for (int bucket = byAge.length - 1; bucket >= 0; bucket--) {
+                if (older + byAge[bucket] >= excess) {
+                    cutBucket = bucket;
+                    fromCutBucket = excess - older;
+                    break;
+                }
+                older += byAge[bucket];
+            }
+        }
+        for (Session s : sessions.values()) {
+            if (!s.resident || s.hibernating) {
+                continue;
+            }
+            long idle = now - s.lastUsed;
+            int bucket = ageBucket(idle);
+            if (idle < hibernateAfterNanos && bucket < cutBucket) {
+                continue;
+            }
+            if (idle < hibernateAfterNanos && bucket == cutBucket && fromCutBucket-- <= 0) {
+                continue;
+            }
+            s.hibernating = true;
+            pendingCommands.incrementAndGet();
+            s.mailbox.add(new Command(Command.HIBERNATE, null, now));
+            s.schedule();
+        }
+    }
+
+    private static int ageBucket(long nanos) {
+        return 63 - Long.numberOfLeadingZeros(Math.max(1, nanos));
+    }
+
+    public long openSession() {
+        long id = nextSessionId.getAndIncrement();
+        Session session = new Session(id);
+        if (journal != null) {
+            session.engine.attachJournal(journal, id);
+            journal.append(id, new byte[0], 0); // an empty record, so recovery knows the session
+        }
+        sessions.put(id, session);
+        if (timeLimitNanos > 0) {
+            session.countdown = new Countdown(session);
+            GameClock.INSTANCE.schedule(session.countdown, timeLimitNanos);
+        }
+        if (hintNanos > 0) {
+            session.hintTimer = new HintTimer(session, hintNanos);
+            GameClock.INSTANCE.schedule(session.hintTimer, hintNanos);
+        }
+        return id;
+    }
+
+    public void closeSession(long sessionId) {
+        Session session = sessions.remove(sessionId);
+        if (session == null) {
+            return;
+        }
+        if (session.countdown != null) {
+            GameClock.INSTANCE.cancel(session.countdown);
+        }
+        if (session.hintTimer != null) {
+            GameClock.INSTANCE.cancel(session.hintTimer);
+        }
+        // Queued like a command, so it can't race one the session is still running
+        pendingCommands.incrementAndGet();
+        session.mailbox.add(new Command(Command.CLOSE, null, System.nanoTime()));
+        session.schedule();
+    }
+
+    // The game's opening text for the session, as the output of a result
+    public CompletableFuture<CommandResult> welcome(long sessionId) {
+        Session session = session(sessionId);
+        Command c = new Command(Command.WELCOME, null, System.nanoTime());
+        session.lastUsed = c.enqueuedAt;
+        pendingCommands.incrementAndGet();
+        session.mailbox.add(c);
+        session.schedule();
+        return c.result;
+    }
+
+    public CompletableFuture<CommandResult> submit(long sessionId, String command) {
+        Session session = session(sessionId);
+        Command c = new Command(Command.TURN, command, System.nanoTime());
+        session.lastUsed = c.enqueuedAt;
+        pendingCommands.incrementAndGet();
+        session.mailbox.add(c);
+        session.schedule();
+        return c.result;
+    }
+
+    // Queues several commands for one session with a single wake-up
+    public List<CompletableFuture<CommandResult>> submitAll(long sessionId, List<String> commands) {
+        Session session = session(sessionId);
+        List<CompletableFuture<CommandResult>> results = new ArrayList<>(commands.size());
+        long now = System.nanoTime();
+        session.lastUsed = now;
+        pendingCommands.addAndGet(commands.size());
+        for (String command : commands) {
+            Command c = new Command(Command.TURN, command, now);
+            session.mailbox.add(c);
+            results.add(c.result);
+        }
+        session.schedule();
+        return results;
+    }
+
+    private Session session(long sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            throw new IllegalArgumentException("No session with id " + sessionId);
+        }
+        return session;
+    }
+
+    // Null while the session is hibernated
+    public GameEngine getEngine(long sessionId) {
+        Session session = sessions.get(sessionId);
+        return session == null ? null : session.engine;
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    // Sessions with their engine in memory, i.e. not hibernated
+    public int getResidentSessionCount() {
+        return residentSessions.get();
+    }
+
+    // Where hibernated sessions are kept; null unless hibernation is on
+    public SessionStore getSessionStore() {
+        return store;
+    }
+
+    // Time to rebuild a hibernated session's engine, in nanoseconds
+    public LatencyHistogram getResumeLatencyHistogram() {
+        return resumeLatency;
+    }
+
+    public long getPendingCommands() {
+        return pendingCommands.get();
+    }
+
+    // Enqueue-to-completion time of every command, in nanoseconds
+    public LatencyHistogram getLatencyHistogram() {
+        return latency;
+    }
+
+    public void shutdown() {
+        shutDown = true;
+        if (sweeper != null) {
+            GameClock.INSTANCE.cancel(sweeper);
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Command {
+        static final int TURN = 0;
+        static final int WELCOME = 1;
+        static final int CLOSE = 2;   // the session was closed
+        static final int HIBERNATE = 3;
+        static final int TIME_UP = 4; // the session's time limit ran out
+        static final int LOCK_RESET = 5; // one of the session's LockResets went off
+        static final int HINT = 6;    // the session's HintTimer went off
+
+        final int kind;
+        final String text;
+        final long enqueuedAt;
+        final CompletableFuture<CommandResult> result = new CompletableFuture<>();
+
+        Command(int kind, String text, long enqueuedAt) {
+            this.kind = kind;
+            this.text = text;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    // Ends its session's game when the time limit runs out
+    private final class Countdown extends TimerWheel.Timer {
+        final Session session;
+
+        Countdown(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        protected void expire(long tick) {
+            if (shutDown) {
+                return;
+            }
+            pendingCommands.incrementAndGet();
+            session.mailbox.add(new Command(Command.TIME_UP, null, System.nanoTime()));
+            session.schedule();
+        }
+
+        @Override
+        public String toString() {
+            return "time limit of session " + session.id;
+        }
+    }
+
+    // Gives a session's jammed code lock its attempts back
+    private final class LockReset extends TimerWheel.Timer {
+        final Session session;
+        final int room;
+        final int name;
+        volatile boolean due;
+
+        LockReset(Session session, int room, int name) {
+            this.session = session;
+            this.room = room;
+            this.name = name;
+        }
+
+        @Override
+        protected void expire(long tick) {
+            if (shutDown) {
+                return;
+            }
+            due = true;
+            pendingCommands.incrementAndGet();
+            session.mailbox.add(new Command(Command.LOCK_RESET, null, System.nanoTime()));
+            session.schedule();
+        }
+
+        @Override
+        public String toString() {
+            return "lock reset of session " + session.id + " (room " + room + ", name " + name + ")";
+        }
+    }
+
+    // Gives its session a hint every period, while the session is awake
+    private final class HintTimer extends TimerWheel.Timer {
+        final Session session;
+        final long period;
+
+        HintTimer(Session session, long period) {
+            this.session = session;
+            this.period = period;
+        }
+
+        @Override
+        protected void expire(long tick) {
+            if (shutDown || !sessions.containsKey(session.id)) {
+                return; // closed
+            }
+            if (session.resident && !session.hibernating) {
+                pendingCommands.incrementAndGet();
+                session.mailbox.add(new Command(Command.HINT, null, System.nanoTime()));
+                session.schedule();
+            }
+            GameClock.INSTANCE.schedule(this, period);
+        }
+
+        @Override
+        public String toString() {
+            return "hints of session " + session.id;
+        }
+    }
+
+    private final class Session {
+        final long id;
+        final ConcurrentLinkedQueue<Command> mailbox = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        GameEngine engine;       // null while hibernated; only the session's worker changes it
+        BufferedOutput output;
+        long stored;             // the hibernated history's SessionStore address
+        Countdown countdown;     // null without a time limit
+        HintTimer hintTimer;     // null without timed hints
+        String unsent;           // output nobody has asked for yet, kept while hibernated
+        List<LockReset> lockResets; // pending; null if none yet. Only the session's worker touches it.
+        CompletableFuture<Void> lastCommit; // done once every earlier reply and write is; null if none pending. Worker only.
+        boolean closed;
+        volatile boolean resident;
+        volatile boolean hibernating; // queued to hibernate
+        volatile long lastUsed = System.nanoTime();
+
+        Session(long id) {
+            this.id = id;
+            this.output = new BufferedOutput();
+            this.engine = newGame.apply(output);
+            engine.setLockJamListener(this::lockJammed);
+            if (store != null) {
+                engine.keepHistory();
+            }
+            resident = true;
+            residentSessions.incrementAndGet();
+        }
+
+        void hibernate() {
+            hibernating = false;
+            if (closed || engine == null || engine.getHistory() == null || !mailbox.isEmpty()) {
+                return; // used again since the sweep, stay awake
+            }
+            SessionEvents history = engine.getHistory();
+            stored = store.put(history.array(), history.size());
+            engine.releaseAttempts(); // replay claims them again for the new engine
+            if (output.length() > 0) {
+                unsent = output.takeText(); // e.g. the time running out
+            }
+            engine = null;
+            output = null;
+            resident = false;
+            residentSessions.decrementAndGet();
+        }
+
+        void wake() {
+            long start = System.nanoTime();
+            byte[] events = store.take(stored);
+            output = new BufferedOutput();
+            if (unsent != null) {
+                output.print(unsent);
+                unsent = null;
+            }
+            engine = newGame.apply(output);
+            engine.setLockJamListener(this::lockJammed);
+            engine.keepHistory();
+            engine.replay(events, 0, events.length);
+            if (journal != null) {
+                engine.attachJournal(journal, id);
+            }
+            resident = true;
+            residentSessions.incrementAndGet();
+            resumeLatency.record(System.nanoTime() - start);
+        }
+
+        // On the worker, during a turn
+        void lockJammed(int room, int name) {
+            long after = lockResetNanos;
+            if (after == 0) {
+                return;
+            }
+            if (lockResets == null) {
+                lockResets = new ArrayList<>(2);
+            }
+            for (LockReset r : lockResets) {
+                if (r.room == room && r.name == name) {
+                    return; // already on its way
+                }
+            }
+            LockReset reset = new LockReset(this, room, name);
+            lockResets.add(reset);
+            GameClock.INSTANCE.schedule(reset, after);
+        }
+
+        void runLockResets() {
+            for (int i = lockResets.size() - 1; i >= 0; i--) {
+                LockReset r = lockResets.get(i);
+                if (r.due) {
+                    lockResets.remove(i);
+                    engine.resetLock(r.room, r.name);
+                    reply(null, null, engine.takeCommit()); // nobody waits on it, but later replies do
+                }
+            }
+        }
+
+        // Completes c, if any, once its own journal write (commit, null if none)
+        // and everything the session replied to or journaled before it are
+        // done, so replies go out in order and never before a state change
+        // they show is on disk. Waiting on the journal directly isn't enough:
+        // commands written in one group share its future, and CompletableFuture
+        // runs a future's dependents last-registered first.
+        void reply(Command c, CommandResult r, CompletableFuture<Void> commit) {
+            CompletableFuture<Void> before = lastCommit != null && !lastCommit.isDone() ? lastCommit : null;
+            if (before == null && commit == null) {
+                if (c != null) {
+                    complete(c, r, null);
+                }
+                lastCommit = null;
+                return;
+            }
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            CompletableFuture<Void> own = commit != null ? commit : CompletableFuture.completedFuture(null);
+            (before != null ? before : own).whenComplete((v, beforeError) -> own.whenComplete((w, error) -> {
+                if (c != null) {
+                    complete(c, r, error);
+                }
+                done.complete(null);
+            }));
+            lastCommit = done;
+        }
+
+        void complete(Command c, CommandResult r, Throwable journalError) {
+            latency.record(System.nanoTime() - c.enqueuedAt);
+            pendingCommands.decrementAndGet();
+            if (journalError == null) {
+                c.result.complete(r);
+            } else {
+                c.result.completeExceptionally(journalError);
+            }
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this::drain);
+            }
+        }
+
+        void drain() {
+            Command c;
+            int processed = 0;
+            while (processed < BATCH_SIZE && (c = mailbox.poll()) != null) {
+                if (c.kind == Command.CLOSE) {
+                    if (engine != null) {
+                        engine.releaseAttempts();
+                        residentSessions.decrementAndGet();
+                    } else {
+                        store.free(stored);
+                    }
+                    if (lockResets != null) {
+                        for (LockReset r : lockResets) {
+                            GameClock.INSTANCE.cancel(r);
+                        }
+                        lockResets = null;
+                    }
+                    if (journal != null) {
+                        // After the records of every turn queued before the close, so
+                        // recovery can't bring back part of the session
+                        journal.appendClose(id);
+                    }
+                    closed = true;
+                    resident = false;
+                    pendingCommands.decrementAndGet();
+                    continue;
+                }
+                if (c.kind == Command.HIBERNATE) {
+                    hibernate();
+                    pendingCommands.decrementAndGet();
+                    continue;
+                }
+                if (c.kind == Command.TIME_UP) {
+                    if (!closed) {
+                        if (engine == null) {
+                            wake();
+                        }
+                        engine.timeUp();
+                        reply(null, null, engine.takeCommit()); // nobody waits on it, but later replies do
+                    }
+                    pendingCommands.decrementAndGet();
+                    continue;
+                }
+                if (c.kind == Command.LOCK_RESET) {
+                    if (!closed) {
+                        if (engine == null) {
+                            wake();
+                        }
+                        runLockResets();
+                    }
+                    pendingCommands.decrementAndGet();
+                    continue;
+                }
+                if (c.kind == Command.HINT) {
+                    if (!closed && engine != null) { // hibernated since the timer went off: skip it
+                        engine.timedHint();
+                        reply(null, null, engine.takeCommit()); // nobody waits on it, but later replies do
+                    }
+                    pendingCommands.decrementAndGet();
+                    continue;
+                }
+                if (closed) {
+                    reply(c, new CommandResult(CommandResult.Status.GAME_OVER, "The session was closed.", 0, false), null);
+                    processed++;
+                    continue;
+                }
+                if (engine == null) {
+                    wake();
+                }
+                CommandResult r = (c.kind == Command.WELCOME ? engine.welcome() : engine.executeTurn(c.text))
+                        .withOutput(output.takeText());
+                reply(c, r, engine.takeCommit());
+                processed++;
+            }
+            scheduled.set(false);
+            // Either the batch was cut short or a command arrived after the last poll
+            if (!mailbox.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.management.ObjectName;
+
+// Where a session's heap goes: plays many sessions the same few turns (taking
+// items and trying puzzles, so rooms get session copies), keeps them all, and
+// prints the live-object class histogram with bytes per session for each of
+// the top classes. Run it on two builds to compare models.
+// Modes: shared (the default GameServer setup: one Room graph plus a
+// WorldOverlay per session), instantiated (a Room graph per session, as
+// world.instantiate() gives) and mapped (MappedWorld, rooms loaded per session).
+// Usage: java HeapFootprint [sessions] [shared|instantiated|mapped] [rows]
+public class HeapFootprint {
+    private static final String[] TURNS = {
+            "move Library", "solve EasyRiddle shadow", "solve SphinxRiddle keyboard", "move Laboratory",
+            "solve SafeLock 1111", "pickup ScrapPaper", "back", "back", "move Storage", "pickup OldBook"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int sessionCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        String mode = args.length > 1 ? args[1] : "shared";
+        int rows = args.length > 2 ? Integer.parseInt(args[2]) : 25;
+
+        WorldDefinition world = GameEngine.setupGame();
+        MappedWorld mapped = mode.equals("mapped") ? mapped(world) : null;
+        long heapBefore = usedHeap();
+        GameEngine[] engines = new GameEngine[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            GameEngine engine;
+            if (mode.equals("shared")) {
+                engine = new GameEngine(world, DiscardOutput.INSTANCE);
+            } else if (mode.equals("instantiated")) {
+                engine = new GameEngine(world, world.instantiate(), DiscardOutput.INSTANCE);
+            } else if (mapped != null) {
+                engine = new GameEngine(mapped, DiscardOutput.INSTANCE);
+            } else {
+                throw new IllegalArgumentException("Unknown mode " + mode);
+            }
+            for (String turn : TURNS) {
+                engine.executeTurn(turn);
+            }
+            engine.releaseAttempts();
+            engines[i] = engine;
+        }
+        long heap = usedHeap() - heapBefore;
+
+        String histogram = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                new ObjectName("com.sun.management:type=DiagnosticCommand"), "gcClassHistogram",
+                new Object[] {new String[0]}, new String[] {String[].class.getName()});
+        System.out.println("Sessions:          " + sessionCount + " (" + mode + ") after " + TURNS.length + " turns each");
+        System.out.printf("Heap per session:  %.0f bytes%n", (double) heap / sessionCount);
+        System.out.println();
+        System.out.printf("%12s %12s %10s  %s%n", "instances", "bytes", "B/session", "class");
+        String[] lines = histogram.split("\n");
+        // Two header lines, then "num: instances bytes class" rows, most bytes first
+        for (int i = 2; i < lines.length && i < rows + 2; i++) {
+            String[] cols = lines[i].trim().split("\\s+");
+            if (cols.length < 4) {
+                break;
+            }
+            long bytes = Long.parseLong(cols[2]);
+            System.out.printf("%12s %12d %10.1f  %s%n", cols[1], bytes, (double) bytes / sessionCount, cols[3]);
+        }
+        Reference.reachabilityFence(engines); // live through the histogram
+    }
+
+    private static MappedWorld mapped(WorldDefinition world) throws IOException, WorldFormatException {
+        Path file = Files.createTempFile("footprint", ".bin");
+        file.toFile().deleteOnExit();
+        WorldBinary.write(world, file);
+        return MappedWorld.open(file);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+// Checks that hibernating sessions loses nothing, and measures what it saves.
+// Plays every session a few random turns and notes each one's state (room,
+// inventory, turn, running), waits for all of them to hibernate, then wakes
+// each one (a welcome, which isn't a turn) and checks the state came back the
+// same. Reports heap per session awake and hibernated, the off-heap store's
+// size and how long waking took.
+// Usage: java HibernationTest [sessions] [turns] [workers]
+public class HibernationTest {
+    private static final String[] COMMANDS = {
+            "look", "move Library", "move Storage", "back", "back 2", "inventory", "status",
+            "pickup Flashlight", "pickup OldBook", "solve EasyRiddle shadow", "solve SphinxRiddle keyboard",
+            "move Laboratory", "solve SafeLock 1111", "solve SafeLock 1234", "pickup ScrapPaper"
+    };
+    private static final long IDLE_NANOS = 3_000_000_000L;
+
+    public static void main(String[] args) throws InterruptedException {
+        int sessionCount = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int turns = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        GameServer server = new GameServer(GameEngine.setupGame(), workers);
+        server.enableHibernation(IDLE_NANOS, Integer.MAX_VALUE);
+        long heapBefore = usedHeap();
+        long[] ids = new long[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            ids[i] = server.openSession();
+        }
+        Random random = new Random(42);
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[sessionCount];
+        for (int turn = 0; turn < turns; turn++) {
+            for (int i = 0; i < sessionCount; i++) {
+                replies[i] = server.submit(ids[i], COMMANDS[random.nextInt(COMMANDS.length)]);
+            }
+            CompletableFuture.allOf(replies).join();
+        }
+        Arrays.fill(replies, null); // their results hold output text
+        long awake = usedHeap() - heapBefore;
+        int[] before = new int[sessionCount]; // hashes, so they hardly add to the heap
+        for (int i = 0; i < sessionCount; i++) {
+            before[i] = state(server.getEngine(ids[i])).hashCode();
+        }
+
+        long deadline = System.nanoTime() + IDLE_NANOS * 4;
+        while (server.getResidentSessionCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        int stillResident = server.getResidentSessionCount();
+        long hibernated = usedHeap() - heapBefore;
+        SessionStore store = server.getSessionStore();
+        long records = store.getRecordCount();
+        long offHeap = store.getReservedBytes();
+
+        for (int i = 0; i < sessionCount; i++) {
+            replies[i] = server.welcome(ids[i]);
+        }
+        CompletableFuture.allOf(replies).join();
+        int mismatches = 0;
+        for (int i = 0; i < sessionCount; i++) {
+            String after = state(server.getEngine(ids[i]));
+            if (after.hashCode() != before[i] && mismatches++ < 5) {
+                System.out.println("Session " + ids[i] + " changed, woke as " + after);
+            }
+        }
+        server.shutdown();
+
+        LatencyHistogram resume = server.getResumeLatencyHistogram();
+        System.out.println("Sessions:            " + sessionCount + " after " + turns + " turns each");
+        System.out.printf("Heap per session:    %.0f bytes awake, %.0f hibernated%n",
+                (double) awake / sessionCount, (double) hibernated / sessionCount);
+        System.out.println("Not hibernated:      " + stillResident);
+        System.out.printf("Off-heap store:      %d records in %.1f MB%n", records, offHeap / 1e6);
+        System.out.printf("Resume p50/p99/max:  %.1f / %.1f / %.1f us%n", resume.getValueAtPercentile(50) / 1e3,
+                resume.getValueAtPercentile(99) / 1e3, resume.getMax() / 1e3);
+        System.out.println(mismatches == 0 ? "OK: every session woke up as it was" : mismatches + " sessions changed");
+        if (mismatches > 0 || stillResident > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static String state(GameEngine engine) {
+        if (engine == null) {
+            return "hibernated";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(engine.getPlayer().getCurrentRoom().getName()).append(" turn ").append(engine.getTurnCount())
+                .append(engine.isGameRunning() ? " running" : " over").append(" [");
+        for (Item item : engine.getPlayer().getInventory()) {
+            sb.append(item.getName()).append(' ');
+        }
+        return sb.append(']').toString();
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+// Compares the old Player inventory code (linear hasKey, full insertion sort on
+// every showInventory) with the indexed inventory, at 10, 1k and 100k items.
+//   hasKey        lookup of a key the player does not hold (worst case for the scan)
+//   add + sorted  pick up one item, then get the inventory in sorted order
+// Usage: java InventoryBenchmark
+public class InventoryBenchmark {
+    private static final int[] SIZES = {10, 1_000, 100_000};
+    private static volatile long blackhole; // keeps results live so the JIT can't drop the loops
+
+    public static void main(String[] args) {
+        for (int round = 0; round < 3; round++) { // first rounds are warm-up
+            boolean report = round == 2;
+            if (report) {
+                System.out.printf("%8s  %14s %14s  %14s %14s%n", "items",
+                        "hasKey old", "hasKey new", "add+sort old", "add+sort new");
+            }
+            for (int size : SIZES) {
+                run(size, report);
+            }
+        }
+    }
+
+    private static void run(int size, boolean report) {
+        Random random = new Random(size);
+        Item[] items = new Item[size];
+        for (int i = 0; i < size; i++) {
+            boolean key = random.nextInt(10) == 0;
+            items[i] = new Item((key ? "Key" : "Thing") + i, random.nextInt(1000), key ? ItemType.KEY : ItemType.TOOL, null);
+        }
+
+        Player player = new Player(new Room("Bench", false), new BufferedOutput());
+        ArrayList<Item> legacy = new ArrayList<>();
+        for (Item item : items) {
+            player.addToInventory(item);
+            legacy.add(item);
+        }
+        legacy.sort(null); // the old code left the list sorted after each showInventory
+
+        int lookups = Math.max(1_000, 10_000_000 / size);
+        long t = System.nanoTime();
+        boolean found = false;
+        for (int i = 0; i < lookups; i++) {
+            found |= legacyHasKey(legacy, "MissingKey");
+        }
+        double oldHasKey = (System.nanoTime() - t) / (double) lookups;
+        t = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            found |= player.hasKey("MissingKey");
+        }
+        double newHasKey = (System.nanoTime() - t) / (double) lookups;
+
+        int adds = Math.max(200, Math.min(1_000, size / 10));
+        Item[] extra = new Item[adds];
+        for (int i = 0; i < adds; i++) {
+            extra[i] = new Item("Extra" + i, random.nextInt(1000), ItemType.TOOL, null);
+        }
+        long sink = 0;
+        t = System.nanoTime();
+        for (int i = 0; i < adds; i++) {
+            legacy.add(extra[i]);
+            legacySort(legacy);
+            sink += legacy.get(0).getValue();
+        }
+        double oldAdd = (System.nanoTime() - t) / (double) adds;
+        t = System.nanoTime();
+        for (int i = 0; i < adds; i++) {
+            player.addToInventory(extra[i]);
+            sink += player.getSortedInventory().get(0).getValue();
+        }
+        double newAdd = (System.nanoTime() - t) / (double) adds;
+
+        blackhole = sink + (found ? 1 : 0);
+        if (report) {
+            System.out.printf("%8d  %11.1f ns %11.1f ns  %11.1f ns %11.1f ns%n", size,
+                    oldHasKey, newHasKey, oldAdd, newAdd);
+        }
+    }
+
+    // The pre-index Player.hasKey
+    private static boolean legacyHasKey(ArrayList<Item> inventory, String keyName) {
+        for (Item item : inventory) {
+            if (item.getItemType() == ItemType.KEY && item.getName().equalsIgnoreCase(keyName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The pre-index Player.sortInventory
+    private static void legacySort(ArrayList<Item> inventory) {
+        for (int i = 1; i < inventory.size(); i++) {
+            Item key = inventory.get(i);
+            int j = i - 1;
+            while (j >= 0 && inventory.get(j).compareTo(key) > 0) {
+                inventory.set(j + 1, inventory.get(j));
+                j--;
+            }
+            inventory.set(j + 1, key);
+        }
+    }
+}
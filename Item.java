@@ -1,19 +1,21 @@
+// Immutable, so one Item serves every session and room it turns up in: where
+// it is (a room's contents, a player's inventory) is the only per-session state
 public class Item extends GameComponent implements Collectible, Comparable<Item> {
-    private int value;
-    private String itemType;
-    private String description;
-    public Item(String name, int value, String itemType, String description){
+    private final int value;
+    private final ItemType itemType;
+    private final String description;
+    public Item(String name, int value, ItemType itemType, String description){
         super(name);
         this.value = value;
         this.itemType = itemType;
         this.description = description;
     }
     @Override
-    public void inspect() {
-        System.out.println("Item: " + name + " [" + itemType + "] - Value: " + value);
+    public void inspect(OutputSink out) {
+        out.println("Item: " + name + " [" + itemType + "] - Value: " + value);
         // NEW: Print text if it exists
         if (description != null) {
-            System.out.println("You read the " + name + ": \"" + description + "\"");
+            out.println("You read the " + name + ": \"" + description + "\"");
         }
     }
     @Override
@@ -23,10 +25,10 @@ public class Item extends GameComponent implements Collectible, Comparable<Item>
     @Override
     public void collect(Player p){
         p.addToInventory(this);
-        System.out.println("Collected " + name);
+        p.getOutput().println("Collected " + name);
     }
     public int getValue(){return value;}
-    public String getItemType(){return itemType;}
+    public ItemType getItemType(){return itemType;}
     @Override
     public int compareTo(Item other){
         int valueCompare = Integer.compare(this.value, other.value);
@@ -0,0 +1,17 @@
+// What an item is for. World files spell it out by name (KEY, TOOL, ...).
+public enum ItemType {
+    KEY,  // opens doors whose required key has the item's name
+    TOOL,
+    CLUE,
+    TREASURE; // worth its value and nothing else
+
+    // Null if there's no such type
+    public static ItemType parse(String name) {
+        for (ItemType type : values()) {
+            if (type.name().equals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
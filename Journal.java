@@ -0,0 +1,433 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Append-only, group-committed log of session state changes, plus snapshots.
+//
+// Engines append one record per turn (the SessionEvents it produced). A single
+// writer thread takes whatever has piled up since its last write, writes it
+// and forces it to disk, then completes the future every append in that group
+// got back, so one fsync covers any number of sessions.
+//
+// The log is cut into segments. Whenever a segment fills up (or gets old), a
+// background thread folds the previous snapshot and the finished segments into
+// a new snapshot and deletes them. A snapshot holds every open session's
+// events, concatenated; a game lasts at most GameEngine.MAX_TURNS turns, so
+// that is a few hundred bytes per session at most. Recovery reads the latest
+// snapshot plus the segments after it, which keeps it bounded no matter how
+// long the server has been up.
+//
+// File layout (segment-N.log and snapshot-N.snap alike):
+//   header: int magic "ESCJ", int version
+//   record: varint payload length, payload, int CRC32 of the payload
+//   payload: varint session id, byte kind (EVENTS or CLOSE), event bytes
+// snapshot-N holds everything before segment-N. A torn or corrupt record ends
+// the file; whatever follows it was never acknowledged.
+public class Journal implements Closeable {
+    static final int MAGIC = 0x4553434A; // "ESCJ"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte EVENTS = 0;
+    private static final byte CLOSE = 1;
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+    public static final long DEFAULT_SNAPSHOT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final long snapshotNanos;
+    private final Object lock = new Object();
+    private final CRC32 crc = new CRC32(); // guarded by lock
+    private final Thread writer;
+    private final ExecutorService snapshotter;
+
+    private ByteBuffer pending = ByteBuffer.allocate(64 << 10); // guarded by lock
+    private ByteBuffer spare = ByteBuffer.allocate(64 << 10);   // guarded by lock
+    private CompletableFuture<Void> group = new CompletableFuture<>(); // guarded by lock
+    private boolean closed;                                      // guarded by lock
+    private IOException failure;                                 // guarded by lock
+
+    // Owned by the writer thread
+    private FileChannel segment;
+    private int segmentIndex;
+    private long segmentSize;
+    private long segmentOpenedAt;
+
+    private Map<Long, byte[]> recovered;
+    private volatile int snapshotIndex = -1;
+
+    private Journal(Path dir, long segmentBytes, long snapshotMillis) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.snapshotNanos = TimeUnit.MILLISECONDS.toNanos(snapshotMillis);
+        Files.createDirectories(dir);
+
+        List<Integer> segments = new ArrayList<>();
+        List<Integer> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith("segment-") && name.endsWith(".log")) {
+                    segments.add(Integer.parseInt(name.substring(8, name.length() - 4)));
+                } else if (name.startsWith("snapshot-") && name.endsWith(".snap")) {
+                    snapshots.add(Integer.parseInt(name.substring(9, name.length() - 5)));
+                }
+            }
+        }
+        Collections.sort(segments);
+        snapshotIndex = snapshots.isEmpty() ? -1 : Collections.max(snapshots);
+        // Left over if we stopped between writing a snapshot and deleting its inputs
+        for (int index : snapshots) {
+            if (index < snapshotIndex) {
+                Files.deleteIfExists(snapshotFile(index));
+            }
+        }
+
+        List<Path> replay = new ArrayList<>();
+        if (snapshotIndex >= 0) {
+            replay.add(snapshotFile(snapshotIndex));
+        }
+        int last = snapshotIndex;
+        for (int index : segments) {
+            if (index >= snapshotIndex) {
+                replay.add(segmentFile(index));
+            } else {
+                Files.deleteIfExists(segmentFile(index));
+            }
+            last = Math.max(last, index);
+        }
+        Map<Long, ByteArrayOutputStream> sessions = fold(replay);
+        this.recovered = new LinkedHashMap<>();
+        for (Map.Entry<Long, ByteArrayOutputStream> e : sessions.entrySet()) {
+            recovered.put(e.getKey(), e.getValue().toByteArray());
+        }
+
+        // Never append to a file that may end in a torn record
+        openSegment(last + 1);
+        this.snapshotter = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "journal-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static Journal open(Path dir) throws IOException {
+        return open(dir, DEFAULT_SEGMENT_BYTES, DEFAULT_SNAPSHOT_MILLIS);
+    }
+
+    // segmentBytes and snapshotMillis: a snapshot is taken when the current
+    // segment reaches that size or that age, whichever comes first
+    public static Journal open(Path dir, long segmentBytes, long snapshotMillis) throws IOException {
+        return new Journal(dir, segmentBytes, snapshotMillis);
+    }
+
+    // Sessions that were open when the journal was last written, with their
+    // events in order. Only returns them once; later calls get an empty map.
+    public Map<Long, byte[]> takeRecoveredSessions() {
+        Map<Long, byte[]> result = recovered;
+        recovered = Collections.emptyMap();
+        return result;
+    }
+
+    // Completes once the record is on disk, along with the rest of its group
+    public CompletableFuture<Void> append(long sessionId, byte[] events, int length) {
+        return appendRecord(sessionId, EVENTS, events, length);
+    }
+
+    // The session is gone: recovery and later snapshots drop it
+    public CompletableFuture<Void> appendClose(long sessionId) {
+        return appendRecord(sessionId, CLOSE, null, 0);
+    }
+
+    private CompletableFuture<Void> appendRecord(long sessionId, byte kind, byte[] events, int length) {
+        synchronized (lock) {
+            if (failure != null) {
+                return CompletableFuture.failedFuture(failure);
+            }
+            if (closed) {
+                return CompletableFuture.failedFuture(new IOException("Journal is closed"));
+            }
+            int payload = varintSize(sessionId) + 1 + length;
+            ensureRoom(5 + payload + 4);
+            ByteBuffer b = pending;
+            putVarint(b, payload);
+            int start = b.position();
+            putVarint(b, sessionId);
+            b.put(kind);
+            if (length > 0) {
+                b.put(events, 0, length);
+            }
+            crc.reset();
+            crc.update(b.array(), start, payload);
+            b.putInt((int) crc.getValue());
+            lock.notify();
+            return group;
+        }
+    }
+
+    private void ensureRoom(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            ByteBuffer batch;
+            CompletableFuture<Void> done;
+            synchronized (lock) {
+                while (pending.position() == 0 && !closed) {
+                    try {
+                        lock.wait(1000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (pending.position() == 0 && shouldSnapshot()) {
+                        break;
+                    }
+                }
+                if (pending.position() == 0 && closed) {
+                    return;
+                }
+                batch = pending;
+                pending = spare;
+                spare = null;
+                done = group;
+                group = new CompletableFuture<>();
+            }
+            IOException error = null;
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    segmentSize += segment.write(batch);
+                }
+                segment.force(false);
+                if (shouldSnapshot()) {
+                    int finished = segmentIndex;
+                    openSegment(finished + 1);
+                    snapshotter.execute(() -> snapshot(finished + 1));
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            batch.clear();
+            synchronized (lock) {
+                spare = batch;
+                if (error != null) {
+                    failure = error;
+                }
+            }
+            if (error == null) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(error);
+            }
+        }
+    }
+
+    private boolean shouldSnapshot() {
+        return segmentSize > HEADER_SIZE
+                && (segmentSize >= segmentBytes || System.nanoTime() - segmentOpenedAt >= snapshotNanos);
+    }
+
+    private void openSegment(int index) throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        segment = FileChannel.open(segmentFile(index), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        segment.write(header);
+        segment.force(true);
+        segmentIndex = index;
+        segmentSize = HEADER_SIZE;
+        segmentOpenedAt = System.nanoTime();
+    }
+
+    // Folds the last snapshot and every segment before `upTo` into snapshot-upTo
+    private void snapshot(int upTo) {
+        try {
+            int previous = snapshotIndex;
+            List<Path> inputs = new ArrayList<>();
+            if (previous >= 0) {
+                inputs.add(snapshotFile(previous));
+            }
+            for (int index = Math.max(previous, 0); index < upTo; index++) {
+                if (Files.exists(segmentFile(index))) {
+                    inputs.add(segmentFile(index));
+                }
+            }
+            Map<Long, ByteArrayOutputStream> sessions = fold(inputs);
+
+            Path tmp = dir.resolve("snapshot-" + upTo + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer b = ByteBuffer.allocate(1 << 20);
+                b.putInt(MAGIC).putInt(VERSION);
+                CRC32 sum = new CRC32();
+                for (Map.Entry<Long, ByteArrayOutputStream> e : sessions.entrySet()) {
+                    byte[] events = e.getValue().toByteArray();
+                    int payload = varintSize(e.getKey()) + 1 + events.length;
+                    if (b.remaining() < 5 + payload + 4) {
+                        b.flip();
+                        while (b.hasRemaining()) {
+                            out.write(b);
+                        }
+                        b = b.capacity() >= 5 + payload + 4 ? b.clear() : ByteBuffer.allocate(5 + payload + 4);
+                    }
+                    putVarint(b, payload);
+                    int start = b.position();
+                    putVarint(b, e.getKey());
+                    b.put(EVENTS);
+                    b.put(events);
+                    sum.reset();
+                    sum.update(b.array(), start, payload);
+                    b.putInt((int) sum.getValue());
+                }
+                b.flip();
+                while (b.hasRemaining()) {
+                    out.write(b);
+                }
+                out.force(true);
+            }
+            Files.move(tmp, snapshotFile(upTo), StandardCopyOption.ATOMIC_MOVE);
+            snapshotIndex = upTo;
+            for (Path input : inputs) {
+                Files.deleteIfExists(input);
+            }
+        } catch (IOException e) {
+            // Keep the old snapshot and segments; the next rotation tries again
+        }
+    }
+
+    public int getSnapshotIndex() {
+        return snapshotIndex;
+    }
+
+    // Finishes writing what was appended, then stops
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notify();
+        }
+        try {
+            writer.join();
+            snapshotter.shutdown();
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segment.close();
+    }
+
+    // Replays files in order into per-session event lists, dropping closed sessions
+    private static Map<Long, ByteArrayOutputStream> fold(List<Path> files) throws IOException {
+        Map<Long, ByteArrayOutputStream> sessions = new LinkedHashMap<>();
+        CRC32 sum = new CRC32();
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_SIZE) {
+                    continue;
+                }
+                MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                    throw new IOException("Not a journal file: " + file);
+                }
+                byte[] payload = new byte[256];
+                while (in.hasRemaining()) {
+                    long size = readVarint(in);
+                    if (size < 2 || size > in.remaining() - 4) {
+                        break; // torn tail
+                    }
+                    int length = (int) size;
+                    if (payload.length < length) {
+                        payload = new byte[Math.max(length, payload.length * 2)];
+                    }
+                    in.get(payload, 0, length);
+                    sum.reset();
+                    sum.update(payload, 0, length);
+                    if (in.getInt() != (int) sum.getValue()) {
+                        break; // corrupt record: nothing after it was acknowledged
+                    }
+                    ByteBuffer record = ByteBuffer.wrap(payload, 0, length);
+                    long sessionId = readVarint(record);
+                    byte kind = record.get();
+                    if (kind == CLOSE) {
+                        sessions.remove(sessionId);
+                        continue;
+                    }
+                    ByteArrayOutputStream events = sessions.get(sessionId);
+                    if (events == null) {
+                        events = new ByteArrayOutputStream(32);
+                        sessions.put(sessionId, events);
+                    }
+                    events.write(payload, record.position(), record.remaining());
+                }
+            }
+        }
+        return sessions;
+    }
+
+    private Path segmentFile(int index) {
+        return dir.resolve("segment-" + index + ".log");
+    }
+
+    private Path snapshotFile(int index) {
+        return dir.resolve("snapshot-" + index + ".snap");
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer b, long value) {
+        while ((value & ~0x7FL) != 0) {
+            b.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        b.put((byte) value);
+    }
+
+    // -1 if the buffer ends mid-varint
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64 && in.hasRemaining(); shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+}
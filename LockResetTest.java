@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Checks the timed lock reset rule (GameServer.enableLockReset). Every session
+// jams the SafeLock; right after, the lock must still be jammed. Then the
+// sessions hibernate, and once the reset is due each must have woken up, got
+// its attempts back and been told so. Finally the journal is reopened and each recovered
+// session must show the attempts it had after the reset.
+// Usage: java LockResetTest [sessions] [resetMillis]
+public class LockResetTest {
+    private static final List<String> JAM = List.of(
+            "move Library", "solve SphinxRiddle keyboard", "move Laboratory",
+            "solve SafeLock 0000", "solve SafeLock 0000", "solve SafeLock 0000",
+            "solve SafeLock 0000", "solve SafeLock 0000");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int sessionCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long resetMillis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+        WorldDefinition world = GameEngine.setupGame();
+        Path dir = Files.createTempDirectory("lock-reset");
+        Journal journal = Journal.open(dir);
+        GameServer server = new GameServer(world, 2, journal);
+        server.enableHibernation(resetMillis * 1_000_000L / 4, Integer.MAX_VALUE);
+        server.enableLockReset(resetMillis * 1_000_000L);
+
+        long start = System.nanoTime();
+        long[] ids = new long[sessionCount];
+        List<CompletableFuture<CommandResult>> last = new ArrayList<>();
+        for (int i = 0; i < sessionCount; i++) {
+            ids[i] = server.openSession();
+            List<CompletableFuture<CommandResult>> results = server.submitAll(ids[i], JAM);
+            last.add(results.get(results.size() - 1));
+        }
+        CompletableFuture.allOf(last.toArray(new CompletableFuture<?>[0])).join();
+        long jammedAt = System.nanoTime();
+        if (jammedAt - start > resetMillis * 1_000_000L / 2) {
+            System.out.println("Jamming took " + (jammedAt - start) / 1_000_000 + " ms, too close to the reset: "
+                    + "use fewer sessions or a longer reset");
+            System.exit(1);
+        }
+
+        int problems = 0;
+        problems += check(server, ids, "before the reset", "No attempts remaining", CommandResult.Status.PUZZLE_ERROR,
+                jammedAt);
+        Thread.sleep(Math.max(0, (start + resetMillis * 1_000_000L * 19 / 20 - System.nanoTime()) / 1_000_000));
+        int hibernated = sessionCount - server.getResidentSessionCount();
+        problems += check(server, ids, "after the reset", "has reset", CommandResult.Status.OK,
+                jammedAt + resetMillis * 1_000_000L * 3 / 2);
+        server.shutdown();
+        journal.close();
+
+        try (Journal reopened = Journal.open(dir)) {
+            GameServer recovered = new GameServer(world, 2, reopened);
+            // Reset, then one wrong try after it
+            problems += check(recovered, ids, "recovered", "Attempts remaining: 4", CommandResult.Status.OK,
+                    System.nanoTime());
+            recovered.shutdown();
+        }
+
+        System.out.println("Sessions:    " + sessionCount + ", lock reset after " + resetMillis + " ms");
+        System.out.println("Hibernated:  " + hibernated + " before the reset fired");
+        System.out.println(problems == 0 ? "OK: locks stayed jammed until their reset, and not after" : problems + " problems");
+        if (problems > 0) {
+            System.exit(1);
+        }
+    }
+
+    // At `at`, tries the SafeLock (or inspects it, once recovered) in every
+    // session and expects the status and text
+    private static int check(GameServer server, long[] ids, String when, String text, CommandResult.Status status,
+                             long at) throws InterruptedException {
+        Thread.sleep(Math.max(0, (at - System.nanoTime()) / 1_000_000));
+        String command = when.equals("recovered") ? "inspect SafeLock" : "solve SafeLock 0000";
+        List<CompletableFuture<CommandResult>> results = new ArrayList<>();
+        for (long id : ids) {
+            results.add(server.submit(id, command));
+        }
+        int problems = 0;
+        for (int i = 0; i < ids.length; i++) {
+            CommandResult r = results.get(i).join();
+            if ((r.getStatus() != status || !r.getOutput().contains(text)) && problems++ < 5) {
+                System.out.println("Session " + ids[i] + " " + when + ": " + r.getStatus() + " " + r.getOutput().trim());
+            }
+        }
+        return problems;
+    }
+}
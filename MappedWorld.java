@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A world written by WorldBinary, memory-mapped and read on demand. Opening
+// only reads the header, so a huge world is ready at once. Each session gets
+// an Instance that turns records into Room objects only when the player gets
+// near them. One MappedWorld can serve any number of sessions at once: it only
+// does absolute reads on the mapped buffer. Items, being immutable, are decoded
+// once and shared by every session, and so are puzzles' definitions: a
+// session's puzzle is a copy of one shared prototype, with its own progress.
+public class MappedWorld {
+    private final ByteBuffer data;
+    private final int roomCount;
+    private final int startRoom;
+    private final int roomIndexOffset;
+    private final int stringIndexOffset;
+    private final int stringCount;
+    private final List<String> hints;
+    private final String[] stringCache;
+    private final String[] keyCache;  // strings lower-cased, for room lookup keys
+    private final ConcurrentHashMap<Integer, GameComponent> components = new ConcurrentHashMap<>(); // by record offset
+
+    private MappedWorld(ByteBuffer data) throws WorldFormatException {
+        this.data = data;
+        if (data.capacity() < WorldBinary.HEADER_SIZE || data.getInt(0) != WorldBinary.MAGIC) {
+            throw new WorldFormatException("Not a binary world file");
+        }
+        if (data.getInt(4) != WorldBinary.VERSION) {
+            throw new WorldFormatException("Unsupported world file version " + data.getInt(4));
+        }
+        this.roomCount = data.getInt(8);
+        this.startRoom = data.getInt(12);
+        int hintCount = data.getInt(16);
+        this.roomIndexOffset = data.getInt(20);
+        this.stringIndexOffset = data.getInt(24);
+        this.stringCount = data.getInt(28);
+        int hintsOffset = data.getInt(32);
+        if (startRoom < 0 || startRoom >= roomCount || hintsOffset + hintCount * 4 > data.capacity()) {
+            throw new WorldFormatException("Corrupt world file header");
+        }
+        this.stringCache = new String[stringCount];
+        this.keyCache = new String[stringCount];
+        List<String> h = new ArrayList<>(hintCount);
+        for (int i = 0; i < hintCount; i++) {
+            h.add(string(data.getInt(hintsOffset + i * 4)));
+        }
+        this.hints = Collections.unmodifiableList(h);
+    }
+
+    public static MappedWorld open(Path file) throws IOException, WorldFormatException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedWorld(buffer);
+        }
+    }
+
+    public int getRoomCount() {
+        return roomCount;
+    }
+
+    public int getStartRoom() {
+        return startRoom;
+    }
+
+    public List<String> getHints() {
+        return hints;
+    }
+
+    public Instance newInstance() {
+        return new Instance();
+    }
+
+    // Decodes the whole file, e.g. to hand it to WorldText.write
+    public WorldDefinition toDefinition() {
+        WorldDefinition.Builder world = new WorldDefinition.Builder();
+        for (int r = 0; r < roomCount; r++) {
+            int offset = roomOffset(r);
+            world.addRoom(string(data.getInt(offset)), (data.get(offset + 8) & WorldBinary.FLAG_EXIT) != 0,
+                    string(data.getInt(offset + 4)));
+        }
+        for (int r = 0; r < roomCount; r++) {
+            int offset = roomOffset(r) + 9;
+            int exits = data.getInt(offset);
+            offset += 4;
+            for (int i = 0; i < exits; i++, offset += 4) {
+                world.connect(r, data.getInt(offset));
+            }
+            int components = data.getInt(offset);
+            offset += 4;
+            for (int i = 0; i < components; i++) {
+                byte kind = data.get(offset);
+                if (kind == WorldBinary.ITEM) {
+                    world.addItem(r, itemDef(offset + 1));
+                    offset += 17;
+                    continue;
+                }
+                WorldDefinition.ItemDef reward = data.get(offset + 21) != 0 ? itemDef(offset + 22) : null;
+                if (kind == WorldBinary.CODE) {
+                    world.addCodePuzzle(r, string(data.getInt(offset + 1)), data.getInt(offset + 5), reward,
+                            string(data.getInt(offset + 9)), data.getInt(offset + 17));
+                } else {
+                    world.addRiddlePuzzle(r, string(data.getInt(offset + 1)), data.getInt(offset + 5), reward,
+                            string(data.getInt(offset + 13)), string(data.getInt(offset + 9)));
+                }
+                offset += reward != null ? 38 : 22;
+            }
+        }
+        world.setStartRoom(startRoom);
+        for (String hint : hints) {
+            world.addHint(hint);
+        }
+        return world.build();
+    }
+
+    private int roomOffset(int room) {
+        if (room < 0 || room >= roomCount) {
+            throw new IndexOutOfBoundsException("No room " + room + " in a world of " + roomCount);
+        }
+        return data.getInt(roomIndexOffset + room * 4);
+    }
+
+    private String string(int id) {
+        if (id == WorldBinary.NONE) {
+            return null;
+        }
+        String s = stringCache[id];
+        if (s == null) {
+            int offset = data.getInt(stringIndexOffset + id * 4);
+            byte[] bytes = new byte[data.getInt(offset)];
+            data.get(offset + 4, bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            stringCache[id] = s; // racing threads just decode the same string twice
+        }
+        return s;
+    }
+
+    private WorldDefinition.ItemDef itemDef(int offset) {
+        return new WorldDefinition.ItemDef(string(data.getInt(offset)), data.getInt(offset + 4),
+                itemType(offset + 8), string(data.getInt(offset + 12)));
+    }
+
+    private String key(int id) {
+        String key = keyCache[id];
+        if (key == null) {
+            key = string(id).toLowerCase(Locale.ROOT);
+            keyCache[id] = key;
+        }
+        return key;
+    }
+
+    // The item whose record is at offset, shared by every session
+    private Item item(int offset) {
+        return (Item) components.computeIfAbsent(offset, o -> new Item(string(data.getInt(o)), data.getInt(o + 4),
+                itemType(o + 8), string(data.getInt(o + 12))));
+    }
+
+    // The puzzle whose record is at offset (its kind byte), never used in a room but copied for each session
+    private Puzzle puzzle(int offset) {
+        return (Puzzle) components.computeIfAbsent(offset, o -> {
+            Item reward = data.get(o + 21) != 0 ? item(o + 22) : null;
+            String name = string(data.getInt(o + 1));
+            int difficulty = data.getInt(o + 5);
+            String answer = string(data.getInt(o + 9));
+            if (data.get(o) == WorldBinary.CODE) {
+                return new CodePuzzle(name, difficulty, reward, answer, data.getInt(o + 17));
+            }
+            return new RiddlePuzzle(name, difficulty, reward, string(data.getInt(o + 13)), answer);
+        });
+    }
+
+    // WorldBinary writes only the names of ItemType constants
+    private ItemType itemType(int offset) {
+        return ItemType.valueOf(string(data.getInt(offset)));
+    }
+
+    // One session's view of the world. Not thread-safe, like the rest of a session.
+    public class Instance {
+        private final HashMap<Integer, Room> rooms = new HashMap<>();
+
+        public Room getStartRoom() {
+            return room(startRoom);
+        }
+
+        // A room shell with name, exit flag and lock; contents and exits are read on first use
+        public Room room(int id) {
+            Room room = rooms.get(id);
+            if (room == null) {
+                int offset = roomOffset(id);
+                int name = data.getInt(offset);
+                room = new Room(string(name), key(name), (data.get(offset + 8) & WorldBinary.FLAG_EXIT) != 0,
+                        string(data.getInt(offset + 4)));
+                room.setId(id);
+                room.setLoader(r -> load(id, r));
+                rooms.put(id, room);
+            }
+            return room;
+        }
+
+        public int getMaterializedRoomCount() {
+            return rooms.size();
+        }
+
+        private void load(int id, Room room) {
+            int offset = roomOffset(id) + 9;
+            int exits = data.getInt(offset);
+            offset += 4;
+            for (int i = 0; i < exits; i++, offset += 4) {
+                room.addConnectedRoom(room(data.getInt(offset)));
+            }
+            int components = data.getInt(offset);
+            offset += 4;
+            for (int i = 0; i < components; i++) {
+                byte kind = data.get(offset);
+                if (kind == WorldBinary.ITEM) {
+                    room.addContent(item(offset + 1));
+                    offset += 17;
+                    continue;
+                }
+                room.addContent(puzzle(offset).copy());
+                offset += data.get(offset + 21) != 0 ? 38 : 22;
+            }
+        }
+    }
+}
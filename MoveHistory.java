@@ -0,0 +1,57 @@
+// The rooms a player can go back to, most recent last. A fixed ring of room
+// slots: once it holds `depth` rooms, each new one overwrites the oldest, so a
+// long game keeps a bounded history and moving allocates nothing. Not
+// synchronized; a Player belongs to one session at a time.
+final class MoveHistory {
+    private final Room[] rooms;
+    private int top;  // slot the next room goes in
+    private int size;
+
+    MoveHistory(int depth) {
+        this.rooms = new Room[Math.max(0, depth)];
+    }
+
+    void push(Room room) {
+        if (rooms.length == 0) {
+            return;
+        }
+        rooms[top] = room;
+        top = top + 1 == rooms.length ? 0 : top + 1;
+        if (size < rooms.length) {
+            size++;
+        }
+    }
+
+    // The room 'back' would go to, or null
+    Room peek() {
+        return size == 0 ? null : rooms[top == 0 ? rooms.length - 1 : top - 1];
+    }
+
+    // The room `steps` pops would end on, or null if there aren't that many
+    Room peek(int steps) {
+        if (steps < 1 || steps > size) {
+            return null;
+        }
+        int slot = top - steps;
+        return rooms[slot < 0 ? slot + rooms.length : slot];
+    }
+
+    Room pop() {
+        if (size == 0) {
+            return null;
+        }
+        top = top == 0 ? rooms.length - 1 : top - 1;
+        Room room = rooms[top];
+        rooms[top] = null;
+        size--;
+        return room;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.Locale;
+
+// Interned names with int ids, looked up straight from a char buffer so the
+// command parser can resolve what the player typed without building a String.
+// Case-insensitive tables keep each name lower-cased, the form Room's indexes
+// use as keys. Fill a table, then share it read-only between threads.
+public class NameTable {
+    public static final int NOT_FOUND = -1;
+
+    private final boolean ignoreCase;
+    private String[] names = new String[16];
+    private int[] slots = new int[32]; // open addressing, id + 1; 0 = empty
+    private int count;
+
+    public NameTable(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+    }
+
+    // Returns the id of the name, adding it if it is new
+    public int add(String name) {
+        String canonical = ignoreCase ? name.toLowerCase(Locale.ROOT) : name;
+        int id = find(canonical);
+        if (id != NOT_FOUND) {
+            return id;
+        }
+        if (count == names.length) {
+            String[] grown = new String[count * 2];
+            System.arraycopy(names, 0, grown, 0, count);
+            names = grown;
+        }
+        names[count] = canonical;
+        if ((count + 1) * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        insert(count, hash(canonical));
+        return count++;
+    }
+
+    public int find(String name) {
+        return find(hash(name), name, null, 0, name.length());
+    }
+
+    public int find(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + fold(chars[offset + i]);
+        }
+        return find(hash, null, chars, offset, length);
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Exactly one of text and chars is set
+    private int find(int hash, String text, char[] chars, int offset, int length) {
+        int mask = slots.length - 1;
+        for (int i = mix(hash) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            String candidate = names[slots[i] - 1];
+            if (candidate.length() != length) {
+                continue;
+            }
+            int j = 0;
+            while (j < length && candidate.charAt(j) == fold(text != null ? text.charAt(j) : chars[offset + j])) {
+                j++;
+            }
+            if (j == length) {
+                return slots[i] - 1;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private int hash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + fold(name.charAt(i));
+        }
+        return hash;
+    }
+
+    private char fold(char c) {
+        return ignoreCase ? Character.toLowerCase(c) : c;
+    }
+
+    private void insert(int id, int hash) {
+        int mask = slots.length - 1;
+        int i = mix(hash) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = id + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int id = 0; id < count; id++) {
+            insert(id, hash(names[id]));
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
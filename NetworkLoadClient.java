@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+
+// Holds many connections open to a NetworkServer and plays on all of them at
+// once, to see how many concurrent players one node can serve. Each connection
+// sends a command, waits for the reply's prompt, waits thinkMillis more and
+// sends the next, like a player at a keyboard; one whose game ends connects
+// again. One selector thread drives them all. Connections open a batch at a
+// time so the server's accept backlog isn't flooded; measuring starts once all
+// of them are up.
+// Usage: java NetworkLoadClient [connections] [seconds] [thinkMillis] [host] [port]
+public class NetworkLoadClient {
+    private static final String[] COMMANDS = {
+            "look", "move Library", "move Storage", "back", "inventory", "status",
+            "map", "pickup Flashlight", "inspect Flashlight", "help", "inspect EasyRiddle",
+            "solve EasyRiddle shadow", "solve SphinxRiddle piano"
+    };
+    private static final int CONNECT_BATCH = 256;
+
+    private final InetSocketAddress server;
+    private final int target;
+    private final long thinkNanos;
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final ArrayDeque<Client> thinking = new ArrayDeque<>(); // in the order they're due
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final byte[][] commands = new byte[COMMANDS.length][];
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private int open;
+    private int connecting;
+    private int lowestOpen = Integer.MAX_VALUE;
+    private long replies;
+    private long games;
+    private long failures;
+    private boolean measuring;
+
+    NetworkLoadClient(InetSocketAddress server, int target, long thinkNanos) throws IOException {
+        this.server = server;
+        this.target = target;
+        this.thinkNanos = thinkNanos;
+        this.selector = Selector.open();
+        for (int i = 0; i < COMMANDS.length; i++) {
+            commands[i] = (COMMANDS[i] + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    void run(int seconds) throws IOException {
+        long rampStart = System.nanoTime();
+        while (open < target) {
+            connectMore();
+            poll(System.nanoTime());
+            if (System.nanoTime() - rampStart > 60_000_000_000L) {
+                break; // report what we got
+            }
+        }
+        long connected = System.nanoTime();
+        System.out.println("Connected:           " + open + " in " + (connected - rampStart) / 1_000_000 + " ms");
+
+        measuring = true;
+        long deadline = connected + seconds * 1_000_000_000L;
+        long now;
+        while ((now = System.nanoTime()) < deadline) {
+            connectMore();
+            poll(now);
+            lowestOpen = Math.min(lowestOpen, open);
+        }
+        long elapsed = System.nanoTime() - connected;
+        selector.close();
+
+        System.out.println("Connections:         " + target + " wanted, " + lowestOpen + " or more open throughout");
+        System.out.println("Think time:          " + thinkNanos / 1_000_000 + " ms");
+        System.out.println("Replies:             " + replies);
+        System.out.printf("Throughput:          %.0f commands/s%n", replies / (elapsed / 1e9));
+        System.out.printf("Latency p50/p99/max: %.1f / %.1f / %.1f ms%n", latency.getValueAtPercentile(50) / 1e6,
+                latency.getValueAtPercentile(99) / 1e6, latency.getMax() / 1e6);
+        System.out.println("Games finished:      " + games);
+        System.out.println("Failures:            " + failures);
+    }
+
+    // Tops the connections back up to the target, a batch at a time
+    private void connectMore() {
+        int batch = Math.min(target - open - connecting, CONNECT_BATCH - connecting);
+        for (int i = 0; i < batch; i++) {
+            try {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Client c = new Client(channel);
+                connecting++;
+                if (channel.connect(server)) {
+                    connected(c, channel.register(selector, 0, c));
+                } else {
+                    c.key = channel.register(selector, SelectionKey.OP_CONNECT, c);
+                }
+            } catch (IOException e) {
+                failures++;
+                connecting--;
+                return;
+            }
+        }
+    }
+
+    private void poll(long now) throws IOException {
+        while (!thinking.isEmpty() && thinking.peek().dueAt <= now) {
+            send(thinking.poll());
+        }
+        long wait = thinking.isEmpty() ? 10 : Math.max(1, (thinking.peek().dueAt - now) / 1_000_000);
+        selector.select(Math.min(wait, 10));
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Client c = (Client) key.attachment();
+            try {
+                if (key.isConnectable()) {
+                    c.channel.finishConnect();
+                    connected(c, key);
+                } else {
+                    if (key.isWritable()) {
+                        write(c);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(c);
+                    }
+                }
+            } catch (IOException e) {
+                failures++;
+                drop(c);
+            }
+        }
+    }
+
+    private void connected(Client c, SelectionKey key) {
+        c.key = key;
+        key.interestOps(SelectionKey.OP_READ);
+        connecting--;
+        open++;
+        c.open = true;
+    }
+
+    private void read(Client c) throws IOException {
+        readBuffer.clear();
+        int n = c.channel.read(readBuffer);
+        if (n < 0) {
+            games++; // the game ended, or the server evicted us
+            drop(c);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            c.tail = (c.tail << 8 | (readBuffer.get(i) & 0xff)) & 0xffff;
+        }
+        if (c.tail != ('>' << 8 | ' ')) {
+            return; // more of the reply to come
+        }
+        c.tail = 0;
+        if (c.sentAt != 0) {
+            if (measuring) {
+                latency.record(System.nanoTime() - c.sentAt);
+                replies++;
+            }
+            c.sentAt = 0;
+        }
+        if (thinkNanos == 0) {
+            send(c);
+        } else {
+            c.dueAt = System.nanoTime() + thinkNanos;
+            thinking.add(c);
+        }
+    }
+
+    private void send(Client c) {
+        if (!c.open) {
+            return; // dropped while thinking
+        }
+        c.out = ByteBuffer.wrap(commands[random.nextInt(commands.length)]);
+        c.sentAt = System.nanoTime();
+        try {
+            write(c);
+        } catch (IOException e) {
+            failures++;
+            drop(c);
+        }
+    }
+
+    private void write(Client c) throws IOException {
+        c.channel.write(c.out);
+        c.key.interestOps(c.out.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void drop(Client c) {
+        if (c.open) {
+            open--;
+        } else {
+            connecting--;
+        }
+        c.open = false;
+        if (c.key != null) {
+            c.key.cancel();
+        }
+        try {
+            c.channel.close();
+        } catch (IOException ignored) {
+            // gone either way
+        }
+    }
+
+    private static final class Client {
+        final SocketChannel channel;
+        SelectionKey key;
+        boolean open;
+        int tail;        // the last two bytes received
+        long sentAt;     // 0 until a command is sent, and again once its reply is in
+        long dueAt;      // when to send the next command
+        ByteBuffer out;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long thinkMillis = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        String host = args.length > 3 ? args[3] : "localhost";
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : 4000;
+        new NetworkLoadClient(new InetSocketAddress(host, port), connections, thinkMillis * 1_000_000).run(seconds);
+    }
+}
@@ -0,0 +1,406 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Serves games over TCP, one GameServer session per connection, so players can
+// connect from anywhere (telnet or nc will do). The protocol is lines of text:
+// each line the client sends is one command, and the reply is everything the
+// command printed followed by a "> " prompt, so a reply is complete when what
+// has arrived ends in the prompt. The welcome text is the first reply; the
+// server closes the connection when the game ends.
+//
+// One selector thread does all the socket work and owns every Connection;
+// commands run on the GameServer's workers as usual and their results are
+// handed back through a queue. A connection has at most one command running.
+// Lines sent ahead wait their turn, and once MAX_QUEUED_LINES are waiting or
+// MAX_UNSENT_BYTES of replies haven't gone out yet, the server stops reading
+// from it until the client catches up, so a fast or stalled client can't make
+// it buffer without bound. Replies are encoded once and written with a
+// gathering write, as much as the socket takes; the rest waits for OP_WRITE.
+// Connections that neither send nor receive anything for the idle timeout are
+// closed and their sessions ended.
+// Usage: java NetworkServer [port] [workers] [world] [idleSeconds] [hibernateSeconds] [timeLimitSeconds] [hintSeconds]
+// world: as for BotDriver; hibernateSeconds turns on GameServer hibernation (0 for off)
+// and timeLimitSeconds a wall-clock limit on each game (0 for none); hintSeconds
+// gives each session a hint that often (see GameServer.enableTimedHints)
+public class NetworkServer implements Runnable, Closeable {
+    static final int MAX_LINE = 1024;           // bytes; a longer line closes the connection
+    static final int MAX_QUEUED_LINES = 16;
+    static final int MAX_UNSENT_BYTES = 64 * 1024;
+    private static final long SWEEP_NANOS = 1_000_000_000L;
+    private static final byte[] PROMPT = "\n> ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GOODBYE = "Thanks for playing!\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final GameServer games;
+    private final long idleNanos;
+    private final Selector selector;
+    private final ServerSocketChannel listener;
+    private final ConcurrentLinkedQueue<Connection> finished = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final HashSet<Connection> connections = new HashSet<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024); // shared: reads happen one at a time
+    private final ByteBuffer[] writeBatch = new ByteBuffer[16];
+    private volatile boolean running = true;
+    private volatile int connectionCount;
+    private long nextSweep;
+
+    public NetworkServer(GameServer games, int port, long idleNanos) throws IOException {
+        this.games = games;
+        this.idleNanos = idleNanos;
+        this.selector = Selector.open();
+        this.listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(port), 1024);
+        listener.configureBlocking(false);
+        listener.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    // The port listened on, for servers started on port 0
+    public int getPort() {
+        return ((InetSocketAddress) listener.socket().getLocalSocketAddress()).getPort();
+    }
+
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    // Runs the selector loop on a thread of its own
+    public Thread start() {
+        Thread t = new Thread(this, "net-selector");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    @Override
+    public void run() {
+        nextSweep = System.nanoTime() + SWEEP_NANOS;
+        try {
+            while (running) {
+                selector.select(SWEEP_NANOS / 1_000_000);
+                wakeupPending.set(false);
+                Connection c;
+                while ((c = finished.poll()) != null) {
+                    replied(c);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    c = (Connection) key.attachment();
+                    if (key.isWritable()) {
+                        write(c);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(c);
+                    }
+                }
+                long now = System.nanoTime();
+                if (now >= nextSweep) {
+                    evictIdle(now);
+                    nextSweep = now + SWEEP_NANOS;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Network server stopped: " + e.getMessage());
+        } finally {
+            for (Connection c : new ArrayList<>(connections)) {
+                close(c);
+            }
+            try {
+                listener.close();
+                selector.close();
+            } catch (IOException ignored) {
+                // shutting down anyway
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = listener.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection c = new Connection(channel, games.openSession());
+            c.key = channel.register(selector, SelectionKey.OP_READ, c);
+            connections.add(c);
+            connectionCount = connections.size();
+            c.running = true;
+            games.welcome(c.sessionId).whenComplete((r, error) -> done(c, r, error));
+        }
+    }
+
+    private void read(Connection c) {
+        readBuffer.clear();
+        int n;
+        try {
+            n = c.channel.read(readBuffer);
+        } catch (IOException e) {
+            close(c);
+            return;
+        }
+        if (n < 0) {
+            close(c);
+            return;
+        }
+        c.lastActive = System.nanoTime();
+        byte[] bytes = readBuffer.array();
+        int lineStart = 0;
+        for (int i = 0; i < n && !c.closing; i++) {
+            if (bytes[i] == '\n') {
+                String line = c.line(bytes, lineStart, i);
+                if (line == null) {
+                    tooLong(c);
+                } else {
+                    c.lines.add(line);
+                }
+                lineStart = i + 1;
+            }
+        }
+        if (!c.closing && !c.keep(bytes, lineStart, n)) {
+            tooLong(c);
+        }
+        next(c);
+        write(c);
+    }
+
+    private void tooLong(Connection c) {
+        send(c, "Error: Line too long.\n".getBytes(StandardCharsets.US_ASCII));
+        c.closing = true;
+    }
+
+    // Starts the connection's next waiting command, if none is running
+    private void next(Connection c) {
+        while (!c.running && !c.closing && !c.lines.isEmpty()) {
+            String line = c.lines.poll().trim();
+            if (line.isEmpty()) {
+                send(c, PROMPT); // like the console: nothing happens, ask again
+                continue;
+            }
+            c.running = true;
+            games.submit(c.sessionId, line).whenComplete((r, error) -> done(c, r, error));
+        }
+    }
+
+    // On a worker: hands the result to the selector thread
+    private void done(Connection c, CommandResult r, Throwable error) {
+        c.result = r;
+        c.error = error;
+        finished.add(c);
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    private void replied(Connection c) {
+        c.running = false;
+        if (!c.channel.isOpen()) {
+            return; // closed while the command ran
+        }
+        c.lastActive = System.nanoTime();
+        if (c.error != null) {
+            send(c, ("Error: " + c.error.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+            c.closing = true;
+        } else {
+            String output = c.result.getOutput();
+            if (output != null) {
+                send(c, output.getBytes(StandardCharsets.UTF_8));
+            }
+            if (c.result.isGameRunning()) {
+                send(c, PROMPT);
+            } else {
+                if (c.result.getStatus() != CommandResult.Status.GAME_OVER
+                        && c.result.getTurnCount() < GameEngine.MAX_TURNS) {
+                    send(c, GOODBYE); // as the console says, unless time ran out
+                }
+                c.closing = true;
+            }
+        }
+        c.result = null;
+        c.error = null;
+        next(c);
+        write(c);
+    }
+
+    private void send(Connection c, byte[] bytes) {
+        c.unsent.add(ByteBuffer.wrap(bytes));
+        c.unsentBytes += bytes.length;
+    }
+
+    // Writes as much as the socket takes; most replies fit straight away
+    private void write(Connection c) {
+        if (!c.channel.isOpen()) {
+            return;
+        }
+        while (!c.unsent.isEmpty()) {
+            int count = 0;
+            for (ByteBuffer b : c.unsent) {
+                writeBatch[count++] = b;
+                if (count == writeBatch.length) {
+                    break;
+                }
+            }
+            long written;
+            try {
+                written = c.channel.write(writeBatch, 0, count);
+            } catch (IOException e) {
+                close(c);
+                return;
+            } finally {
+                Arrays.fill(writeBatch, 0, count, null);
+            }
+            c.unsentBytes -= written;
+            while (!c.unsent.isEmpty() && !c.unsent.peek().hasRemaining()) {
+                c.unsent.poll();
+            }
+            if (written == 0) {
+                break; // socket buffer full: wait for OP_WRITE
+            }
+            c.lastActive = System.nanoTime();
+        }
+        update(c);
+    }
+
+    // Picks the events to wait for, or closes the connection once it's done
+    private void update(Connection c) {
+        if (!c.channel.isOpen()) {
+            return;
+        }
+        if (c.unsent.isEmpty() && c.closing && !c.running) {
+            close(c);
+            return;
+        }
+        int ops = 0;
+        if (!c.closing && c.lines.size() < MAX_QUEUED_LINES && c.unsentBytes < MAX_UNSENT_BYTES) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!c.unsent.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        c.key.interestOps(ops);
+    }
+
+    private void evictIdle(long now) {
+        for (Connection c : new ArrayList<>(connections)) {
+            if (!c.running && !c.closing && now - c.lastActive > idleNanos) {
+                send(c, "\nDisconnected: idle for too long.\n".getBytes(StandardCharsets.US_ASCII));
+                c.closing = true;
+                write(c);
+            }
+        }
+    }
+
+    private void close(Connection c) {
+        if (!connections.remove(c)) {
+            return;
+        }
+        connectionCount = connections.size();
+        c.key.cancel();
+        try {
+            c.channel.close();
+        } catch (IOException ignored) {
+            // the session ends either way
+        }
+        games.closeSession(c.sessionId);
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final long sessionId;
+        SelectionKey key;
+        final ArrayDeque<String> lines = new ArrayDeque<>(4);
+        final ArrayDeque<ByteBuffer> unsent = new ArrayDeque<>(4);
+        long unsentBytes;
+        byte[] partial; // the start of a line still coming in
+        int partialLength;
+        boolean running;  // a command is on the GameServer
+        boolean closing;  // close once the replies are written
+        long lastActive = System.nanoTime();
+        CommandResult result; // set by a worker, read by the selector thread after the queue hand-off
+        Throwable error;
+
+        Connection(SocketChannel channel, long sessionId) {
+            this.channel = channel;
+            this.sessionId = sessionId;
+        }
+
+        // The line ending at bytes[end], with any part that came in earlier; null if too long
+        String line(byte[] bytes, int start, int end) {
+            if (partialLength == 0) {
+                return end - start > MAX_LINE ? null : new String(bytes, start, end - start, StandardCharsets.UTF_8);
+            }
+            if (!keep(bytes, start, end)) {
+                return null;
+            }
+            String line = new String(partial, 0, partialLength, StandardCharsets.UTF_8);
+            partialLength = 0;
+            partial = null;
+            return line;
+        }
+
+        // Holds on to an unfinished line; false if it is too long
+        boolean keep(byte[] bytes, int start, int end) {
+            int length = end - start;
+            if (partialLength + length > MAX_LINE) {
+                return false;
+            }
+            if (length == 0) {
+                return true;
+            }
+            if (partial == null) {
+                partial = new byte[Math.min(MAX_LINE, Math.max(64, length * 2))];
+            } else if (partialLength + length > partial.length) {
+                partial = Arrays.copyOf(partial, Math.min(MAX_LINE, Math.max(partial.length * 2, partialLength + length)));
+            }
+            System.arraycopy(bytes, start, partial, partialLength, length);
+            partialLength += length;
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        WorldDefinition world = BotDriver.loadWorld(args.length > 2 ? args[2] : "-");
+        int idleSeconds = args.length > 3 ? Integer.parseInt(args[3]) : 300;
+        GameServer games = new GameServer(world, workers);
+        if (args.length > 4 && Long.parseLong(args[4]) > 0) {
+            games.enableHibernation(Long.parseLong(args[4]) * 1_000_000_000L, Integer.MAX_VALUE);
+        }
+        if (args.length > 5 && Long.parseLong(args[5]) > 0) {
+            games.enableTimeLimit(Long.parseLong(args[5]) * 1_000_000_000L);
+        }
+        if (args.length > 6) {
+            games.enableTimedHints(Long.parseLong(args[6]) * 1_000_000_000L);
+        }
+        NetworkServer server = new NetworkServer(games, port, idleSeconds * 1_000_000_000L);
+        System.out.println("Listening on port " + server.getPort() + " with " + workers + " workers");
+        server.run();
+    }
+}
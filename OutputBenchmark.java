@@ -0,0 +1,131 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// Compares the old println-per-line console output against the buffered sinks.
+// Each thread plays its own engine through a fixed script; all threads share one
+// output file, like sessions sharing stdout.
+// Usage: java OutputBenchmark [commandsPerThread] [threads]
+public class OutputBenchmark {
+    private static final String[] SCRIPT = {
+            "look", "inventory", "map", "status", "inspect Flashlight", "move Library",
+            "look", "inspect EasyRiddle", "back", "help"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int commands = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        WorldDefinition world = GameEngine.setupGame();
+
+        for (int round = 0; round < 2; round++) { // first round is warm-up
+            boolean report = round == 1;
+            run("console println", world, commands, threads, report, file -> {
+                // Same shape as System.out: a PrintStream that flushes on every println
+                PrintStream stream = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)), true);
+                System.setOut(stream);
+                return new SinkFactory() {
+                    public OutputSink create() {
+                        return ConsoleOutput.INSTANCE;
+                    }
+
+                    public void close() {
+                        stream.close();
+                    }
+                };
+            });
+            run("buffered per command", world, commands, threads, report, file -> {
+                PrintStream stream = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)), true);
+                return new SinkFactory() {
+                    public OutputSink create() {
+                        return new BufferedOutput(stream);
+                    }
+
+                    public void close() {
+                        stream.close();
+                    }
+                };
+            });
+            run("direct ByteBuffer", world, commands, threads, report, file -> {
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+                return new SinkFactory() {
+                    public OutputSink create() {
+                        return new ByteBufferOutput(channel, 4096);
+                    }
+
+                    public void close() throws IOException {
+                        channel.close();
+                    }
+                };
+            });
+            run("event list", world, commands, threads, report, file -> new SinkFactory() {
+                public OutputSink create() {
+                    return new EventListOutput() {
+                        @Override
+                        public void flush() {
+                            super.flush();
+                            takeLines(); // a client would render these
+                        }
+                    };
+                }
+
+                public void close() {
+                }
+            });
+        }
+    }
+
+    private interface SinkFactory {
+        OutputSink create();
+
+        void close() throws IOException;
+    }
+
+    private interface SinkSetup {
+        SinkFactory open(File file) throws IOException;
+    }
+
+    private static void run(String label, WorldDefinition world, int commands, int threads,
+                            boolean report, SinkSetup setup) throws Exception {
+        File file = File.createTempFile("output-bench", ".txt");
+        file.deleteOnExit();
+        PrintStream console = System.out;
+        SinkFactory factory = setup.open(file);
+
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            OutputSink sink = factory.create();
+            workers[t] = new Thread(() -> {
+                GameEngine engine = newEngine(world, sink);
+                for (int i = 0; i < commands; i++) {
+                    if (!engine.isGameRunning()) {
+                        engine = newEngine(world, sink);
+                    }
+                    engine.executeTurn(SCRIPT[i % SCRIPT.length]);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        factory.close();
+        System.setOut(console);
+
+        if (report) {
+            long total = (long) commands * threads;
+            System.out.printf("%-22s %8.0f ns/command  %10.0f commands/s%n",
+                    label, (double) elapsed / total, total / (elapsed / 1e9));
+        }
+        file.delete();
+    }
+
+    private static GameEngine newEngine(WorldDefinition world, OutputSink sink) {
+        return new GameEngine(world, sink);
+    }
+}
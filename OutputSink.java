@@ -0,0 +1,13 @@
+// Where game text goes. GameEngine writes a whole command's output to its sink
+// and calls flush() once at the end of the command.
+public interface OutputSink {
+    void print(String text);
+
+    void println(String line);
+
+    default void println() {
+        println("");
+    }
+
+    void flush();
+}
@@ -1,15 +1,35 @@
 import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 
 public class Player {
-    private Stack<Room> moveHistory;
-    private ArrayList<Item> inventory;
+    // Rooms 'back' can return to; older ones are forgotten
+    public static final int HISTORY_DEPTH = Integer.getInteger("escape.historyDepth", 64);
+
+    private MoveHistory moveHistory;
+    private ArrayList<Item> inventory;         // in pickup order
+    private ArrayList<Item> sortedInventory;   // same items ordered by Item.compareTo
+    private HashSet<String> keyNames;          // lower-cased names of KEY items held
+    private HashMap<String, Item> itemIndex;   // lower-cased name -> first item picked up with it
     private Room currentRoom;
+    private OutputSink out;
+    private WorldOverlay overlay; // null when the player's rooms aren't shared with other sessions
 
     public Player(Room startingRoom) {
-        this.moveHistory = new Stack<>();
+        this(startingRoom, ConsoleOutput.INSTANCE);
+    }
+
+    public Player(Room startingRoom, OutputSink out) {
+        this.moveHistory = new MoveHistory(HISTORY_DEPTH);
         this.inventory = new ArrayList<>();
+        this.sortedInventory = new ArrayList<>();
+        this.keyNames = new HashSet<>();
+        this.itemIndex = new HashMap<>();
         this.currentRoom = startingRoom;
+        this.out = out;
     }
 
     public void moveTo(Room r) throws LockedRoomException {
@@ -17,74 +37,167 @@ public class Player {
         if (r.getRequiredKey() != null && !hasKey(r.getRequiredKey())) {
             throw new LockedRoomException("This room requires: " + r.getRequiredKey());
         }
-        moveHistory.push(currentRoom);
-        currentRoom = r;
-        System.out.println("You moved to: " + r.getName());
+        enter(r);
+        out.println("You moved to: " + r.getName());
     }
 
-    public void goBack() {
+    // Returns false if there was nowhere to go back to
+    public boolean goBack() {
+        return goBack(1);
+    }
+
+    // Goes back `steps` rooms at once, or nowhere if the history is shorter
+    public boolean goBack(int steps) {
         if (moveHistory.isEmpty()) {
-            System.out.println("No previous room to go back to!");
-            return;
+            out.println("No previous room to go back to!");
+            return false;
+        }
+        if (steps > moveHistory.size()) {
+            out.println("You can only go back " + moveHistory.size() + (moveHistory.size() == 1 ? " room." : " rooms."));
+            return false;
+        }
+        for (int i = 0; i < steps; i++) {
+            currentRoom = resolve(moveHistory.pop());
+        }
+        if (steps == 1) {
+            out.println("You went back to: " + currentRoom.getName());
+        } else {
+            out.println("You went back " + steps + " rooms to: " + currentRoom.getName());
+        }
+        return true;
+    }
+
+    // The room `steps` times 'back' would return to, or null if the history is shorter
+    Room getPreviousRoom(int steps) {
+        Room previous = moveHistory.peek(steps);
+        return previous != null ? resolve(previous) : null;
+    }
+
+    // Journal replay: the same state changes as moveTo/goBack, without checks or output
+    void restoreMove(Room r) {
+        enter(r);
+    }
+
+    void restoreBack() {
+        currentRoom = resolve(moveHistory.pop());
+    }
+
+    // Moving straight back to the room we came from is the same as 'back', so
+    // A->B->A leaves A's history as it was rather than remembering B
+    private void enter(Room r) {
+        Room target = resolve(r);
+        Room previous = moveHistory.peek();
+        if (previous != null && resolve(previous) == target) {
+            moveHistory.pop();
+        } else {
+            moveHistory.push(currentRoom);
+        }
+        currentRoom = target;
+    }
+
+    public void setOverlay(WorldOverlay overlay) {
+        this.overlay = overlay;
+        this.currentRoom = resolve(currentRoom);
+    }
+
+    public WorldOverlay getOverlay() {
+        return overlay;
+    }
+
+    // The current room, switched to this session's own copy if it is shared.
+    // Call before changing anything in it.
+    public Room editCurrentRoom() {
+        if (overlay != null) {
+            currentRoom = overlay.writable(currentRoom);
         }
-        currentRoom = moveHistory.pop();
-        System.out.println("You went back to: " + currentRoom.getName());
+        return currentRoom;
+    }
+
+    // Rooms in the history or behind a door may have been copied since we last saw them
+    private Room resolve(Room r) {
+        return overlay != null ? overlay.resolve(r) : r;
     }
 
     public void pickUpItem(String name) {
-        Item item = currentRoom.findItem(name);
+        Item item = takeItem(name);
         if (item == null) {
-            System.out.println("No item called '" + name + "' in this room.");
+            out.println("No item called '" + name + "' in this room.");
             return;
         }
-        currentRoom.removeContent(item);
         item.collect(this);
     }
 
+    // Removes the named item from the current room and returns it, or null if
+    // it isn't there. In a cooperative game another player may get it first.
+    public Item takeItem(String name) {
+        if (currentRoom.findItem(name) == null) {
+            return null; // don't copy a shared room just to find nothing
+        }
+        return editCurrentRoom().takeItem(name);
+    }
+
     public void addToInventory(Item item) {
         inventory.add(item);
+        insertSorted(item);
+        itemIndex.putIfAbsent(item.getKey(), item);
+        if (item.getItemType() == ItemType.KEY) {
+            keyNames.add(item.getKey());
+        }
     }
 
     public boolean hasKey(String keyName) {
-        for (Item item : inventory) {
-            if (item.getItemType().equals("KEY") && item.getName().equalsIgnoreCase(keyName)) {
-                return true;
-            }
-        }
-        return false;
+        return keyNames.contains(keyName.toLowerCase(Locale.ROOT));
+    }
+
+    public Item findItem(String name) {
+        return itemIndex.get(name.toLowerCase(Locale.ROOT));
     }
 
     public Room getCurrentRoom() {
         return currentRoom;
     }
 
+    public OutputSink getOutput() {
+        return out;
+    }
+
+    public void setOutput(OutputSink out) {
+        this.out = out;
+    }
+
+    // Read-only for callers: use addToInventory so the key index and sorted view stay correct
     public ArrayList<Item> getInventory() {
         return inventory;
     }
 
+    public List<Item> getSortedInventory() {
+        return Collections.unmodifiableList(sortedInventory);
+    }
+
     public void showInventory() {
-        System.out.println("=== Inventory ===");
+        out.println("=== Inventory ===");
         if (inventory.isEmpty()) {
-            System.out.println("(empty)");
+            out.println("(empty)");
             return;
         }
-        // Sort inventory using insertion sort (as required)
-        sortInventory();
-        for (Item item : inventory) {
-            System.out.println("  - " + item.getName() + " [" + item.getItemType() + "] (value: " + item.getValue() + ")");
+        for (Item item : sortedInventory) {
+            out.println("  - " + item.getName() + " [" + item.getItemType() + "] (value: " + item.getValue() + ")");
         }
     }
 
-     //Insertion sort for ArrayList<Item> using Comparable
-    private void sortInventory() {
-        for (int i = 1; i < inventory.size(); i++) {
-            Item key = inventory.get(i);
-            int j = i - 1;
-            while (j >= 0 && inventory.get(j).compareTo(key) > 0) {
-                inventory.set(j + 1, inventory.get(j));
-                j--;
+    // One step of insertion sort per pickup: binary search for the slot after any
+    // equal items, so equal items stay in pickup order like the old full sort.
+    private void insertSorted(Item item) {
+        int low = 0;
+        int high = sortedInventory.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedInventory.get(mid).compareTo(item) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
-            inventory.set(j + 1, key);
         }
+        sortedInventory.add(low, item);
     }
 }
@@ -1,31 +1,67 @@
 public abstract class Puzzle extends GameComponent implements Comparable<Puzzle> {
-    protected int difficulty;
-    protected boolean solved;
-    protected Item reward; // What solving this puzzle unlocks (item name or room name)
+    // Everything about a puzzle but its progress: made once, and shared by
+    // every session's copy of the puzzle (see copy)
+    protected static class Definition {
+        final int difficulty;
+        final Item reward; // What solving this puzzle unlocks (item name or room name)
 
-    public Puzzle(String name, int difficulty, Item reward) {
+        Definition(int difficulty, Item reward) {
+            this.difficulty = difficulty;
+            this.reward = reward;
+        }
+    }
+
+    protected final Definition definition;
+    protected volatile boolean solved; // subclasses change it only while holding the puzzle's lock
+
+    protected Puzzle(String name, Definition definition) {
         super(name);
-        this.difficulty = difficulty;
+        this.definition = definition;
         this.solved = false;
-        this.reward = reward;
     }
 
-    public abstract boolean attemptSolve(String answer) throws InvalidPuzzleAnswerException;
+    // A copy with the original's definition and progress
+    protected Puzzle(Puzzle original) {
+        super(original.name, original.getKey());
+        this.definition = original.definition;
+        this.solved = original.solved;
+    }
+
+    // owner: whose attempts these are in the AttemptTable, a session or AttemptTable.SHARED
+    public abstract boolean attemptSolve(String answer, long owner, OutputSink out) throws InvalidPuzzleAnswerException;
+
+    public boolean attemptSolve(String answer, OutputSink out) throws InvalidPuzzleAnswerException {
+        return attemptSolve(answer, AttemptTable.SHARED, out);
+    }
+
+    public boolean attemptSolve(String answer) throws InvalidPuzzleAnswerException {
+        return attemptSolve(answer, ConsoleOutput.INSTANCE);
+    }
+
+    // Same puzzle with the same progress, for a session's copy of a shared room
+    abstract Puzzle copy();
+
+    // Journal replay: the state change of an attemptSolve call that returned `solved`
+    void restoreAttempt(boolean solved, long owner) {
+        if (solved) {
+            this.solved = true;
+        }
+    }
 
     public boolean isSolved() {
         return solved;
     }
 
     public int getDifficulty() {
-        return difficulty;
+        return definition.difficulty;
     }
 
     public Item getReward() {
-        return reward;
+        return definition.reward;
     }
 
     @Override
     public int compareTo(Puzzle other) {
-        return Integer.compare(this.difficulty, other.difficulty);
+        return Integer.compare(getDifficulty(), other.getDifficulty());
     }
 }
@@ -1,34 +1,51 @@
 public class RiddlePuzzle extends Puzzle {
-    private String riddle;
-    private String correctAnswer;
+    private static final class Riddle extends Definition {
+        final String text;
+        final long answerDigest; // AnswerDigest of the answer, case folded
+
+        Riddle(int difficulty, Item reward, String text, long answerDigest) {
+            super(difficulty, reward);
+            this.text = text;
+            this.answerDigest = answerDigest;
+        }
+    }
 
     public RiddlePuzzle(String name, int difficulty, Item reward, String riddle, String correctAnswer) {
-        super(name, difficulty, reward);
-        this.riddle = riddle;
-        this.correctAnswer = correctAnswer.toLowerCase();
+        super(name, new Riddle(difficulty, reward, riddle, AnswerDigest.of(correctAnswer, true)));
+    }
+
+    private RiddlePuzzle(RiddlePuzzle original) {
+        super(original);
+    }
+
+    @Override
+    synchronized Puzzle copy() {
+        return new RiddlePuzzle(this);
     }
 
     @Override
-    public void inspect() {
-        System.out.println("=== Riddle Puzzle: " + name + " ===");
-        System.out.println("Difficulty: " + difficulty);
-        System.out.println("Riddle: " + riddle);
+    public void inspect(OutputSink out) {
+        out.println("=== Riddle Puzzle: " + name + " ===");
+        out.println("Difficulty: " + getDifficulty());
+        out.println("Riddle: " + ((Riddle) definition).text);
         if (solved) {
-            System.out.println("(Already solved!)");
+            out.println("(Already solved!)");
         }
     }
 
     @Override
-    public boolean attemptSolve(String answer) throws InvalidPuzzleAnswerException {
+    // Synchronized so that when players race to answer, only one of them solves it.
+    // Riddles have no attempt limit, so the owner doesn't matter.
+    public synchronized boolean attemptSolve(String answer, long owner, OutputSink out) throws InvalidPuzzleAnswerException {
         if (solved) {
             throw new InvalidPuzzleAnswerException("This puzzle has already been solved!");
         }
         if (answer == null || answer.trim().isEmpty()) {
             throw new InvalidPuzzleAnswerException("Answer cannot be empty!");
         }
-        if (answer.toLowerCase().equals(correctAnswer)) {
+        if (AnswerDigest.of(answer, true) == ((Riddle) definition).answerDigest) {
             solved = true;
-            System.out.println("Correct! You solved the riddle!");
+            out.println("Correct! You solved the riddle!");
             return true;
         }
         return false;
@@ -1,17 +1,44 @@
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+// Safe to share between players on different threads (cooperative games): each
+// room guards its contents and indexes with its own monitor, so players in
+// different rooms never contend. RoomGraph is only notified after the room's
+// lock is released, which keeps the lock order graph -> room and deadlock-free.
 public class Room extends GameComponent {
     private ArrayList<GameComponent> contents; // items, puzzles, subrooms
     private ArrayList<Room> connectedRooms;
     private boolean isExit;
     private String requiredKey; // null if no key required
+    private int id = -1; // index in the world it came from, -1 for rooms built by hand
+    private boolean sessionCopy; // made by copyForSession, private to one session
+
+    // Case-insensitive name indexes, kept in step with contents and connectedRooms.
+    // Each maps to the first match in list order, same as the old linear scans.
+    private HashMap<String, GameComponent> componentIndex;
+    private HashMap<String, Item> itemIndex;
+    private HashMap<String, Puzzle> puzzleIndex;
+    private HashMap<String, Room> exitIndex;
+    private volatile RoomGraph graph; // told about changes so it can drop cached results
+    private Consumer<Room> loader; // fills in contents and exits on first use (MappedWorld)
+    private boolean loading; // loader running: nothing can have cached this room yet
+
+    // inspect() output, kept until contents or exits change. Exits show their lock,
+    // and any room's lock can change, so a lock change anywhere drops every view.
+    private static final AtomicInteger LOCK_CHANGES = new AtomicInteger();
+    private String[] view;
+    private int viewLocks;
+    private String[] puzzleLines; // the puzzle part of the view
 
     public Room(String name, boolean isExit) {
         super(name);
-        this.contents = new ArrayList<>();
-        this.connectedRooms = new ArrayList<>();
         this.isExit = isExit;
         this.requiredKey = null;
+        initContents();
     }
 
     public Room(String name, boolean isExit, String requiredKey) {
@@ -19,119 +46,284 @@ public class Room extends GameComponent {
         this.requiredKey = requiredKey;
     }
 
+    // With its lookup key (the lower-cased name) made elsewhere and shared
+    Room(String name, String key, boolean isExit, String requiredKey) {
+        super(name, key);
+        this.isExit = isExit;
+        this.requiredKey = requiredKey;
+        initContents();
+    }
+
+    private void initContents() {
+        this.contents = new ArrayList<>();
+        this.connectedRooms = new ArrayList<>();
+        this.componentIndex = new HashMap<>();
+        this.itemIndex = new HashMap<>();
+        this.puzzleIndex = new HashMap<>();
+        this.exitIndex = new HashMap<>();
+    }
+
     @Override
-    public void inspect() {
-        System.out.println("=== " + name + " ===");
-        if (isExit) {
-            System.out.println("*** This is the EXIT! ***");
+    public synchronized void inspect(OutputSink out) {
+        ensureLoaded();
+        int locks = LOCK_CHANGES.get();
+        if (view == null || viewLocks != locks) {
+            view = render();
+            viewLocks = locks;
         }
+        for (String line : view) {
+            out.println(line);
+        }
+    }
 
-        ArrayList<Puzzle> puzzlesInRoom = new ArrayList<>();
-        for (GameComponent gc : contents) {
-            if (gc instanceof Puzzle) {
-                puzzlesInRoom.add((Puzzle) gc);
-            }
+    // The lines inspect() prints, built from scratch
+    private String[] render() {
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add("=== " + name + " ===");
+        if (isExit) {
+            lines.add("*** This is the EXIT! ***");
         }
-        sortPuzzles(puzzlesInRoom);//sort by difficulty
-        System.out.println("Contents:");
+
+        lines.add("Contents:");
         if (contents.isEmpty()) {
-            System.out.println("  (empty)");
+            lines.add("  (empty)");
         } else {
             //print the sort by difficulty puzzle
-            for (Puzzle p : puzzlesInRoom)
-                System.out.println("  - "+p.getName()+" (Difficulty: " + p.getDifficulty() + ")");
+            if (puzzleLines == null) {
+                puzzleLines = renderPuzzles();
+            }
+            Collections.addAll(lines, puzzleLines);
             //print the component not puzzle
             for (GameComponent gc : contents) {
                 if (!(gc instanceof Puzzle)) {
-                    System.out.println("  - " + gc.getName());
+                    lines.add("  - " + gc.getName());
                 }
             }
         }
-        System.out.println("Connected rooms:");
+        lines.add("Connected rooms:");
         if (connectedRooms.isEmpty()) {
-            System.out.println("  (no connected room)");
+            lines.add("  (no connected room)");
         } else {
             for (Room r : connectedRooms) {
                 String lockInfo = r.requiredKey != null ? " [LOCKED - requires " + r.requiredKey + "]" : "";
-                System.out.println("  -> " + r.getName() + lockInfo);
+                lines.add("  -> " + r.getName() + lockInfo);
             }
         }
+        return lines.toArray(new String[0]);
     }
 
-    private void sortPuzzles(ArrayList<Puzzle> puzzles) {
-        for (int i = 1; i < puzzles.size(); i++) {
-            Puzzle key = puzzles.get(i);
-            int j = i - 1;
-            while (j >= 0 && puzzles.get(j).compareTo(key) > 0) {
-                puzzles.set(j + 1, puzzles.get(j));
-                j--;
+    // Puzzles by difficulty, ties in room order. Picking up items doesn't change
+    // this, so it is kept separately and survives most view rebuilds.
+    private String[] renderPuzzles() {
+        ArrayList<Puzzle> puzzlesInRoom = new ArrayList<>();
+        for (GameComponent gc : contents) {
+            if (gc instanceof Puzzle) {
+                puzzlesInRoom.add((Puzzle) gc);
             }
-            puzzles.set(j + 1, key);
         }
+        puzzlesInRoom.sort(null); // stable, like the insertion sort it replaces
+        String[] lines = new String[puzzlesInRoom.size()];
+        for (int i = 0; i < lines.length; i++) {
+            Puzzle p = puzzlesInRoom.get(i);
+            lines[i] = "  - " + p.getName() + " (Difficulty: " + p.getDifficulty() + ")";
+        }
+        return lines;
     }
 
 
-public void exploreRecursive(int depth) {
-    String indent = (depth == 0) ? "" : "  ".repeat(depth) + " - ";
-    System.out.println(indent + name);
-    for (Room connected : connectedRooms) {
-        connected.exploreRecursive(depth + 1);
+    // The map methods below keep their old names but now run on RoomGraph,
+    // which is iterative, handles loops and caches its results.
+    public void exploreRecursive(int depth) {
+        exploreRecursive(depth, ConsoleOutput.INSTANCE);
     }
-}
-
 
+    public void exploreRecursive(int depth, OutputSink out) {
+        out.print(RoomGraph.of(this).renderTree(this, depth));
+    }
 
     public boolean containsItemRecursive(String itemName) {
-        // Check current room contents
-        for (GameComponent gc : contents) {
-            if (gc instanceof Item && gc.getName().equalsIgnoreCase(itemName)) {
-                return true;
+        return RoomGraph.of(this).containsItem(this, itemName);
+    }
+
+    public int maxDepthRecursive() {
+        return RoomGraph.of(this).maxDepth(this);
+    }
+
+    // === HELPER METHODS ===
+
+    public void addContent(GameComponent gc) {
+        boolean notify;
+        synchronized (this) {
+            ensureLoaded();
+            contents.add(gc);
+            String key = gc.getKey();
+            componentIndex.putIfAbsent(key, gc);
+            if (gc instanceof Item) {
+                itemIndex.putIfAbsent(key, (Item) gc);
+            } else if (gc instanceof Puzzle) {
+                puzzleIndex.putIfAbsent(key, (Puzzle) gc);
+                puzzleLines = null;
             }
+            view = null;
+            notify = !loading;
         }
-        // Recurse into connected rooms
-        for (Room connected : connectedRooms) {
-            if (connected.containsItemRecursive(itemName)) {
-                return true;
+        if (notify) {
+            contentsChanged();
+        }
+    }
+
+    public void removeContent(GameComponent gc) {
+        synchronized (this) {
+            ensureLoaded();
+            if (!contents.remove(gc)) {
+                return;
+            }
+            view = null;
+            if (gc instanceof Puzzle) {
+                puzzleLines = null;
+            }
+            String key = gc.getKey();
+            if (componentIndex.get(key) == gc || itemIndex.get(key) == gc || puzzleIndex.get(key) == gc) {
+                reindex(key);
             }
         }
-        return false;
+        contentsChanged();
     }
 
+    // Finds and removes the named item in one step, so when players race for
+    // it exactly one of them gets it. Null if there is no such item (any more).
+    public Item takeItem(String itemName) {
+        Item item;
+        synchronized (this) {
+            ensureLoaded();
+            String key = key(itemName);
+            item = itemIndex.get(key);
+            if (item == null) {
+                return null;
+            }
+            contents.remove(item);
+            reindex(key);
+            view = null;
+        }
+        contentsChanged();
+        return item;
+    }
 
-    public int maxDepthRecursive() {
-        if (connectedRooms.isEmpty()) {
-            return 1;
+    public void addConnectedRoom(Room room) {
+        boolean notify;
+        synchronized (this) {
+            ensureLoaded();
+            connectedRooms.add(room);
+            exitIndex.putIfAbsent(room.getKey(), room);
+            view = null;
+            notify = !loading;
+        }
+        RoomGraph g = graph;
+        if (notify && g != null) {
+            g.structureChanged();
+        }
+    }
+
+    private void contentsChanged() {
+        RoomGraph g = graph;
+        if (g != null) {
+            g.contentsChanged();
         }
-        int maxChildDepth = 0;
-        for (Room connected : connectedRooms) {
-            int childDepth = connected.maxDepthRecursive();
-            if (childDepth > maxChildDepth) {
-                maxChildDepth = childDepth;
+    }
+
+    // Rebuilds the index entries for one name after the indexed component was removed
+    private void reindex(String key) {
+        componentIndex.remove(key);
+        itemIndex.remove(key);
+        puzzleIndex.remove(key);
+        for (GameComponent gc : contents) {
+            if (!gc.getKey().equals(key)) {
+                continue;
+            }
+            componentIndex.putIfAbsent(key, gc);
+            if (gc instanceof Item) {
+                itemIndex.putIfAbsent(key, (Item) gc);
+            } else if (gc instanceof Puzzle) {
+                puzzleIndex.putIfAbsent(key, (Puzzle) gc);
             }
         }
-        return 1 + maxChildDepth;
     }
 
-    // === HELPER METHODS ===
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
 
-    public void addContent(GameComponent gc) {
-        contents.add(gc);
+    // A copy, so callers can iterate while other players change the room
+    public synchronized ArrayList<GameComponent> getContents() {
+        ensureLoaded();
+        return new ArrayList<>(contents);
     }
 
-    public void removeContent(GameComponent gc) {
-        contents.remove(gc);
+    // Exits are fixed once the world is built (or the room is loaded), so this is the live list
+    public synchronized ArrayList<Room> getConnectedRooms() {
+        ensureLoaded();
+        return connectedRooms;
     }
 
-    public void addConnectedRoom(Room room) {
-        connectedRooms.add(room);
+    // Defers building this room's contents and exits until something looks at them
+    public synchronized void setLoader(Consumer<Room> loader) {
+        this.loader = loader;
     }
 
-    public ArrayList<GameComponent> getContents() {
-        return contents;
+    public synchronized boolean isLoaded() {
+        return loader == null;
     }
 
-    public ArrayList<Room> getConnectedRooms() {
-        return connectedRooms;
+    private void ensureLoaded() {
+        if (loader != null) {
+            Consumer<Room> l = loader;
+            loader = null; // the loader calls addContent/addConnectedRoom on us
+            loading = true; // and must not call into RoomGraph while we hold our lock
+            try {
+                l.accept(this);
+            } finally {
+                loading = false;
+            }
+        }
+    }
+
+    RoomGraph getGraph() {
+        return graph;
+    }
+
+    void setGraph(RoomGraph graph) {
+        this.graph = graph;
+    }
+
+    // A private copy for one session's WorldOverlay. Puzzles are copied since they
+    // hold progress; items, subrooms and exits are shared with the original.
+    synchronized Room copyForSession() {
+        ensureLoaded();
+        Room copy = new Room(name, getKey(), isExit, requiredKey);
+        copy.id = id;
+        copy.sessionCopy = true;
+        for (GameComponent gc : contents) {
+            copy.addContent(gc instanceof Puzzle ? ((Puzzle) gc).copy() : gc);
+        }
+        for (Room r : connectedRooms) {
+            copy.addConnectedRoom(r);
+        }
+        copy.view = view; // same names, difficulties and exits
+        copy.viewLocks = viewLocks;
+        copy.puzzleLines = puzzleLines;
+        return copy;
+    }
+
+    boolean isSessionCopy() {
+        return sessionCopy;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
     }
 
     public boolean isExit() {
@@ -144,32 +336,27 @@ public void exploreRecursive(int depth) {
 
     public void setRequiredKey(String requiredKey) {
         this.requiredKey = requiredKey;
+        LOCK_CHANGES.incrementAndGet();
     }
 
-    public Room getConnectedRoom(String roomName) {
-        for (Room r : connectedRooms) {
-            if (r.getName().equalsIgnoreCase(roomName)) {
-                return r;
-            }
-        }
-        return null;
+    public synchronized Room getConnectedRoom(String roomName) {
+        ensureLoaded();
+        return exitIndex.get(key(roomName));
     }
 
-    public Item findItem(String itemName) {
-        for (GameComponent gc : contents) {
-            if (gc instanceof Item && gc.getName().equalsIgnoreCase(itemName)) {
-                return (Item) gc;
-            }
-        }
-        return null;
+    public synchronized Item findItem(String itemName) {
+        ensureLoaded();
+        return itemIndex.get(key(itemName));
     }
 
-    public Puzzle findPuzzle(String puzzleName) {
-        for (GameComponent gc : contents) {
-            if (gc instanceof Puzzle && gc.getName().equalsIgnoreCase(puzzleName)) {
-                return (Puzzle) gc;
-            }
-        }
-        return null;
+    public synchronized Puzzle findPuzzle(String puzzleName) {
+        ensureLoaded();
+        return puzzleIndex.get(key(puzzleName));
+    }
+
+    // Any component in this room with the given name (item, puzzle or subroom)
+    public synchronized GameComponent findComponent(String name) {
+        ensureLoaded();
+        return componentIndex.get(key(name));
     }
 }
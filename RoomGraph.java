@@ -0,0 +1,215 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+
+// Iterative analysis of the room graph: traversal order, distances, depth and
+// where items are. Every search keeps a visited set, so loops and two-way doors
+// are fine. Results are cached per start room; Room tells its graph when
+// connections change (drop everything) or contents change (drop item locations).
+// Methods are synchronized because a WorldDefinition's shared rooms, and so
+// their graph, are read by every session's thread.
+public class RoomGraph {
+    private final HashMap<Room, Analysis> cache = new HashMap<>();
+    // Set before item locations are worked out, so a change that finds it clear
+    // has nothing to drop and can skip the lock every player would otherwise meet
+    private volatile boolean itemRoomsCached;
+
+    // Returns the graph the room already belongs to, or a new one rooted there
+    public static RoomGraph of(Room start) {
+        RoomGraph graph = start.getGraph();
+        return graph != null ? graph : new RoomGraph();
+    }
+
+    synchronized void structureChanged() {
+        cache.clear();
+    }
+
+    void contentsChanged() {
+        if (!itemRoomsCached) {
+            return;
+        }
+        synchronized (this) {
+            itemRoomsCached = false;
+            for (Analysis a : cache.values()) {
+                a.itemRooms = null;
+            }
+        }
+    }
+
+    // Rooms reachable from start, in breadth-first order (start first)
+    public synchronized List<Room> reachableRooms(Room start) {
+        Analysis a = analysis(start);
+        List<Room> rooms = new ArrayList<>(a.bfsOrder.length);
+        for (Room r : a.bfsOrder) {
+            rooms.add(r);
+        }
+        return rooms;
+    }
+
+    public synchronized boolean isReachable(Room start, Room target) {
+        return analysis(start).index.containsKey(target);
+    }
+
+    // Fewest moves from start to target, or -1 if target can't be reached
+    public synchronized int distance(Room start, Room target) {
+        Analysis a = analysis(start);
+        Integer i = a.index.get(target);
+        return i == null ? -1 : a.distance[i];
+    }
+
+    // Rooms on the longest shortest path from start, counting start itself.
+    // On a tree-shaped map this is the same as the longest root-to-leaf path.
+    public synchronized int maxDepth(Room start) {
+        return analysis(start).maxDepth;
+    }
+
+    public synchronized boolean containsItem(Room start, String itemName) {
+        return findItemRoom(start, itemName) != null;
+    }
+
+    // Nearest reachable room (breadth-first) holding an item with this name
+    public synchronized Room findItemRoom(Room start, String itemName) {
+        Analysis a = analysis(start);
+        if (a.itemRooms == null) {
+            itemRoomsCached = true;
+            a.itemRooms = new HashMap<>();
+            for (Room r : a.bfsOrder) {
+                for (GameComponent gc : r.getContents()) {
+                    if (gc instanceof Item) {
+                        a.itemRooms.putIfAbsent(gc.getKey(), r);
+                    }
+                }
+            }
+        }
+        return a.itemRooms.get(itemName.toLowerCase(Locale.ROOT));
+    }
+
+    // Listing of the map, each room once, indented by its distance from start.
+    // Same layout and order as the old exploreRecursive on a tree-shaped map.
+    public synchronized String renderTree(Room start, int baseDepth) {
+        Analysis a = analysis(start);
+        if (baseDepth == 0 && a.tree != null) {
+            return a.tree;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < a.dfsOrder.length; i++) {
+            int depth = a.dfsDepth[i] + baseDepth;
+            if (depth > 0) {
+                sb.append("  ".repeat(depth)).append(" - ");
+            }
+            sb.append(a.dfsOrder[i].getName()).append('\n');
+        }
+        String tree = sb.toString();
+        if (baseDepth == 0 && a.cacheable) {
+            a.tree = tree;
+        }
+        return tree;
+    }
+
+    private Analysis analysis(Room start) {
+        Analysis a = cache.get(start);
+        if (a == null) {
+            a = analyse(start);
+            if (a.cacheable) {
+                cache.put(start, a);
+            }
+        }
+        return a;
+    }
+
+    private Analysis analyse(Room start) {
+        Analysis a = new Analysis();
+        boolean cacheable = true;
+
+        // Breadth-first: order, distances, depth
+        IdentityHashMap<Room, Integer> index = new IdentityHashMap<>();
+        ArrayList<Room> order = new ArrayList<>();
+        int[] dist = new int[16];
+        int[] parent = new int[16];
+        index.put(start, 0);
+        order.add(start);
+        int maxDistance = 0;
+        // order doubles as the queue: rooms are appended in the order they are found
+        for (int head = 0; head < order.size(); head++) {
+            Room room = order.get(head);
+            cacheable &= claim(room);
+            int d = dist[head];
+            for (Room next : room.getConnectedRooms()) {
+                if (index.putIfAbsent(next, order.size()) == null) {
+                    if (order.size() == dist.length) {
+                        dist = Arrays.copyOf(dist, dist.length * 2);
+                        parent = Arrays.copyOf(parent, parent.length * 2);
+                    }
+                    dist[order.size()] = d + 1;
+                    parent[order.size()] = head;
+                    order.add(next);
+                    maxDistance = Math.max(maxDistance, d + 1);
+                }
+            }
+        }
+        a.index = index;
+        a.bfsOrder = order.toArray(new Room[0]);
+        a.distance = Arrays.copyOf(dist, order.size());
+        a.maxDepth = maxDistance + 1;
+
+        // Depth-first preorder over the breadth-first tree, so each room sits under
+        // the room it is first reached from and is indented by its distance.
+        // On a tree-shaped map this is exactly the old recursive listing.
+        int n = a.bfsOrder.length;
+        int[] childStart = new int[n + 1];
+        for (int i = 1; i < n; i++) {
+            childStart[parent[i] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            childStart[i + 1] += childStart[i];
+        }
+        int[] children = new int[Math.max(0, n - 1)];
+        int[] fill = Arrays.copyOf(childStart, n);
+        for (int i = 1; i < n; i++) {
+            children[fill[parent[i]]++] = i; // i rises in discovery order, so siblings keep exit order
+        }
+        a.dfsOrder = new Room[n];
+        a.dfsDepth = new int[n];
+        int[] stack = new int[n];
+        int top = 0;
+        int count = 0;
+        stack[0] = 0;
+        while (top >= 0) {
+            int i = stack[top--];
+            a.dfsOrder[count] = a.bfsOrder[i];
+            a.dfsDepth[count++] = a.distance[i];
+            for (int c = childStart[i + 1] - 1; c >= childStart[i]; c--) {
+                stack[++top] = children[c];
+            }
+        }
+
+        a.cacheable = cacheable;
+        return a;
+    }
+
+    // A room reports changes to one graph only. If it already belongs to another
+    // graph we can't hear about its changes, so results through it aren't cached.
+    private boolean claim(Room room) {
+        RoomGraph owner = room.getGraph();
+        if (owner == null) {
+            room.setGraph(this);
+            return true;
+        }
+        return owner == this;
+    }
+
+    private static final class Analysis {
+        IdentityHashMap<Room, Integer> index;
+        Room[] bfsOrder;
+        int[] distance;
+        int maxDepth;
+        Room[] dfsOrder;
+        int[] dfsDepth;
+        HashMap<String, Room> itemRooms; // lower-cased item name -> room, built on demand
+        String tree;
+        boolean cacheable;
+    }
+}
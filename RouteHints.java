@@ -0,0 +1,612 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Hints that know the way out. Built once per world from its definition: which
+// keys the exit really depends on, where each one is (on the floor or as a
+// puzzle's reward), and a walk from the start room that collects them in a
+// workable order and ends at the exit. The walk goes for the nearest key on the
+// way out; if that leaves it with nowhere to go, because the way out needs keys
+// from another route, the rest of it comes from a breadth-first search over
+// (room, keys held) states instead. Keys match without case, as in Player.
+// A hint for a player is then a few array reads: the first key of the walk
+// they don't hold yet says how far along they are, and the walk itself gives
+// the next room and the distance. A player who has left the walk is pointed at
+// the same step's goal by the shortest way through doors the keys so far open:
+// a table per step, by room, worked out backwards from the goal the first time
+// anyone strays at that step.
+// Immutable once built (bar those tables), shared by every session of the world.
+public final class RouteHints {
+    private static final int MAX_PLAN_STATES = 1 << 18; // for keyedWalk, a few tens of megabytes
+
+    private final String[] roomNames;
+    private final int[] route;          // rooms of the walk, start room first
+    private final boolean[] backTo;     // route position reached with 'back' rather than a door
+    private final int[] trailBelow;     // per route position: position of the room 'back' goes to, -1 if none
+    private final int[] trailDepth;     // per route position: rooms in the walker's trail, its own included
+    private final int[] lowToGoal;      // per route position: least trailDepth from there to the next goal
+    private final int[] goalAt;         // per step: route position where the step is done
+    private final String[] stepKey;     // per step: key picked up there, null for the exit
+    private final String[] stepPuzzle;  // per step: puzzle whose reward is the key, or null
+    private final int[][] visits;       // room id -> its route positions, ascending; null if off the route
+    private final String[] requiredKey; // by room id, lower-cased
+    private final int[] doorsInto;      // rooms with a door into r: doorsFrom[doorsInto[r]] up to doorsInto[r + 1]
+    private final int[] doorsFrom;
+    private final AtomicReferenceArray<Toward> toward; // per step, built on first use
+
+    public RouteHints(WorldDefinition world) {
+        int n = world.getRoomCount();
+        roomNames = new String[n];
+        requiredKey = new String[n];
+        doorsInto = new int[n + 1];
+        int exit = -1;
+        HashMap<String, Integer> keyRoom = new HashMap<>(); // by lower-cased key
+        HashMap<String, String> keyName = new HashMap<>();
+        HashMap<String, String> keyPuzzle = new HashMap<>();
+        String[][] roomKeys = new String[n][];      // lower-cased keys to be had in each room
+        String[][] roomKeyPuzzles = new String[n][]; // the puzzle that gives each, or null
+        ArrayList<String> found = new ArrayList<>();
+        ArrayList<String> foundBy = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            WorldDefinition.RoomDef def = world.getRoom(i);
+            roomNames[i] = def.getName();
+            requiredKey[i] = fold(def.getRequiredKey());
+            for (int e = 0; e < def.getExitCount(); e++) {
+                doorsInto[def.getExit(e) + 1]++;
+            }
+            if (def.isExit() && exit < 0) {
+                exit = i;
+            }
+            found.clear();
+            foundBy.clear();
+            for (WorldDefinition.ComponentDef c : def.getContents()) {
+                WorldDefinition.ItemDef key = null;
+                String puzzle = null;
+                if (c instanceof WorldDefinition.ItemDef) {
+                    key = (WorldDefinition.ItemDef) c;
+                } else if (c instanceof WorldDefinition.PuzzleDef) {
+                    key = ((WorldDefinition.PuzzleDef) c).getReward();
+                    puzzle = c.getName();
+                }
+                if (key == null || key.getItemType() != ItemType.KEY) {
+                    continue;
+                }
+                String k = fold(key.getName());
+                found.add(k);
+                foundBy.add(puzzle);
+                if (!keyRoom.containsKey(k)) {
+                    keyRoom.put(k, i);
+                    keyName.put(k, key.getName());
+                    if (puzzle != null) {
+                        keyPuzzle.put(k, puzzle);
+                    }
+                }
+            }
+            roomKeys[i] = found.toArray(new String[0]);
+            roomKeyPuzzles[i] = foundBy.toArray(new String[0]);
+        }
+
+        for (int i = 0; i < n; i++) {
+            doorsInto[i + 1] += doorsInto[i];
+        }
+        doorsFrom = new int[doorsInto[n]];
+        int[] filled = Arrays.copyOf(doorsInto, n);
+        for (int i = 0; i < n; i++) {
+            WorldDefinition.RoomDef def = world.getRoom(i);
+            for (int e = 0; e < def.getExitCount(); e++) {
+                doorsFrom[filled[def.getExit(e)]++] = i;
+            }
+        }
+
+        Search search = new Search(world);
+        ArrayList<String> keys = new ArrayList<>();    // lower-cased
+        ArrayList<String> puzzles = new ArrayList<>();
+        ArrayList<Integer> goals = new ArrayList<>();
+        int[] walk = new int[16];
+        boolean[] back = new boolean[16];
+        int length = 0;
+        if (exit >= 0) {
+            HashMap<Integer, List<String>> neededAt = neededKeys(world, search, exit, keyRoom);
+            HashSet<String> held = new HashSet<>();
+            // The walker's move history plus the room they're in, like Player's:
+            // any of the last Player.HISTORY_DEPTH rooms in it can be gone back
+            // to, one room per 'back'
+            int[] trail = new int[16];
+            int depth = 0;
+            int first = 0; // trail rooms below this one have been forgotten
+            trail[depth++] = world.getStartRoom();
+            walk[length++] = world.getStartRoom();
+            while (true) {
+                // Nearest useful thing from here, going back first if that's shorter:
+                // the exit, or a needed key
+                search.run(trail, first, depth, held);
+                int target = -1;
+                String key = null;
+                if (search.reached(exit)) {
+                    target = exit;
+                } else {
+                    for (int i = 0; i < search.count && target < 0; i++) {
+                        List<String> here = neededAt.get(search.order[i]);
+                        if (here == null) {
+                            continue;
+                        }
+                        for (String k : here) {
+                            if (!held.contains(k)) {
+                                target = search.order[i];
+                                key = k;
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (target < 0) {
+                    // Stuck: the keys left on the shortest way out can't be had from
+                    // here. Search the rest of the way by the keys it takes.
+                    int[] rest = keyedWalk(world, walk[length - 1], held, exit, roomKeys);
+                    if (rest == null) {
+                        break; // no route to the exit from the start
+                    }
+                    walk = Arrays.copyOf(walk, length + rest.length - 1);
+                    back = Arrays.copyOf(back, walk.length);
+                    for (int p = 0; p < rest.length; p++) {
+                        int room = rest[p];
+                        if (p > 0) {
+                            walk[length++] = room;
+                        }
+                        for (int i = 0; i < roomKeys[room].length; i++) {
+                            String k = roomKeys[room][i];
+                            if (!held.contains(k) && opensLater(rest, p, k)) {
+                                held.add(k);
+                                keys.add(k);
+                                puzzles.add(roomKeyPuzzles[room][i]);
+                                goals.add(length - 1);
+                            }
+                        }
+                    }
+                    keys.add(null);
+                    puzzles.add(null);
+                    goals.add(length - 1);
+                    break;
+                }
+
+                // Back down the trail to where the forward path starts, then walk it
+                int forward = 0;
+                int r = target;
+                for (; search.parent[r] >= 0; r = search.parent[r]) {
+                    forward++;
+                }
+                int from = -1 - search.parent[r]; // trail index the path leaves from
+                int steps = depth - 1 - from + forward;
+                if (length + steps > walk.length) {
+                    walk = Arrays.copyOf(walk, Math.max(length + steps, walk.length * 2));
+                    back = Arrays.copyOf(back, walk.length);
+                }
+                while (depth - 1 > from) {
+                    depth--;
+                    walk[length] = trail[depth - 1];
+                    back[length++] = true;
+                }
+                if (depth + forward > trail.length) {
+                    trail = Arrays.copyOf(trail, Math.max(depth + forward, trail.length * 2));
+                }
+                r = target;
+                for (int i = forward - 1; i >= 0; i--, r = search.parent[r]) {
+                    walk[length + i] = r;
+                    trail[depth + i] = r;
+                }
+                length += forward;
+                depth += forward;
+                first = Math.max(first, depth - 1 - Player.HISTORY_DEPTH);
+
+                keys.add(key);
+                puzzles.add(key != null ? keyPuzzle.get(key) : null);
+                goals.add(length - 1);
+                if (key == null) {
+                    break;
+                }
+                held.add(key);
+            }
+        }
+
+        route = Arrays.copyOf(walk, length);
+        backTo = Arrays.copyOf(back, length);
+        int steps = keys.size();
+        toward = new AtomicReferenceArray<>(steps);
+        goalAt = new int[steps];
+        stepKey = new String[steps];
+        stepPuzzle = puzzles.toArray(new String[0]);
+        for (int s = 0; s < steps; s++) {
+            goalAt[s] = goals.get(s);
+            if (keys.get(s) != null) {
+                stepKey[s] = keyName.get(keys.get(s));
+            }
+        }
+        // The walker's trail at each position, as the positions its rooms were reached at
+        trailBelow = new int[length];
+        trailDepth = new int[length];
+        int[] trail = new int[length];
+        int top = -1;
+        for (int p = 0; p < length; p++) {
+            if (backTo[p]) {
+                top--;
+                trailBelow[p] = trailBelow[trail[top]];
+            } else {
+                trailBelow[p] = top >= 0 ? trail[top] : -1;
+                top++;
+            }
+            trail[top] = p;
+            trailDepth[p] = top + 1;
+        }
+        boolean[] isGoal = new boolean[length];
+        for (int g : goalAt) {
+            isGoal[g] = true;
+        }
+        lowToGoal = new int[length];
+        for (int p = length - 1; p >= 0; p--) {
+            lowToGoal[p] = isGoal[p] || p == length - 1 ? trailDepth[p] : Math.min(trailDepth[p], lowToGoal[p + 1]);
+        }
+        int[] visitCount = new int[n];
+        for (int r : route) {
+            visitCount[r]++;
+        }
+        visits = new int[n][];
+        for (int p = 0; p < route.length; p++) {
+            int r = route[p];
+            if (visits[r] == null) {
+                visits[r] = new int[visitCount[r]];
+                visitCount[r] = 0;
+            }
+            visits[r][visitCount[r]++] = p;
+        }
+    }
+
+    // Keys on the shortest way to the exit ignoring locks, then the keys on the
+    // way to each of those keys, and so on. By room the key is found in.
+    private static HashMap<Integer, List<String>> neededKeys(WorldDefinition world, Search search, int exit,
+                                                            HashMap<String, Integer> keyRoom) {
+        search.run(new int[] {world.getStartRoom()}, 0, 1, null);
+        HashMap<Integer, List<String>> neededAt = new HashMap<>();
+        HashSet<String> needed = new HashSet<>();
+        ArrayList<Integer> targets = new ArrayList<>();
+        targets.add(exit);
+        for (int t = 0; t < targets.size(); t++) {
+            int target = targets.get(t);
+            if (!search.reached(target)) {
+                continue;
+            }
+            for (int r = target; r != world.getStartRoom(); r = search.parent[r]) {
+                String key = fold(world.getRoom(r).getRequiredKey());
+                Integer found = key != null ? keyRoom.get(key) : null;
+                if (found != null && needed.add(key)) {
+                    neededAt.computeIfAbsent(found, x -> new ArrayList<>(1)).add(key);
+                    targets.add(found);
+                }
+            }
+        }
+        return neededAt;
+    }
+
+    // The rest of the way from `from` to the exit, `from` first, picking up
+    // every key to be had in a room on the way in: a breadth-first search over
+    // (room, keys held) states, as WorldVerifier does but with neither 'back'
+    // nor turns. Only keys some door needs are told apart. Null if there is no
+    // way, or none within MAX_PLAN_STATES states.
+    private int[] keyedWalk(WorldDefinition world, int from, HashSet<String> held, int exit, String[][] roomKeys) {
+        HashMap<String, Integer> keyIds = new HashMap<>();
+        for (String k : requiredKey) {
+            if (k != null && !keyIds.containsKey(k)) {
+                keyIds.put(k, keyIds.size());
+            }
+        }
+        int words = 1 + (keyIds.size() + 63) / 64; // the room, then a bit per key
+        long[][] keysIn = new long[roomKeys.length][];
+        for (int r = 0; r < roomKeys.length; r++) {
+            keysIn[r] = new long[words];
+            for (String k : roomKeys[r]) {
+                Integer id = keyIds.get(k);
+                if (id != null) {
+                    keysIn[r][1 + id / 64] |= 1L << id;
+                }
+            }
+        }
+
+        ArrayList<PlanState> states = new ArrayList<>();
+        HashMap<PlanState, Integer> seen = new HashMap<>();
+        long[] start = keysIn[from].clone();
+        start[0] = from;
+        for (String k : held) {
+            Integer id = keyIds.get(k);
+            if (id != null) {
+                start[1 + id / 64] |= 1L << id;
+            }
+        }
+        states.add(new PlanState(start, -1));
+        seen.put(states.get(0), 0);
+        for (int head = 0; head < states.size() && states.size() < MAX_PLAN_STATES; head++) {
+            long[] state = states.get(head).words;
+            WorldDefinition.RoomDef room = world.getRoom((int) state[0]);
+            for (int e = 0; e < room.getExitCount(); e++) {
+                int next = room.getExit(e);
+                if (requiredKey[next] != null) {
+                    int id = keyIds.get(requiredKey[next]);
+                    if ((state[1 + id / 64] & (1L << id)) == 0) {
+                        continue;
+                    }
+                }
+                long[] to = new long[words];
+                to[0] = next;
+                for (int w = 1; w < words; w++) {
+                    to[w] = state[w] | keysIn[next][w];
+                }
+                PlanState reached = new PlanState(to, head);
+                if (seen.putIfAbsent(reached, states.size()) != null) {
+                    continue;
+                }
+                states.add(reached);
+                if (next == exit) {
+                    int steps = 0;
+                    for (PlanState p = reached; p.parent >= 0; p = states.get(p.parent)) {
+                        steps++;
+                    }
+                    int[] path = new int[steps + 1];
+                    PlanState p = reached;
+                    for (int i = steps; i > 0; i--, p = states.get(p.parent)) {
+                        path[i] = (int) p.words[0];
+                    }
+                    path[0] = from;
+                    return path;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Whether a room after position p of the path needs key k
+    private boolean opensLater(int[] path, int p, String k) {
+        for (int q = p + 1; q < path.length; q++) {
+            if (k.equals(requiredKey[path[q]])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String fold(String key) {
+        return key != null ? key.toLowerCase(Locale.ROOT) : null;
+    }
+
+    // One line of advice for the player standing in `room`, or null if there is
+    // nothing useful to say (no way out, or not a room of this world)
+    public String hint(int room, Player player) {
+        if (room < 0 || room >= visits.length) {
+            return null;
+        }
+        int step = 0;
+        while (step < stepKey.length && stepKey[step] != null && player.hasKey(stepKey[step])) {
+            step++;
+        }
+        if (step == stepKey.length) {
+            return null;
+        }
+        // Walking on from any earlier point of the walk only needs keys already held
+        int goal = goalAt[step];
+        int at = -1;
+        int[] positions = visits[room];
+        if (positions != null) {
+            for (int p : positions) {
+                if (p > goal) {
+                    break;
+                }
+                at = p;
+            }
+        }
+        if (at >= 0 && at < goal && !backFollowsWalk(at, step, player)) {
+            at = -1; // came here another way, so 'back' wouldn't follow the walk
+        }
+        if (at < 0) {
+            Toward t = toward(step);
+            if (t.distance[room] < 0) {
+                // No doors lead on from here with these keys: only 'back' does
+                return "Hint: You have wandered off the way out. Try going back.";
+            }
+            return stepHint(step, t.distance[room], " Head for " + roomNames[t.next[room]] + ".");
+        }
+
+        String key = stepKey[step];
+        String puzzle = stepPuzzle[step];
+        if (at == goal) {
+            if (key == null) {
+                return null;
+            }
+            return puzzle != null ? "Hint: Solve " + puzzle + " here to get the " + key + "."
+                    : "Hint: The " + key + " is right here. Pick it up.";
+        }
+        String next = (backTo[at + 1] ? " Go back to " : " Head for ") + roomNames[route[at + 1]] + ".";
+        return stepHint(step, goal - at, next);
+    }
+
+    // Whether the rooms the walk goes back to between position `at` and the
+    // step's goal are the ones the player's own 'back' goes to
+    private boolean backFollowsWalk(int at, int step, Player player) {
+        int goal = goalAt[step];
+        int low = lowToGoal[at];
+        for (int t = 0; t < step; t++) {
+            if (goalAt[t] >= at && goalAt[t] < goal) {
+                low = Math.min(low, lowToGoal[goalAt[t] + 1]);
+            }
+        }
+        int p = at;
+        for (int back = 1; back <= trailDepth[at] - low; back++) {
+            p = trailBelow[p];
+            Room previous = player.getPreviousRoom(back);
+            if (previous == null || previous.getId() != route[p]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String stepHint(int step, int away, String next) {
+        String key = stepKey[step];
+        String puzzle = stepPuzzle[step];
+        String distance = away + (away == 1 ? " room" : " rooms") + " away";
+        if (key == null) {
+            return "Hint: The exit is " + distance + "." + next;
+        }
+        return "Hint: The " + key + " is in " + roomNames[route[goalAt[step]]] + ", " + distance
+                + (puzzle != null ? " (solve " + puzzle + ")." : ".") + next;
+    }
+
+    // Threads that stray at the same time may each build the table; the first one in is kept
+    private Toward toward(int step) {
+        Toward t = toward.get(step);
+        if (t == null) {
+            t = new Toward(step);
+            if (!toward.compareAndSet(step, null, t)) {
+                t = toward.get(step);
+            }
+        }
+        return t;
+    }
+
+    // The shortest way to a step's goal from every room, through doors opened
+    // by the keys of the steps before it: a breadth-first search backwards
+    // along the doors, from the goal
+    private final class Toward {
+        final int[] next;     // room to head for; -1 where the goal can't be reached
+        final int[] distance; // doors to go through; -1 where the goal can't be reached
+
+        Toward(int step) {
+            HashSet<String> held = new HashSet<>();
+            for (int s = 0; s < step; s++) {
+                held.add(fold(stepKey[s]));
+            }
+            int n = roomNames.length;
+            int[] next = new int[n];
+            int[] distance = new int[n];
+            Arrays.fill(next, -1);
+            Arrays.fill(distance, -1);
+            int[] queue = new int[n];
+            int goal = route[goalAt[step]];
+            distance[goal] = 0;
+            queue[0] = goal;
+            int count = 1;
+            for (int head = 0; head < count; head++) {
+                int to = queue[head];
+                if (requiredKey[to] != null && !held.contains(requiredKey[to])) {
+                    continue; // can't be entered yet, so no way through it
+                }
+                for (int d = doorsInto[to]; d < doorsInto[to + 1]; d++) {
+                    int from = doorsFrom[d];
+                    if (distance[from] < 0) {
+                        distance[from] = distance[to] + 1;
+                        next[from] = to;
+                        queue[count++] = from;
+                    }
+                }
+            }
+            this.next = next;
+            this.distance = distance;
+        }
+    }
+
+    // Rooms the walk passes through, start and exit included
+    public int getRouteLength() {
+        return route.length;
+    }
+
+    // Keys collected along the walk
+    public int getKeyCount() {
+        return Math.max(0, stepKey.length - 1);
+    }
+
+    // A room and the keys held in it, for keyedWalk
+    private static final class PlanState {
+        final long[] words;
+        final int parent; // index of the state it was reached from, -1 for the first
+
+        PlanState(long[] words, int parent) {
+            this.words = words;
+            this.parent = parent;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PlanState && Arrays.equals(words, ((PlanState) o).words);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(words);
+        }
+    }
+
+    // Breadth-first search over room ids, with arrays reused between runs
+    private static final class Search {
+        private final WorldDefinition world;
+        final int[] parent; // room the search came from, or -1 - trail index for rooms on the trail
+        final int[] order;  // rooms in the order they were reached
+        int count;
+        private final int[] distance;
+        private final int[] seen;
+        private int stamp;
+
+        Search(WorldDefinition world) {
+            this.world = world;
+            int n = world.getRoomCount();
+            this.parent = new int[n];
+            this.order = new int[n];
+            this.distance = new int[n];
+            this.seen = new int[n];
+        }
+
+        // Starts in trail[depth - 1]; trail[i] is depth - 1 - i steps away by going back,
+        // for i from first up. Only enters locked rooms whose key is in held;
+        // held == null ignores locks.
+        void run(int[] trail, int first, int depth, HashSet<String> held) {
+            stamp++;
+            count = 0;
+            int nextTrail = depth - 1;
+            for (int head = 0; ; head++) {
+                // Trail rooms join the queue as their distance comes up, so it stays in distance order
+                while (nextTrail >= first && (head == count || depth - 1 - nextTrail <= distance[order[head]] + 1)) {
+                    int room = trail[nextTrail];
+                    if (seen[room] != stamp) {
+                        seen[room] = stamp;
+                        parent[room] = -1 - nextTrail;
+                        distance[room] = depth - 1 - nextTrail;
+                        order[count++] = room;
+                    }
+                    nextTrail--;
+                }
+                if (head == count) {
+                    return;
+                }
+                int from = order[head];
+                WorldDefinition.RoomDef room = world.getRoom(from);
+                for (int e = 0; e < room.getExitCount(); e++) {
+                    int next = room.getExit(e);
+                    if (seen[next] == stamp) {
+                        continue;
+                    }
+                    String key = fold(world.getRoom(next).getRequiredKey());
+                    if (held != null && key != null && !held.contains(key)) {
+                        continue;
+                    }
+                    seen[next] = stamp;
+                    parent[next] = from;
+                    distance[next] = distance[from] + 1;
+                    order[count++] = next;
+                }
+            }
+        }
+
+        boolean reached(int room) {
+            return seen[room] == stamp;
+        }
+    }
+}
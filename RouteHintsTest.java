@@ -0,0 +1,101 @@
+import java.util.HashMap;
+import java.util.Map;
+
+// Checks that RouteHints leads a player out of a world where going for the
+// keys on the shortest way out gets nowhere. The shortest way is through the
+// Armory, whose RedKey lies behind a door no key opens; the only way out is the
+// long way round, with a key whose door spells it differently from the item.
+// Follows the hints from the start room and expects to reach the exit.
+// Usage: java RouteHintsTest
+public class RouteHintsTest {
+    private static final int MAX_MOVES = 50;
+
+    public static void main(String[] args) throws Exception {
+        WorldDefinition.Builder b = new WorldDefinition.Builder();
+        int start = b.addRoom("Start", false);
+        int armory = b.addRoom("Armory", false, "RedKey");
+        int exit = b.addRoom("Exit", true, "ExitKey");
+        int gate = b.addRoom("Gate", false, "GreenKey"); // no GreenKey anywhere
+        int vault = b.addRoom("Vault", false);
+        int hall = b.addRoom("Hall", false);
+        int corridor = b.addRoom("Corridor", false);
+        int cellar = b.addRoom("Cellar", false, "BlueKey");
+        int study = b.addRoom("Study", false);
+        b.connect(start, armory).connect(armory, exit).connect(armory, study);
+        b.connect(start, gate).connect(gate, vault);
+        b.connect(start, hall).connect(hall, corridor).connect(corridor, cellar).connect(cellar, study);
+        b.connect(study, exit);
+        b.addItem(vault, "RedKey", 10, ItemType.KEY, "Out of reach.");
+        b.addItem(hall, "bluekey", 10, ItemType.KEY, "Opens the cellar.");
+        b.addRiddlePuzzle(study, "Owl", 1, new WorldDefinition.ItemDef("ExitKey", 10, ItemType.KEY, "The way out."),
+                "What gets wetter the more it dries?", "towel");
+        b.setStartRoom(start);
+        WorldDefinition world = b.build();
+
+        Map<String, String> answers = new HashMap<>();
+        for (WorldDefinition.RoomDef room : world.getRooms()) {
+            for (WorldDefinition.ComponentDef c : room.getContents()) {
+                if (c instanceof WorldDefinition.PuzzleDef) {
+                    answers.put(c.getName(), ((WorldDefinition.PuzzleDef) c).getAnswer());
+                }
+            }
+        }
+        RouteHints hints = world.routeHints();
+        Room[] rooms = world.instantiate();
+        Player player = new Player(rooms[world.getStartRoom()], DiscardOutput.INSTANCE);
+        String problem = null;
+        int moves = 0;
+        while (problem == null && !player.getCurrentRoom().isExit()) {
+            String hint = hints.hint(player.getCurrentRoom().getId(), player);
+            System.out.println(player.getCurrentRoom().getName() + ": " + hint);
+            if (hint == null) {
+                problem = "no hint in " + player.getCurrentRoom().getName();
+            } else if (moves++ == MAX_MOVES) {
+                problem = "still not out after " + MAX_MOVES + " hints";
+            } else {
+                problem = follow(hint, player, answers);
+            }
+        }
+
+        System.out.println("Walk:        " + hints.getRouteLength() + " rooms, " + hints.getKeyCount() + " keys");
+        System.out.println(problem == null ? "OK: the hints led out the long way round" : "Failed: " + problem);
+        if (problem != null) {
+            System.exit(1);
+        }
+    }
+
+    // Does what the hint says; returns what went wrong, or null
+    private static String follow(String hint, Player player, Map<String, String> answers) throws Exception {
+        int at;
+        if (hint.contains("Try going back")) {
+            return player.goBack() ? null : "nowhere to go back to";
+        }
+        if ((at = hint.indexOf("Go back to ")) >= 0) {
+            String to = hint.substring(at + 11, hint.length() - 1);
+            player.goBack();
+            return player.getCurrentRoom().getName().equals(to) ? null : "went back to " + player.getCurrentRoom().getName();
+        }
+        if ((at = hint.indexOf("Head for ")) >= 0) {
+            Room to = player.getCurrentRoom().getConnectedRoom(hint.substring(at + 9, hint.length() - 1));
+            if (to == null) {
+                return "no door for: " + hint;
+            }
+            player.moveTo(to);
+            return null;
+        }
+        if (hint.startsWith("Hint: Solve ")) {
+            String name = hint.substring(12, hint.indexOf(" here"));
+            Puzzle puzzle = player.getCurrentRoom().findPuzzle(name);
+            if (!puzzle.attemptSolve(answers.get(name), DiscardOutput.INSTANCE)) {
+                return "couldn't solve " + name;
+            }
+            player.addToInventory(puzzle.getReward());
+            return null;
+        }
+        if (hint.contains("Pick it up")) {
+            player.pickUpItem(hint.substring(10, hint.indexOf(" is right")));
+            return null;
+        }
+        return "can't follow: " + hint;
+    }
+}
@@ -0,0 +1,115 @@
+import java.nio.ByteBuffer;
+
+// The state changes one turn made, encoded compactly for the Journal: a type
+// byte per event followed by its arguments as unsigned varints. Rooms are
+// world room ids and components are ids in the world's NameTable, so a typical
+// event is 2-4 bytes. One per engine, reused every turn.
+public class SessionEvents {
+    public static final byte MOVE = 1;     // room: player walked through a door
+    public static final byte BACK = 2;     // player went back one room
+    public static final byte PICKUP = 3;   // room, name: item moved from the room to the inventory
+    public static final byte ATTEMPT = 4;  // room, name, solved: attemptSolve returned without throwing
+    public static final byte TURN = 5;     // a command finished; turn counter, hints and win check advance
+    public static final byte QUIT = 6;     // player left the game
+    public static final byte TIME_UP = 7;  // the session's wall-clock time ran out
+    public static final byte LOCK_RESET = 8; // room, name: a jammed code lock gave the player's attempts back
+    public static final byte HINT = 9;     // a hint came up on the clock, between turns
+
+    private byte[] bytes = new byte[32];
+    private int size;
+
+    public void move(int room) {
+        writeByte(MOVE);
+        writeVarint(room);
+    }
+
+    public void back() {
+        writeByte(BACK);
+    }
+
+    public void pickup(int room, int name) {
+        writeByte(PICKUP);
+        writeVarint(room);
+        writeVarint(name);
+    }
+
+    public void attempt(int room, int name, boolean solved) {
+        writeByte(ATTEMPT);
+        writeVarint(room);
+        writeVarint(name);
+        writeByte(solved ? 1 : 0);
+    }
+
+    public void turn() {
+        writeByte(TURN);
+    }
+
+    public void quit() {
+        writeByte(QUIT);
+    }
+
+    public void timeUp() {
+        writeByte(TIME_UP);
+    }
+
+    public void hint() {
+        writeByte(HINT);
+    }
+
+    public void lockReset(int room, int name) {
+        writeByte(LOCK_RESET);
+        writeVarint(room);
+        writeVarint(name);
+    }
+
+    // Adds events encoded elsewhere, e.g. a whole turn's or a replayed history
+    public void append(byte[] data, int offset, int length) {
+        if (size + length > bytes.length) {
+            byte[] grown = new byte[Math.max(bytes.length * 2, size + length)];
+            System.arraycopy(bytes, 0, grown, 0, size);
+            bytes = grown;
+        }
+        System.arraycopy(data, offset, bytes, size, length);
+        size += length;
+    }
+
+    public byte[] array() {
+        return bytes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    private void writeByte(int b) {
+        if (size == bytes.length) {
+            byte[] grown = new byte[bytes.length * 2];
+            System.arraycopy(bytes, 0, grown, 0, size);
+            bytes = grown;
+        }
+        bytes[size++] = (byte) b;
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+
+    public static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
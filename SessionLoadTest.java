@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+// Simulates many concurrent sessions against one GameServer and reports
+// sessions per GB of heap and command latency percentiles.
+// With a journal directory, every session is journaled and the test ends by
+// recovering all of them from it and reporting how long that took.
+// Usage: java SessionLoadTest [sessions] [commandsPerSession] [workers] [journalDir]
+public class SessionLoadTest {
+    private static final String[] COMMANDS = {
+            "look", "move Library", "move Storage", "back", "inventory", "status",
+            "map", "pickup Flashlight", "inspect Flashlight", "help", "inspect EasyRiddle",
+            "solve EasyRiddle shadow", "solve SphinxRiddle piano"
+    };
+
+    public static void main(String[] args) throws IOException {
+        int sessionCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int commandsPerSession = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Path journalDir = args.length > 3 ? Path.of(args[3]) : null;
+
+        WorldDefinition world = GameEngine.setupGame();
+        Journal journal = journalDir != null ? Journal.open(journalDir) : null;
+        GameServer server = journal != null ? new GameServer(world, workers, journal) : new GameServer(world, workers);
+
+        long heapBefore = usedHeap();
+        long[] ids = new long[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            ids[i] = server.openSession();
+        }
+        long heapAfter = usedHeap();
+        double bytesPerSession = (double) (heapAfter - heapBefore) / sessionCount;
+
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[sessionCount];
+        for (int round = 0; round < commandsPerSession; round++) {
+            for (int i = 0; i < sessionCount; i++) {
+                replies[i] = server.submit(ids[i], COMMANDS[random.nextInt(COMMANDS.length)]);
+            }
+            // One command per session in flight, like players waiting for a reply
+            CompletableFuture.allOf(replies).join();
+        }
+        long elapsed = System.nanoTime() - start;
+        server.shutdown();
+        if (journal != null) {
+            journal.close();
+        }
+
+        LatencyHistogram h = server.getLatencyHistogram();
+        long total = (long) sessionCount * commandsPerSession;
+        System.out.println("Sessions:            " + sessionCount);
+        System.out.println("Workers:             " + workers);
+        System.out.printf("Heap per session:    %.0f bytes%n", bytesPerSession);
+        System.out.printf("Sessions per GB:     %.0f%n", bytesPerSession > 0 ? (1L << 30) / bytesPerSession : 0.0);
+        System.out.printf("Throughput:          %.0f commands/s%n", total / (elapsed / 1e9));
+        System.out.printf("Latency p50/p99/max: %.1f / %.1f / %.1f us%n",
+                h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(99) / 1e3, h.getMax() / 1e3);
+
+        if (journal != null) {
+            server = null;
+            long recoveryStart = System.nanoTime();
+            try (Journal reopened = Journal.open(journalDir)) {
+                GameServer recovered = new GameServer(world, workers, reopened);
+                System.out.printf("Recovery:            %d sessions in %.0f ms%n", recovered.getSessionCount(),
+                        (System.nanoTime() - recoveryStart) / 1e6);
+                recovered.shutdown();
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
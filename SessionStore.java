@@ -0,0 +1,119 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Off-heap space for hibernated sessions (see GameServer.enableHibernation).
+// Direct ByteBuffer chunks are cut into slots of one power-of-two size each,
+// 64 bytes and up; a freed slot goes on its size's free list and the next
+// record of that size reuses it, so the store only grows to its busiest moment.
+// A record is addressed by a long holding its length, chunk and slot, which is
+// all a hibernated session keeps on the heap. Each size class has its own lock.
+public final class SessionStore {
+    static final int MIN_SHIFT = 6;
+    static final int MAX_SHIFT = 20; // one record per chunk at the largest size
+    private static final int CHUNK_SIZE = 1 << MAX_SHIFT;
+
+    private final SizeClass[] classes = new SizeClass[MAX_SHIFT - MIN_SHIFT + 1];
+
+    public SessionStore() {
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new SizeClass(MIN_SHIFT + i);
+        }
+    }
+
+    // Copies the bytes in and returns their address
+    public long put(byte[] data, int length) {
+        if (length > CHUNK_SIZE) {
+            throw new IllegalArgumentException("Record of " + length + " bytes is over the " + CHUNK_SIZE + " byte limit");
+        }
+        SizeClass c = classes[sizeClass(length)];
+        synchronized (c) {
+            int slot = c.allocate();
+            int offset = (slot & c.slotsPerChunkMask) << c.shift;
+            c.chunks.get(slot >>> c.slotsPerChunkShift).put(offset, data, 0, length);
+            c.used++;
+            return (long) length << 32 | slot;
+        }
+    }
+
+    // Copies the record out and frees it
+    public byte[] take(long address) {
+        int length = (int) (address >>> 32);
+        int slot = (int) address;
+        SizeClass c = classes[sizeClass(length)];
+        byte[] data = new byte[length];
+        synchronized (c) {
+            c.chunks.get(slot >>> c.slotsPerChunkShift).get((slot & c.slotsPerChunkMask) << c.shift, data, 0, length);
+            c.free(slot);
+        }
+        return data;
+    }
+
+    public void free(long address) {
+        SizeClass c = classes[sizeClass((int) (address >>> 32))];
+        synchronized (c) {
+            c.free((int) address);
+        }
+    }
+
+    public long getRecordCount() {
+        long count = 0;
+        for (SizeClass c : classes) {
+            synchronized (c) {
+                count += c.used;
+            }
+        }
+        return count;
+    }
+
+    // Off-heap bytes held, in use or free
+    public long getReservedBytes() {
+        long bytes = 0;
+        for (SizeClass c : classes) {
+            synchronized (c) {
+                bytes += (long) c.chunks.size() * CHUNK_SIZE;
+            }
+        }
+        return bytes;
+    }
+
+    private static int sizeClass(int length) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(1, length) - 1);
+        return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+    }
+
+    private static final class SizeClass {
+        final int shift;              // slot size is 1 << shift
+        final int slotsPerChunkShift;
+        final int slotsPerChunkMask;
+        final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+        int[] freeSlots = new int[16];
+        int freeCount;
+        int nextSlot;                 // first never-used slot
+        long used;
+
+        SizeClass(int shift) {
+            this.shift = shift;
+            this.slotsPerChunkShift = MAX_SHIFT - shift;
+            this.slotsPerChunkMask = (1 << slotsPerChunkShift) - 1;
+        }
+
+        int allocate() {
+            if (freeCount > 0) {
+                return freeSlots[--freeCount];
+            }
+            if ((nextSlot >>> slotsPerChunkShift) == chunks.size()) {
+                chunks.add(ByteBuffer.allocateDirect(CHUNK_SIZE));
+            }
+            return nextSlot++;
+        }
+
+        void free(int slot) {
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+            used--;
+        }
+    }
+}
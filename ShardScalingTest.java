@@ -0,0 +1,146 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Throughput of a ShardedServer with 1, 2, 4, ... shards, next to a
+// cooperative GameServer with as many workers, on one generated world. Each
+// session is a closed-loop client with one command outstanding at a time,
+// picked at random from what can be done in the player's room (as BotDriver
+// does); a session whose game ends is closed and a new one opened. Counts
+// only commands completed after a second of warm-up.
+// Usage: java ShardScalingTest [rooms] [sessions] [seconds] [maxThreads]
+public class ShardScalingTest {
+    public static void main(String[] args) throws Exception {
+        int roomCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int sessionCount = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+
+        WorldDefinition world = new WorldGenerator(1).rooms(roomCount).generate();
+        String[][] commands = BotDriver.commandsByRoom(world);
+        System.out.println("Rooms " + roomCount + ", sessions " + sessionCount + ", "
+                + Runtime.getRuntime().availableProcessors() + " available processors");
+        System.out.printf("%8s %12s %8s %12s %10s %12s %8s%n",
+                "threads", "sharded/s", "speedup", "handoffs/s", "boundary", "pool/s", "speedup");
+        measure(world, commands, 1, sessionCount, seconds); // untimed, so the JIT is warm for the first row
+        double[] base = null;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double[] m = measure(world, commands, threads, sessionCount, seconds);
+            if (base == null) {
+                base = m;
+            }
+            System.out.printf("%8d %12.0f %7.2fx %12.0f %9.1f%% %12.0f %7.2fx%n",
+                    threads, m[0], m[0] / base[0], m[1], m[2] * 100, m[3], m[3] / base[3]);
+        }
+    }
+
+    // Sharded commands/s, handoffs/s and boundary door fraction, then pool commands/s
+    private static double[] measure(WorldDefinition world, String[][] commands, int threads,
+                                    int sessionCount, int seconds) throws InterruptedException {
+        ShardedServer sharded = new ShardedServer(world, threads);
+        Load shardedLoad = new Load(commands, seconds) {
+            long open() {
+                return sharded.openSession();
+            }
+
+            CompletableFuture<CommandResult> submit(long id, String command) {
+                return sharded.submit(id, command);
+            }
+
+            int roomOf(long id) {
+                return sharded.getRoomOf(id);
+            }
+
+            void close(long id) {
+                sharded.closeSession(id);
+            }
+        };
+        double handoffRate = shardedLoad.run(sessionCount, sharded::getHandoffCount) / (double) seconds;
+        double shardedRate = shardedLoad.rate();
+        double boundary = sharded.getBoundaryDoorFraction();
+        sharded.shutdown();
+
+        GameServer pool = GameServer.cooperative(world, threads);
+        Load poolLoad = new Load(commands, seconds) {
+            long open() {
+                return pool.openSession();
+            }
+
+            CompletableFuture<CommandResult> submit(long id, String command) {
+                return pool.submit(id, command);
+            }
+
+            int roomOf(long id) {
+                return pool.getEngine(id).getPlayer().getCurrentRoom().getId();
+            }
+
+            void close(long id) {
+                pool.closeSession(id);
+            }
+        };
+        poolLoad.run(sessionCount, () -> 0L);
+        double poolRate = poolLoad.rate();
+        pool.shutdown();
+        return new double[] {shardedRate, handoffRate, boundary, poolRate};
+    }
+
+    // Closed-loop clients against one server. Each completed command submits
+    // the session's next one from the thread that completed it.
+    private abstract static class Load {
+        private final String[][] commands;
+        private final int seconds;
+        private final LongAdder completed = new LongAdder();
+        private volatile boolean running = true;
+        private long measured;
+
+        Load(String[][] commands, int seconds) {
+            this.commands = commands;
+            this.seconds = seconds;
+        }
+
+        abstract long open();
+
+        abstract CompletableFuture<CommandResult> submit(long id, String command);
+
+        abstract int roomOf(long id);
+
+        abstract void close(long id);
+
+        // Returns how far the counter moved while commands were being counted
+        long run(int sessionCount, LongSupplier counter) throws InterruptedException {
+            for (int i = 0; i < sessionCount; i++) {
+                next(open(), new SplittableRandom(i));
+            }
+            Thread.sleep(1000);
+            long counterBefore = counter.getAsLong();
+            long before = completed.sum();
+            Thread.sleep(seconds * 1000L);
+            measured = completed.sum() - before;
+            long counted = counter.getAsLong() - counterBefore;
+            running = false;
+            Thread.sleep(100); // let commands in flight finish before the server stops
+            return counted;
+        }
+
+        double rate() {
+            return (double) measured / seconds;
+        }
+
+        private void next(long id, SplittableRandom random) {
+            if (!running) {
+                return;
+            }
+            String[] here = commands[roomOf(id)];
+            submit(id, here[random.nextInt(here.length)]).thenAccept(r -> {
+                completed.increment();
+                if (r.getStatus() == CommandResult.Status.GAME_OVER) {
+                    close(id);
+                    next(open(), random);
+                } else {
+                    next(id, random);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,299 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Cooperative games in one big world, split across threads by place rather
+// than by player. The rooms are cut into shards of neighbouring rooms (runs of
+// a breadth-first walk from the start room), each with one thread that is the
+// only one ever to change its rooms. A session's commands run on the shard
+// that owns the player's current room; when a move takes the player into
+// another shard's room, the session is handed to that shard through its inbox
+// and carries on there. Players in the same room are always on the same
+// thread, so room and puzzle locks are never contended, and shards share
+// nothing but their inboxes.
+// A move runs on the shard being left. It reads the room arrived in, under
+// that room's lock, to describe it, but changes nothing there. Commands go
+// into a per-session mailbox, as in GameServer, so they keep their order
+// across a hand-off. Sessions can't be journaled or hibernated: like
+// GameServer.cooperative, replay can't undo other players.
+public class ShardedServer {
+    // Commands run per session before its shard moves on to other sessions
+    private static final int BATCH_SIZE = 64;
+
+    private final WorldDefinition world;
+    private final Room[] rooms;
+    private final int[] shardOfRoom;
+    private final Shard[] shards;
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextSessionId = new AtomicLong(1);
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public ShardedServer(WorldDefinition world, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Need at least one shard, not " + shardCount);
+        }
+        this.world = world;
+        this.rooms = world.instantiate();
+        this.shardOfRoom = partition(world, Math.min(shardCount, rooms.length));
+        this.shards = new Shard[Math.min(shardCount, rooms.length)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    // Consecutive runs of a breadth-first walk from the start room, as even as
+    // the room count allows, so most doors lead to a room of the same shard.
+    // Rooms the walk can't reach go last.
+    private static int[] partition(WorldDefinition world, int shardCount) {
+        int n = world.getRoomCount();
+        int[] order = new int[n];
+        boolean[] seen = new boolean[n];
+        int found = 0;
+        int next = world.getStartRoom();
+        for (int head = 0; found < n; head++) {
+            if (head == found) { // walk done: start again from a room it missed
+                while (seen[next]) {
+                    next = (next + 1) % n;
+                }
+                seen[next] = true;
+                order[found++] = next;
+            }
+            WorldDefinition.RoomDef room = world.getRoom(order[head]);
+            for (int e = 0; e < room.getExitCount(); e++) {
+                int exit = room.getExit(e);
+                if (!seen[exit]) {
+                    seen[exit] = true;
+                    order[found++] = exit;
+                }
+            }
+        }
+        int[] shardOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            shardOf[order[i]] = (int) ((long) i * shardCount / n);
+        }
+        return shardOf;
+    }
+
+    public long openSession() {
+        long id = nextSessionId.getAndIncrement();
+        Session session = new Session(id);
+        sessions.put(id, session);
+        return id;
+    }
+
+    public void closeSession(long sessionId) {
+        Session session = sessions.remove(sessionId);
+        if (session == null) {
+            return;
+        }
+        // Queued like a command, so it can't race one the session is still running
+        session.mailbox.add(new Command(null, System.nanoTime()));
+        session.schedule();
+    }
+
+    public CompletableFuture<CommandResult> submit(long sessionId, String command) {
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            throw new IllegalArgumentException("No session with id " + sessionId);
+        }
+        Command c = new Command(command, System.nanoTime());
+        session.mailbox.add(c);
+        session.schedule();
+        return c.result;
+    }
+
+    // The room the session's player was in after its last command; a command's
+    // result completes only once this is up to date
+    public int getRoomOf(long sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            throw new IllegalArgumentException("No session with id " + sessionId);
+        }
+        return session.room;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int getShardOf(int roomId) {
+        return shardOfRoom[roomId];
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    // Commands each shard has run so far
+    public long[] getCommandCounts() {
+        long[] counts = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            counts[i] = shards[i].commands;
+        }
+        return counts;
+    }
+
+    // Sessions handed from one shard to another by a move across a boundary
+    public long getHandoffCount() {
+        long count = 0;
+        for (Shard shard : shards) {
+            count += shard.handoffs;
+        }
+        return count;
+    }
+
+    // Doors between rooms of different shards, out of all doors
+    public double getBoundaryDoorFraction() {
+        long doors = 0;
+        long crossing = 0;
+        for (int r = 0; r < world.getRoomCount(); r++) {
+            WorldDefinition.RoomDef room = world.getRoom(r);
+            for (int e = 0; e < room.getExitCount(); e++) {
+                doors++;
+                if (shardOfRoom[room.getExit(e)] != shardOfRoom[r]) {
+                    crossing++;
+                }
+            }
+        }
+        return doors == 0 ? 0 : (double) crossing / doors;
+    }
+
+    // Enqueue-to-completion time of every command, in nanoseconds
+    public LatencyHistogram getLatencyHistogram() {
+        return latency;
+    }
+
+    // Stops the shard threads; commands still queued are dropped
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static final class Command {
+        final String text;         // null: the session was closed
+        final long enqueuedAt;
+        final CompletableFuture<CommandResult> result = new CompletableFuture<>();
+
+        Command(String text, long enqueuedAt) {
+            this.text = text;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    // One thread and the sessions in its rooms. Its counters are written by
+    // its thread only; others just read them.
+    private final class Shard implements Runnable {
+        final int index;
+        final Thread thread;
+        final ConcurrentLinkedQueue<Session> inbox = new ConcurrentLinkedQueue<>();
+        volatile boolean running = true;
+        volatile boolean idle;       // parked, or about to, so a post must unpark it
+        volatile long commands;
+        volatile long handoffs;
+
+        Shard(int index) {
+            this.index = index;
+            this.thread = new Thread(this, "shard-" + index);
+            thread.setDaemon(true);
+        }
+
+        // A session to drain: one with new commands, or one arriving from another shard
+        void post(Session session) {
+            inbox.add(session);
+            if (idle) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Session session = inbox.poll();
+                if (session != null) {
+                    session.drain(this);
+                    continue;
+                }
+                idle = true;
+                if (inbox.isEmpty() && running) { // checked again after idle is set, so no post is missed
+                    LockSupport.park(this);
+                }
+                idle = false;
+            }
+        }
+    }
+
+    private final class Session {
+        final long id;
+        final BufferedOutput output = new BufferedOutput();
+        final GameEngine engine;
+        final ConcurrentLinkedQueue<Command> mailbox = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile int room;       // the player's, as of the last command's result
+        volatile int shard;      // owns the player's room; changed only by that shard's thread
+        boolean closed;
+
+        Session(long id) {
+            this.id = id;
+            this.engine = new GameEngine(world, rooms, output);
+            this.room = engine.getPlayer().getCurrentRoom().getId();
+            this.shard = shardOfRoom[room];
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                shards[shard].post(this);
+            }
+        }
+
+        // On the shard that owns the player's room. Stops after a command that
+        // takes the player into another shard's room and passes the session on,
+        // still scheduled, so that shard runs the rest of the mailbox.
+        void drain(Shard here) {
+            Command c;
+            int processed = 0;
+            while (processed < BATCH_SIZE && (c = mailbox.poll()) != null) {
+                processed++;
+                if (c.text == null) {
+                    closed = true;
+                    engine.releaseAttempts();
+                    continue;
+                }
+                CommandResult r = closed
+                        ? new CommandResult(CommandResult.Status.GAME_OVER, "The session was closed.", 0, false)
+                        : engine.executeTurn(c.text).withOutput(output.takeText());
+                here.commands++;
+                room = engine.getPlayer().getCurrentRoom().getId();
+                latency.record(System.nanoTime() - c.enqueuedAt);
+                c.result.complete(r);
+                int owner = shardOfRoom[room];
+                if (owner != here.index) {
+                    shard = owner;
+                    here.handoffs++;
+                    shards[owner].post(this);
+                    return;
+                }
+            }
+            scheduled.set(false);
+            // Either the batch was cut short or a command arrived after the last poll
+            if (!mailbox.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+// A hierarchical timing wheel: timers due on a tick of some clock, scheduled,
+// cancelled and fired in O(1) each however many are pending. Level 0 has a slot
+// per tick and each level above has a slot per turn of the level below. A timer
+// goes into the lowest level whose current turn reaches its deadline and moves
+// down a level when the wheel turns into its slot; one due beyond the top
+// level's reach waits there and is put back until its turn comes.
+// Timers due on the same tick fire in rank order, then in the order they
+// reached the tick's slot. Not thread-safe: GameClock drives the shared wheel
+// from its own thread.
+public final class TimerWheel {
+    private static final int IDLE = -1;
+    private static final int DETACHED = -2; // its slot was taken out by advanceTo, which hasn't reached it yet
+
+    public abstract static class Timer {
+        final int rank;
+        long deadline;
+        Timer prev;    // ring of the timers in one slot
+        Timer next;
+        Timer detachedNext; // while advanceTo works through a slot taken out of the wheel
+        int level = IDLE;
+        int slot;
+
+        protected Timer() {
+            this(0);
+        }
+
+        protected Timer(int rank) {
+            this.rank = rank;
+        }
+
+        // Called on the wheel's thread once the wheel reaches the deadline.
+        // The timer is no longer scheduled, so it may schedule itself again.
+        protected abstract void expire(long tick);
+
+        public boolean isScheduled() {
+            return level != IDLE;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public int rank() {
+            return rank;
+        }
+    }
+
+    // Told about a timer whose expire threw; the wheel goes on with the others
+    public interface FailureHandler {
+        void timerFailed(Timer timer, RuntimeException failure);
+    }
+
+    private final int bits;
+    private final int mask;
+    private final Timer[][] levels;
+    private final FailureHandler onFailure; // null: the exception leaves advanceTo
+    private long now;
+    private int size;
+
+    // 2^slotBits slots a level; levels * slotBits ticks are reached without wrapping
+    public TimerWheel(int slotBits, int levelCount) {
+        this(slotBits, levelCount, null);
+    }
+
+    public TimerWheel(int slotBits, int levelCount, FailureHandler onFailure) {
+        if (slotBits < 1 || levelCount < 1 || slotBits * levelCount > 62) {
+            throw new IllegalArgumentException("Bad wheel shape: " + levelCount + " levels of 2^" + slotBits + " slots");
+        }
+        this.bits = slotBits;
+        this.mask = (1 << slotBits) - 1;
+        this.levels = new Timer[levelCount][1 << slotBits];
+        this.onFailure = onFailure;
+    }
+
+    // The last tick the wheel turned to
+    public long now() {
+        return now;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Due on `deadline`, or on the next tick if that has passed. A timer that is
+    // already scheduled moves.
+    public void schedule(Timer t, long deadline) {
+        if (t.level >= 0) {
+            unlink(t);
+        } else if (t.level == IDLE) {
+            size++;
+        }
+        t.deadline = Math.max(deadline, now + 1);
+        insert(t);
+    }
+
+    // False if it wasn't scheduled
+    public boolean cancel(Timer t) {
+        if (t.level == IDLE) {
+            return false;
+        }
+        if (t.level >= 0) {
+            unlink(t);
+        } else {
+            t.level = IDLE; // advanceTo will pass it by
+        }
+        size--;
+        return true;
+    }
+
+    // Turns the wheel tick by tick up to `tick`, firing each timer on its deadline.
+    // A timer that fires may schedule or cancel others, including ones due on the same tick.
+    public void advanceTo(long tick) {
+        while (now < tick) {
+            now++;
+            for (int level = levels.length - 1; level > 0; level--) {
+                if ((now & ((1L << (bits * level)) - 1)) == 0) {
+                    for (Timer t = detach(level, (int) (now >>> (bits * level)) & mask); t != null; ) {
+                        Timer next = t.detachedNext;
+                        t.detachedNext = null;
+                        insert(t);
+                        t = next;
+                    }
+                }
+            }
+            for (Timer t = detach(0, (int) now & mask); t != null; ) {
+                Timer next = t.detachedNext;
+                t.detachedNext = null;
+                if (t.level != DETACHED) {
+                    // cancelled or rescheduled by a timer that fired before it
+                } else if (t.deadline <= now) {
+                    t.level = IDLE;
+                    t.prev = null;
+                    t.next = null;
+                    size--;
+                    if (onFailure == null) {
+                        t.expire(now);
+                    } else {
+                        try {
+                            t.expire(now);
+                        } catch (RuntimeException e) {
+                            onFailure.timerFailed(t, e);
+                        }
+                    }
+                } else {
+                    insert(t); // a whole turn of a one-level wheel early
+                }
+                t = next;
+            }
+        }
+    }
+
+    private void insert(Timer t) {
+        int level = 0;
+        while (level < levels.length - 1 && (t.deadline >>> (bits * (level + 1))) != (now >>> (bits * (level + 1)))) {
+            level++;
+        }
+        link(t, level, (int) (t.deadline >>> (bits * level)) & mask);
+    }
+
+    // Adds t to the slot's ring after every timer of lower or equal rank
+    private void link(Timer t, int level, int slot) {
+        t.level = level;
+        t.slot = slot;
+        Timer[] slots = levels[level];
+        Timer head = slots[slot];
+        if (head == null) {
+            t.prev = t;
+            t.next = t;
+            slots[slot] = t;
+            return;
+        }
+        Timer after = head.prev;
+        while (after.rank > t.rank && after != head) {
+            after = after.prev;
+        }
+        if (after.rank > t.rank) {
+            after = head.prev; // goes in front of the head
+            slots[slot] = t;
+        }
+        t.prev = after;
+        t.next = after.next;
+        after.next.prev = t;
+        after.next = t;
+    }
+
+    private void unlink(Timer t) {
+        Timer[] slots = levels[t.level];
+        if (t.next == t) {
+            slots[t.slot] = null;
+        } else {
+            t.prev.next = t.next;
+            t.next.prev = t.prev;
+            if (slots[t.slot] == t) {
+                slots[t.slot] = t.next;
+            }
+        }
+        t.level = IDLE;
+        t.prev = null;
+        t.next = null;
+    }
+
+    // Empties a slot, returning its timers in ring order, linked by detachedNext
+    private Timer detach(int level, int slot) {
+        Timer head = levels[level][slot];
+        if (head == null) {
+            return null;
+        }
+        levels[level][slot] = null;
+        Timer t = head;
+        do {
+            t.level = DETACHED;
+            t.detachedNext = t.next != head ? t.next : null;
+            t = t.next;
+        } while (t != head);
+        return head;
+    }
+}
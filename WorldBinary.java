@@ -0,0 +1,143 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// Compact binary form of a world, read back by MappedWorld. Big-endian.
+//
+//   header   magic, version, roomCount, startRoom, hintCount,
+//            roomIndexOffset, stringIndexOffset, stringCount, hintsOffset
+//   index    roomCount x int: offset of each room record
+//   rooms    name, requiredKey (-1 = none), flags, exitCount, exits...,
+//            componentCount, components...
+//   strings  stringCount x int offsets, then each string as length + UTF-8
+//   hints    hintCount x string id
+//
+// Every string is stored once and referenced by id. A component is a kind
+// byte followed by its fields; a puzzle's reward is an embedded item.
+public class WorldBinary {
+    static final int MAGIC = 0x45534357; // "ESCW"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 9 * 4;
+
+    static final byte ITEM = 0;
+    static final byte RIDDLE = 1;
+    static final byte CODE = 2;
+    static final byte FLAG_EXIT = 1;
+    static final int NONE = -1;
+
+    public static void write(WorldDefinition world, Path file) throws IOException {
+        List<WorldDefinition.RoomDef> rooms = world.getRooms();
+        HashMap<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int roomCount = rooms.size();
+        int[] roomOffsets = new int[roomCount];
+        int stringIndexOffset;
+        int hintsOffset;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile()), 1 << 16))) {
+            // Header and room index are patched in below once the offsets are known
+            out.write(new byte[HEADER_SIZE + roomCount * 4]);
+
+            for (int r = 0; r < roomCount; r++) {
+                WorldDefinition.RoomDef room = rooms.get(r);
+                roomOffsets[r] = out.size();
+                out.writeInt(id(room.getName(), stringIds, strings));
+                out.writeInt(id(room.getRequiredKey(), stringIds, strings));
+                out.writeByte(room.isExit() ? FLAG_EXIT : 0);
+                out.writeInt(room.getExitCount());
+                for (int i = 0; i < room.getExitCount(); i++) {
+                    out.writeInt(room.getExit(i));
+                }
+                List<WorldDefinition.ComponentDef> contents = room.getContents();
+                out.writeInt(contents.size());
+                for (WorldDefinition.ComponentDef c : contents) {
+                    if (c instanceof WorldDefinition.ItemDef) {
+                        out.writeByte(ITEM);
+                        writeItem(out, (WorldDefinition.ItemDef) c, stringIds, strings);
+                    } else {
+                        writePuzzle(out, (WorldDefinition.PuzzleDef) c, stringIds, strings);
+                    }
+                }
+            }
+
+            // Hint texts go into the string table too
+            int[] hintIds = new int[world.getHints().size()];
+            for (int i = 0; i < hintIds.length; i++) {
+                hintIds[i] = id(world.getHints().get(i), stringIds, strings);
+            }
+
+            stringIndexOffset = out.size();
+            byte[][] encoded = new byte[strings.size()][];
+            int offset = stringIndexOffset + strings.size() * 4;
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(offset);
+                offset += 4 + encoded[i].length;
+            }
+            for (byte[] bytes : encoded) {
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            hintsOffset = out.size();
+            for (int hintId : hintIds) {
+                out.writeInt(hintId);
+            }
+        }
+
+        ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE + roomCount * 4);
+        head.putInt(MAGIC).putInt(VERSION).putInt(roomCount).putInt(world.getStartRoom())
+                .putInt(world.getHints().size()).putInt(HEADER_SIZE).putInt(stringIndexOffset)
+                .putInt(strings.size()).putInt(hintsOffset);
+        for (int offset : roomOffsets) {
+            head.putInt(offset);
+        }
+        head.flip();
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.getChannel().write(head, 0);
+        }
+    }
+
+    private static void writeItem(DataOutputStream out, WorldDefinition.ItemDef item,
+                                  HashMap<String, Integer> ids, List<String> strings) throws IOException {
+        out.writeInt(id(item.getName(), ids, strings));
+        out.writeInt(item.getValue());
+        out.writeInt(id(item.getItemType().name(), ids, strings));
+        out.writeInt(id(item.getDescription(), ids, strings));
+    }
+
+    private static void writePuzzle(DataOutputStream out, WorldDefinition.PuzzleDef p,
+                                    HashMap<String, Integer> ids, List<String> strings) throws IOException {
+        out.writeByte(p.getKind() == WorldDefinition.PuzzleDef.CODE ? CODE : RIDDLE);
+        out.writeInt(id(p.getName(), ids, strings));
+        out.writeInt(p.getDifficulty());
+        out.writeInt(id(p.getAnswer(), ids, strings));
+        out.writeInt(id(p.getRiddle(), ids, strings));
+        out.writeInt(p.getMaxAttempts());
+        out.writeByte(p.getReward() != null ? 1 : 0);
+        if (p.getReward() != null) {
+            writeItem(out, p.getReward(), ids, strings);
+        }
+    }
+
+    private static int id(String s, HashMap<String, Integer> ids, List<String> strings) {
+        if (s == null) {
+            return NONE;
+        }
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = strings.size();
+            ids.put(s, id);
+            strings.add(s);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Command-line tool for world files.
+//   java WorldCompiler compile <in.world> <out.bin>     text -> binary
+//   java WorldCompiler decompile <in.bin> <out.world>   binary -> text
+//   java WorldCompiler generate <rooms> <seed> <out>    WorldGenerator -> .bin or .world
+//   java WorldCompiler stat <in.bin>                    open time and lazy loading check
+public class WorldCompiler {
+    public static void main(String[] args) throws IOException, WorldFormatException {
+        if (args.length < 2) {
+            System.out.println("Usage: WorldCompiler compile|decompile|generate|stat ...");
+            return;
+        }
+        switch (args[0]) {
+            case "compile":
+                WorldBinary.write(readText(Path.of(args[1])), Path.of(args[2]));
+                break;
+            case "decompile":
+                writeText(MappedWorld.open(Path.of(args[1])).toDefinition(), Path.of(args[2]));
+                break;
+            case "generate": {
+                WorldDefinition world = new WorldGenerator(Long.parseLong(args[2]))
+                        .rooms(Integer.parseInt(args[1])).generate();
+                Path out = Path.of(args[3]);
+                if (out.toString().endsWith(".world")) {
+                    writeText(world, out);
+                } else {
+                    WorldBinary.write(world, out);
+                }
+                break;
+            }
+            case "stat":
+                stat(Path.of(args[1]));
+                break;
+            default:
+                System.out.println("Unknown command: " + args[0]);
+        }
+    }
+
+    public static WorldDefinition readText(Path file) throws IOException, WorldFormatException {
+        try (Reader in = Files.newBufferedReader(file)) {
+            return WorldText.parse(in);
+        }
+    }
+
+    private static void writeText(WorldDefinition world, Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file)) {
+            WorldText.write(world, out);
+        }
+    }
+
+    private static void stat(Path file) throws IOException, WorldFormatException {
+        long start = System.nanoTime();
+        MappedWorld world = MappedWorld.open(file);
+        long opened = System.nanoTime();
+        MappedWorld.Instance instance = world.newInstance();
+        Room room = instance.getStartRoom();
+        room.inspect(new BufferedOutput());
+        long firstLook = System.nanoTime();
+        System.out.println("Rooms:             " + world.getRoomCount());
+        System.out.printf("Open:              %.2f ms%n", (opened - start) / 1e6);
+        System.out.printf("First look:        %.2f ms%n", (firstLook - opened) / 1e6);
+        System.out.println("Rooms in memory:   " + instance.getMaterializedRoomCount());
+    }
+}
@@ -0,0 +1,328 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Immutable description of a world. One definition is shared by every session;
+// each session calls instantiate() to get its own mutable Room graph.
+public final class WorldDefinition {
+    private final List<RoomDef> rooms;
+    private final List<String> hints;
+    private final int startRoom;
+    private final NameTable names; // every room, item and puzzle name
+    private Room[] shared;         // built on first sharedRooms() call
+    private RouteHints routeHints; // built on first routeHints() call
+
+    private WorldDefinition(Builder b) {
+        // Copies, so whatever the builder is used for next can't change a world sessions share
+        List<RoomDef> rooms = new ArrayList<>(b.rooms.size());
+        for (RoomDef room : b.rooms) {
+            rooms.add(new RoomDef(room));
+        }
+        this.rooms = Collections.unmodifiableList(rooms);
+        this.hints = Collections.unmodifiableList(new ArrayList<>(b.hints));
+        this.startRoom = b.startRoom;
+        this.names = new NameTable(true);
+        for (RoomDef room : rooms) {
+            names.add(room.name);
+            for (ComponentDef c : room.contents) {
+                names.add(c.name);
+                if (c instanceof PuzzleDef) {
+                    PuzzleDef p = (PuzzleDef) c;
+                    if (p.reward != null) {
+                        names.add(p.reward.name);
+                    }
+                }
+            }
+        }
+    }
+
+    public Room[] instantiate() {
+        Room[] result = new Room[rooms.size()];
+        for (int i = 0; i < result.length; i++) {
+            RoomDef def = rooms.get(i);
+            result[i] = new Room(def.name, def.isExit, def.requiredKey);
+            result[i].setId(i);
+        }
+        for (int i = 0; i < result.length; i++) {
+            RoomDef def = rooms.get(i);
+            for (ComponentDef c : def.contents) {
+                result[i].addContent(c.create());
+            }
+            for (int j = 0; j < def.exitCount; j++) {
+                result[i].addConnectedRoom(result[def.exits[j]]);
+            }
+        }
+        return result;
+    }
+
+    // One Room graph that every session of this world reads through its own
+    // WorldOverlay. Built once, never modified afterwards, safe to share.
+    public synchronized Room[] sharedRooms() {
+        if (shared == null) {
+            Room[] rooms = instantiate();
+            Room start = rooms[startRoom];
+            RoomGraph.of(start).renderTree(start, 0); // claims the rooms and caches the map up front
+            shared = rooms;
+        }
+        return shared;
+    }
+
+    public List<RoomDef> getRooms() {
+        return rooms;
+    }
+
+    public RoomDef getRoom(int id) {
+        return rooms.get(id);
+    }
+
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    public List<String> getHints() {
+        return hints;
+    }
+
+    public int getStartRoom() {
+        return startRoom;
+    }
+
+    public NameTable getNames() {
+        return names;
+    }
+
+    // The way out of this world, worked out once for every session's hints
+    public synchronized RouteHints routeHints() {
+        if (routeHints == null) {
+            routeHints = new RouteHints(this);
+        }
+        return routeHints;
+    }
+
+    public abstract static class ComponentDef {
+        protected final String name;
+
+        ComponentDef(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public abstract GameComponent create();
+    }
+
+    public static final class ItemDef extends ComponentDef {
+        private final int value;
+        private final ItemType itemType;
+        private final String description;
+        private final Item item; // items are immutable, so every instance of the world shares this one
+
+        public ItemDef(String name, int value, ItemType itemType, String description) {
+            super(name);
+            this.value = value;
+            this.itemType = itemType;
+            this.description = description;
+            this.item = new Item(name, value, itemType, description);
+        }
+
+        public int getValue() {
+            return value;
+        }
+
+        public ItemType getItemType() {
+            return itemType;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public Item create() {
+            return item;
+        }
+    }
+
+    public static final class PuzzleDef extends ComponentDef {
+        public static final int RIDDLE = 0;
+        public static final int CODE = 1;
+
+        private final int kind;
+        private final int difficulty;
+        private final ItemDef reward;
+        private final String answer;
+        private final String riddle;      // RIDDLE only
+        private final int maxAttempts;    // CODE only
+
+        public PuzzleDef(int kind, String name, int difficulty, ItemDef reward,
+                         String answer, String riddle, int maxAttempts) {
+            super(name);
+            this.kind = kind;
+            this.difficulty = difficulty;
+            this.reward = reward;
+            this.answer = answer;
+            this.riddle = riddle;
+            this.maxAttempts = maxAttempts;
+        }
+
+        public int getKind() {
+            return kind;
+        }
+
+        public int getDifficulty() {
+            return difficulty;
+        }
+
+        public ItemDef getReward() {
+            return reward;
+        }
+
+        public String getAnswer() {
+            return answer;
+        }
+
+        public String getRiddle() {
+            return riddle;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        @Override
+        public Puzzle create() {
+            Item item = reward != null ? reward.create() : null;
+            if (kind == CODE) {
+                return new CodePuzzle(name, difficulty, item, answer, maxAttempts);
+            }
+            return new RiddlePuzzle(name, difficulty, item, riddle, answer);
+        }
+    }
+
+    public static final class RoomDef {
+        private final String name;
+        private final boolean isExit;
+        private final String requiredKey;
+        private final List<ComponentDef> contents;
+        private int[] exits;
+        private int exitCount;
+
+        RoomDef(String name, boolean isExit, String requiredKey) {
+            this.name = name;
+            this.isExit = isExit;
+            this.requiredKey = requiredKey;
+            this.contents = new ArrayList<>();
+            this.exits = new int[2];
+        }
+
+        // A builder's room as it is now, for a built world. Components are immutable, so they're shared.
+        private RoomDef(RoomDef building) {
+            this.name = building.name;
+            this.isExit = building.isExit;
+            this.requiredKey = building.requiredKey;
+            this.contents = new ArrayList<>(building.contents);
+            this.exits = Arrays.copyOf(building.exits, building.exitCount);
+            this.exitCount = building.exitCount;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isExit() {
+            return isExit;
+        }
+
+        public String getRequiredKey() {
+            return requiredKey;
+        }
+
+        public List<ComponentDef> getContents() {
+            return Collections.unmodifiableList(contents);
+        }
+
+        public int getExitCount() {
+            return exitCount;
+        }
+
+        public int getExit(int i) {
+            return exits[i];
+        }
+
+        private void addExit(int room) {
+            if (exitCount == exits.length) {
+                int[] grown = new int[exits.length * 2];
+                System.arraycopy(exits, 0, grown, 0, exitCount);
+                exits = grown;
+            }
+            exits[exitCount++] = room;
+        }
+    }
+
+    public static final class Builder {
+        private final List<RoomDef> rooms = new ArrayList<>();
+        private final List<String> hints = new ArrayList<>();
+        private int startRoom;
+
+        public int addRoom(String name, boolean isExit) {
+            return addRoom(name, isExit, null);
+        }
+
+        public int addRoom(String name, boolean isExit, String requiredKey) {
+            rooms.add(new RoomDef(name, isExit, requiredKey));
+            return rooms.size() - 1;
+        }
+
+        public Builder connect(int from, int to) {
+            rooms.get(from).addExit(to);
+            return this;
+        }
+
+        public ItemDef addItem(int room, String name, int value, ItemType itemType, String description) {
+            return addItem(room, new ItemDef(name, value, itemType, description));
+        }
+
+        public ItemDef addItem(int room, ItemDef item) {
+            rooms.get(room).contents.add(item);
+            return item;
+        }
+
+        public PuzzleDef addCodePuzzle(int room, String name, int difficulty, ItemDef reward,
+                                       String code, int maxAttempts) {
+            PuzzleDef p = new PuzzleDef(PuzzleDef.CODE, name, difficulty, reward, code, null, maxAttempts);
+            rooms.get(room).contents.add(p);
+            return p;
+        }
+
+        public PuzzleDef addRiddlePuzzle(int room, String name, int difficulty, ItemDef reward,
+                                         String riddle, String answer) {
+            PuzzleDef p = new PuzzleDef(PuzzleDef.RIDDLE, name, difficulty, reward, answer, riddle, 0);
+            rooms.get(room).contents.add(p);
+            return p;
+        }
+
+        public Builder addHint(String hint) {
+            hints.add(hint);
+            return this;
+        }
+
+        public Builder setStartRoom(int room) {
+            this.startRoom = room;
+            return this;
+        }
+
+        public int getRoomCount() {
+            return rooms.size();
+        }
+
+        public WorldDefinition build() {
+            if (rooms.isEmpty()) {
+                throw new IllegalStateException("A world needs at least one room");
+            }
+            return new WorldDefinition(this);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+public class WorldFormatException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public WorldFormatException(String message) {
+        super(message);
+    }
+}
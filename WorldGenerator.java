@@ -0,0 +1,223 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Builds large random worlds for load and scaling tests. The same seed and
+// settings always give the same world.
+//
+// Rooms form a spanning tree from the start room, plus optional doors back to
+// the parent and random extra doors (both make cycles). A locked room's key is
+// always placed in a room created before it, either lying on the floor or as
+// the reward of a puzzle whose answer can be found in that room. Every room's
+// path from the start only goes through earlier rooms, so by induction every
+// room, including the exit, can be reached.
+public class WorldGenerator {
+    private static final String[][] RIDDLES = {
+            {"What has keys but no locks, space but no room, and you can enter but can't go inside?", "keyboard"},
+            {"What has no weight, no shape, but follows you wherever you go?", "shadow"},
+            {"What has hands but can't clap?", "clock"},
+            {"What gets wetter the more it dries?", "towel"},
+            {"What has a neck but no head?", "bottle"},
+            {"What can you catch but not throw?", "cold"},
+            {"What has one eye but can't see?", "needle"},
+            {"What goes up but never comes down?", "age"}
+    };
+    private static final String[] TOOLS = {"Flashlight", "Rope", "Crowbar", "Lantern", "Magnifier", "Compass"};
+    private static final String[] CLUES = {"OldBook", "Map", "Letter", "Photo", "Diary", "Blueprint"};
+
+    private final long seed;
+    private int roomCount = 100;
+    private int branching = 3;
+    private double backDoorRatio = 0.5;
+    private double extraDoorRatio = 0.1;
+    private double lockedRatio = 0.2;
+    private double puzzleRatio = 0.3;
+    private double codePuzzleRatio = 0.5;
+    private int maxItemsPerRoom = 2;
+
+    public WorldGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public WorldGenerator rooms(int roomCount) {
+        if (roomCount < 2) {
+            throw new IllegalArgumentException("A generated world needs at least 2 rooms");
+        }
+        this.roomCount = roomCount;
+        return this;
+    }
+
+    // Most doors leading on from one room in the spanning tree
+    public WorldGenerator branching(int branching) {
+        if (branching < 1) {
+            throw new IllegalArgumentException("Branching must be at least 1");
+        }
+        this.branching = branching;
+        return this;
+    }
+
+    // Chance that a room also has a door back to its parent
+    public WorldGenerator backDoors(double ratio) {
+        this.backDoorRatio = ratio;
+        return this;
+    }
+
+    // Extra random doors, as a fraction of the room count
+    public WorldGenerator extraDoors(double ratio) {
+        this.extraDoorRatio = ratio;
+        return this;
+    }
+
+    public WorldGenerator lockedRooms(double ratio) {
+        this.lockedRatio = ratio;
+        return this;
+    }
+
+    public WorldGenerator puzzles(double ratio) {
+        this.puzzleRatio = ratio;
+        return this;
+    }
+
+    // Share of puzzles that are code locks rather than riddles
+    public WorldGenerator codePuzzles(double ratio) {
+        this.codePuzzleRatio = ratio;
+        return this;
+    }
+
+    public WorldGenerator maxItemsPerRoom(int max) {
+        this.maxItemsPerRoom = max;
+        return this;
+    }
+
+    public WorldDefinition generate() {
+        Random random = new Random(seed);
+        int n = roomCount;
+
+        // Spanning tree: each room hangs off a random earlier room that still has a free door
+        int[] parent = new int[n];
+        int[] depth = new int[n];
+        int[] children = new int[n];
+        int[] open = new int[n];
+        int openCount = 1;
+        parent[0] = -1;
+        int exit = 0;
+        for (int i = 1; i < n; i++) {
+            int slot = random.nextInt(openCount);
+            int p = open[slot];
+            parent[i] = p;
+            depth[i] = depth[p] + 1;
+            if (++children[p] == branching) {
+                open[slot] = open[--openCount];
+            }
+            open[openCount++] = i;
+            if (depth[i] > depth[exit]) {
+                exit = i; // deepest room becomes the exit
+            }
+        }
+
+        // Locks. Key for room i goes into a random earlier room.
+        String[] requiredKey = new String[n];
+        List<List<Integer>> keysToPlace = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            keysToPlace.add(null);
+        }
+        for (int i = 1; i < n; i++) {
+            if (i == exit || random.nextDouble() < lockedRatio) {
+                requiredKey[i] = i == exit ? "ExitKey" : "Key" + i;
+                int holder = random.nextInt(i);
+                if (keysToPlace.get(holder) == null) {
+                    keysToPlace.set(holder, new ArrayList<>(1));
+                }
+                keysToPlace.get(holder).add(i);
+            }
+        }
+
+        WorldDefinition.Builder world = new WorldDefinition.Builder();
+        for (int i = 0; i < n; i++) {
+            world.addRoom(i == 0 ? "Start" : (i == exit ? "ExitRoom" : "Room" + i), i == exit, requiredKey[i]);
+        }
+        world.setStartRoom(0);
+
+        for (int i = 1; i < n; i++) {
+            world.connect(parent[i], i);
+            if (random.nextDouble() < backDoorRatio) {
+                world.connect(i, parent[i]);
+            }
+        }
+        long extra = Math.round(n * extraDoorRatio);
+        for (long e = 0; e < extra; e++) {
+            int from = random.nextInt(n);
+            int to = random.nextInt(n);
+            if (from != to && from != exit) {
+                world.connect(from, to);
+            }
+        }
+
+        int itemCounter = 0;
+        for (int i = 0; i < n; i++) {
+            int items = maxItemsPerRoom > 0 ? random.nextInt(maxItemsPerRoom + 1) : 0;
+            for (int k = 0; k < items; k++) {
+                boolean tool = random.nextBoolean();
+                String base = tool ? TOOLS[random.nextInt(TOOLS.length)] : CLUES[random.nextInt(CLUES.length)];
+                world.addItem(i, base + (++itemCounter), 1 + random.nextInt(50),
+                        tool ? ItemType.TOOL : ItemType.CLUE, tool ? null : "Nothing useful written here.");
+            }
+
+            List<Integer> keys = keysToPlace.get(i);
+            int keyIndex = 0;
+            if (random.nextDouble() < puzzleRatio) {
+                WorldDefinition.ItemDef reward = null;
+                if (keys != null) {
+                    reward = keyItem(requiredKey[keys.get(keyIndex++)]);
+                }
+                addPuzzle(world, random, i, reward);
+            }
+            while (keys != null && keyIndex < keys.size()) {
+                world.addItem(i, keyItem(requiredKey[keys.get(keyIndex++)]));
+            }
+        }
+
+        world.addHint("Hint: Locked doors always have their key somewhere closer to the start.");
+        world.addHint("Hint: Notes on the floor often hold the code for a nearby lock.");
+        world.addHint("Hint: Use 'map' to see how far the exit might be.");
+        return world.build();
+    }
+
+    private static WorldDefinition.ItemDef keyItem(String name) {
+        return new WorldDefinition.ItemDef(name, 100, ItemType.KEY, "A key marked '" + name + "'.");
+    }
+
+    private void addPuzzle(WorldDefinition.Builder world, Random random, int room, WorldDefinition.ItemDef reward) {
+        int difficulty = 1 + random.nextInt(5);
+        if (random.nextDouble() < codePuzzleRatio) {
+            String code = Integer.toString(10_000 + random.nextInt(10_000)).substring(1); // 4 digits
+            world.addItem(room, "Note" + room, 1, ItemType.CLUE, "The code for Lock" + room + " is " + code + ".");
+            world.addCodePuzzle(room, "Lock" + room, difficulty, reward, code, 3 + random.nextInt(3));
+        } else {
+            String[] riddle = RIDDLES[random.nextInt(RIDDLES.length)];
+            world.addRiddlePuzzle(room, "Riddle" + room, difficulty, reward, riddle[0], riddle[1]);
+        }
+    }
+
+    // Usage: java WorldGenerator [rooms] [seed]
+    public static void main(String[] args) {
+        int rooms = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1L;
+        long start = System.nanoTime();
+        WorldDefinition world = new WorldGenerator(seed).rooms(rooms).generate();
+        long generated = System.nanoTime();
+        Room[] instance = world.instantiate();
+        long built = System.nanoTime();
+        RouteHints hints = world.routeHints();
+        long planned = System.nanoTime();
+        Room startRoom = instance[world.getStartRoom()];
+        RoomGraph graph = RoomGraph.of(startRoom);
+        System.out.println("Rooms:        " + world.getRoomCount());
+        System.out.println("Reachable:    " + graph.reachableRooms(startRoom).size());
+        System.out.println("Depth:        " + graph.maxDepth(startRoom));
+        System.out.printf("Generate:     %.1f ms%n", (generated - start) / 1e6);
+        System.out.printf("Instantiate:  %.1f ms%n", (built - generated) / 1e6);
+        System.out.println("Way out:      " + hints.getRouteLength() + " rooms, " + hints.getKeyCount() + " keys");
+        System.out.printf("Route hints:  %.1f ms%n", (planned - built) / 1e6);
+    }
+}
@@ -0,0 +1,35 @@
+import java.util.IdentityHashMap;
+
+// One session's changes to a shared, read-only Room graph. Rooms are copied on
+// first write: taking an item or trying a puzzle gives the session its own copy
+// of that room (and its puzzles), and from then on the session sees the copy
+// wherever it meets the shared room. Untouched rooms are never copied, so a
+// session costs what the player changed, not what the world holds.
+// Doors have no state of their own (a locked door checks the player's keys on
+// every move), so there is nothing to record for them.
+public class WorldOverlay {
+    private final IdentityHashMap<Room, Room> copies = new IdentityHashMap<>(4); // shared -> this session's copy
+
+    // The version of the room this session should see
+    public Room resolve(Room room) {
+        Room copy = copies.get(room);
+        return copy != null ? copy : room;
+    }
+
+    // A room this session may change: its own copy, made now if needed
+    public Room writable(Room room) {
+        if (room.isSessionCopy()) {
+            return room;
+        }
+        Room copy = copies.get(room);
+        if (copy == null) {
+            copy = room.copyForSession();
+            copies.put(room, copy);
+        }
+        return copy;
+    }
+
+    public int getCopiedRoomCount() {
+        return copies.size();
+    }
+}
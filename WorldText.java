@@ -0,0 +1,275 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// Text form of a world, for authoring. One declaration per line; '#' starts a
+// comment line; values with spaces go in double quotes (\" and \\ escapes).
+// Rooms must be declared before they are used.
+//
+//   room <name> [exit] [key <keyName>]
+//   start <room>
+//   door <fromRoom> <toRoom>
+//   item <room> <name> <value> <type> [<description>]
+//   riddle <room> <name> <difficulty> <answer> <riddle> [reward <name> <value> <type> [<description>]]
+//   code <room> <name> <difficulty> <code> <maxAttempts> [reward <name> <value> <type> [<description>]]
+//   hint <text>
+public class WorldText {
+
+    public static WorldDefinition parse(Reader reader) throws IOException, WorldFormatException {
+        BufferedReader in = new BufferedReader(reader);
+        WorldDefinition.Builder world = new WorldDefinition.Builder();
+        HashMap<String, Integer> rooms = new HashMap<>();
+        boolean startSet = false;
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            Line l = new Line(tokenize(trimmed, lineNumber), lineNumber);
+            String keyword = l.next();
+            switch (keyword) {
+                case "room": {
+                    String name = l.next();
+                    boolean exit = false;
+                    String key = null;
+                    while (l.hasNext()) {
+                        String flag = l.next();
+                        if (flag.equals("exit")) {
+                            exit = true;
+                        } else if (flag.equals("key")) {
+                            key = l.next();
+                        } else {
+                            throw l.error("Unknown room option '" + flag + "'");
+                        }
+                    }
+                    if (rooms.containsKey(name)) {
+                        throw l.error("Room '" + name + "' is declared twice");
+                    }
+                    rooms.put(name, world.addRoom(name, exit, key));
+                    break;
+                }
+                case "start":
+                    world.setStartRoom(l.room(rooms));
+                    startSet = true;
+                    break;
+                case "door":
+                    world.connect(l.room(rooms), l.room(rooms));
+                    break;
+                case "item": {
+                    int room = l.room(rooms);
+                    world.addItem(room, l.item());
+                    break;
+                }
+                case "riddle": {
+                    int room = l.room(rooms);
+                    String name = l.next();
+                    int difficulty = l.nextInt();
+                    String answer = l.next();
+                    String riddle = l.next();
+                    world.addRiddlePuzzle(room, name, difficulty, l.reward(), riddle, answer);
+                    break;
+                }
+                case "code": {
+                    int room = l.room(rooms);
+                    String name = l.next();
+                    int difficulty = l.nextInt();
+                    String code = l.next();
+                    int attempts = l.nextInt();
+                    world.addCodePuzzle(room, name, difficulty, l.reward(), code, attempts);
+                    break;
+                }
+                case "hint":
+                    world.addHint(l.next());
+                    break;
+                default:
+                    throw l.error("Unknown declaration '" + keyword + "'");
+            }
+            if (l.hasNext()) {
+                throw l.error("Unexpected '" + l.next() + "'");
+            }
+        }
+        if (rooms.isEmpty()) {
+            throw new WorldFormatException("World has no rooms");
+        }
+        if (!startSet) {
+            throw new WorldFormatException("World has no 'start' declaration");
+        }
+        return world.build();
+    }
+
+    public static void write(WorldDefinition world, Writer out) throws IOException {
+        List<WorldDefinition.RoomDef> rooms = world.getRooms();
+        for (WorldDefinition.RoomDef r : rooms) {
+            out.write("room " + quote(r.getName()));
+            if (r.isExit()) {
+                out.write(" exit");
+            }
+            if (r.getRequiredKey() != null) {
+                out.write(" key " + quote(r.getRequiredKey()));
+            }
+            out.write('\n');
+        }
+        out.write("start " + quote(rooms.get(world.getStartRoom()).getName()) + "\n");
+        for (WorldDefinition.RoomDef r : rooms) {
+            for (int i = 0; i < r.getExitCount(); i++) {
+                out.write("door " + quote(r.getName()) + " " + quote(rooms.get(r.getExit(i)).getName()) + "\n");
+            }
+        }
+        for (WorldDefinition.RoomDef r : rooms) {
+            String room = quote(r.getName());
+            for (WorldDefinition.ComponentDef c : r.getContents()) {
+                if (c instanceof WorldDefinition.ItemDef) {
+                    out.write("item " + room + " " + item((WorldDefinition.ItemDef) c) + "\n");
+                    continue;
+                }
+                WorldDefinition.PuzzleDef p = (WorldDefinition.PuzzleDef) c;
+                if (p.getKind() == WorldDefinition.PuzzleDef.CODE) {
+                    out.write("code " + room + " " + quote(p.getName()) + " " + p.getDifficulty() + " "
+                            + quote(p.getAnswer()) + " " + p.getMaxAttempts());
+                } else {
+                    out.write("riddle " + room + " " + quote(p.getName()) + " " + p.getDifficulty() + " "
+                            + quote(p.getAnswer()) + " " + quote(p.getRiddle()));
+                }
+                if (p.getReward() != null) {
+                    out.write(" reward " + item(p.getReward()));
+                }
+                out.write('\n');
+            }
+        }
+        for (String hint : world.getHints()) {
+            out.write("hint " + quote(hint) + "\n");
+        }
+        out.flush();
+    }
+
+    private static String item(WorldDefinition.ItemDef item) {
+        String text = quote(item.getName()) + " " + item.getValue() + " " + quote(item.getItemType().name());
+        return item.getDescription() != null ? text + " " + quote(item.getDescription()) : text;
+    }
+
+    private static String quote(String s) {
+        boolean plain = !s.isEmpty();
+        for (int i = 0; i < s.length() && plain; i++) {
+            char c = s.charAt(i);
+            plain = c > ' ' && c != '"' && c != '\\' && c != '#';
+        }
+        if (plain) {
+            return s;
+        }
+        return '"' + s.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    private static List<String> tokenize(String line, int lineNumber) throws WorldFormatException {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                StringBuilder sb = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= line.length()) {
+                        throw new WorldFormatException("Line " + lineNumber + ": unterminated quote");
+                    }
+                    char q = line.charAt(i++);
+                    if (q == '"') {
+                        break;
+                    }
+                    if (q == '\\' && i < line.length()) {
+                        q = line.charAt(i++);
+                    }
+                    sb.append(q);
+                }
+                tokens.add(sb.toString());
+            } else {
+                int start = i;
+                while (i < line.length() && !Character.isWhitespace(line.charAt(i))) {
+                    i++;
+                }
+                tokens.add(line.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    private static final class Line {
+        private final List<String> tokens;
+        private final int number;
+        private int pos;
+
+        Line(List<String> tokens, int number) {
+            this.tokens = tokens;
+            this.number = number;
+        }
+
+        boolean hasNext() {
+            return pos < tokens.size();
+        }
+
+        String next() throws WorldFormatException {
+            if (!hasNext()) {
+                throw error("Missing value");
+            }
+            return tokens.get(pos++);
+        }
+
+        int nextInt() throws WorldFormatException {
+            String token = next();
+            try {
+                return Integer.parseInt(token);
+            } catch (NumberFormatException e) {
+                throw error("Expected a number but found '" + token + "'");
+            }
+        }
+
+        int room(HashMap<String, Integer> rooms) throws WorldFormatException {
+            String name = next();
+            Integer id = rooms.get(name);
+            if (id == null) {
+                throw error("Unknown room '" + name + "'");
+            }
+            return id;
+        }
+
+        WorldDefinition.ItemDef item() throws WorldFormatException {
+            String name = next();
+            int value = nextInt();
+            ItemType type = itemType();
+            String description = hasNext() && !tokens.get(pos).equals("reward") ? next() : null;
+            return new WorldDefinition.ItemDef(name, value, type, description);
+        }
+
+        ItemType itemType() throws WorldFormatException {
+            String name = next();
+            ItemType type = ItemType.parse(name);
+            if (type == null) {
+                throw error("Unknown item type '" + name + "'");
+            }
+            return type;
+        }
+
+        WorldDefinition.ItemDef reward() throws WorldFormatException {
+            if (!hasNext()) {
+                return null;
+            }
+            String keyword = next();
+            if (!keyword.equals("reward")) {
+                throw error("Expected 'reward' but found '" + keyword + "'");
+            }
+            return item();
+        }
+
+        WorldFormatException error(String message) {
+            return new WorldFormatException("Line " + number + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,616 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+// Checks that a world can be escaped, and how fast.
+//
+// Reachability is a fixpoint over the doors: rooms reachable with the keys
+// found so far, then the keys in those rooms, until nothing changes. Anything
+// left over is reported as unreachable. 'back' never matters here, because it
+// only returns to rooms that were already reached.
+//
+// The fewest turns come from a breadth-first search, one turn per level, over
+// states of (room, move history, keys held). Keys are one bit each, packed
+// into a long[] with the room id, so hundreds of keys cost a few words per
+// state; move histories are interned stacks, so 'back' goes exactly where it
+// would in the game. Each level is expanded in parallel on a ForkJoinPool.
+// Only turns that change the state are searched: moving, going back, picking
+// up a key and solving a puzzle that gives one. Other items and non-key
+// rewards never help to escape.
+//
+// Pruning keeps this within reach for worlds of a few hundred rooms. A state
+// is dropped when its room and history were already reached, no later, with
+// all of its keys and maybe more; when it walks in a loop (see State.loops);
+// and when the exit is further away, even ignoring locks, than the turns left.
+// The number of histories still grows exponentially with the route length, so
+// the search gives up after MAX_STATES states and reports how far it got.
+// Reachability is exact at any size.
+
+public final class WorldVerifier {
+    // States the search keeps at most, a few hundred megabytes of heap
+    static final long MAX_STATES = 2_000_000;
+
+    private final WorldDefinition world;
+    private final int roomCount;
+    private final int[][] doorsOut;       // room -> rooms its doors lead to
+    private final int[][] doorsIn;        // room -> rooms with a door into it, for 'back'
+    private final int[] lock;             // room -> key needed to enter it, -1 if open
+    private final int[][] keysHere;       // room -> keys to be had in it
+    private final String[][] takeCommand; // room -> command that gets each of those keys
+    private final String[] keyNames;
+    private final int words;              // longs per state: room, then the key bits
+    private boolean[] useful;             // room -> can lead on to the exit or a useful key
+    private boolean[] usefulKey;
+
+    public WorldVerifier(WorldDefinition world) {
+        this.world = world;
+        this.roomCount = world.getRoomCount();
+
+        // Keys are whatever some door asks for, matched without case like Player.hasKey
+        HashMap<String, Integer> keyIds = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        lock = new int[roomCount];
+        for (int r = 0; r < roomCount; r++) {
+            String key = world.getRoom(r).getRequiredKey();
+            lock[r] = -1;
+            if (key != null) {
+                String k = key.toLowerCase(Locale.ROOT);
+                Integer id = keyIds.get(k);
+                if (id == null) {
+                    id = names.size();
+                    keyIds.put(k, id);
+                    names.add(key);
+                }
+                lock[r] = id;
+            }
+        }
+        keyNames = names.toArray(new String[0]);
+        words = 1 + (keyNames.length + 63) / 64;
+
+        int[] inCount = new int[roomCount];
+        doorsOut = new int[roomCount][];
+        keysHere = new int[roomCount][];
+        takeCommand = new String[roomCount][];
+        for (int r = 0; r < roomCount; r++) {
+            WorldDefinition.RoomDef def = world.getRoom(r);
+            doorsOut[r] = new int[def.getExitCount()];
+            for (int e = 0; e < doorsOut[r].length; e++) {
+                doorsOut[r][e] = def.getExit(e);
+                inCount[def.getExit(e)]++;
+            }
+            ArrayList<Integer> keys = new ArrayList<>();
+            ArrayList<String> commands = new ArrayList<>();
+            for (WorldDefinition.ComponentDef c : def.getContents()) {
+                WorldDefinition.ItemDef item = null;
+                String command = null;
+                if (c instanceof WorldDefinition.ItemDef) {
+                    item = (WorldDefinition.ItemDef) c;
+                    command = "pickup " + item.getName();
+                } else if (c instanceof WorldDefinition.PuzzleDef) {
+                    WorldDefinition.PuzzleDef p = (WorldDefinition.PuzzleDef) c;
+                    item = p.getReward();
+                    command = "solve " + p.getName() + " " + p.getAnswer();
+                }
+                if (item == null || item.getItemType() != ItemType.KEY) {
+                    continue;
+                }
+                Integer id = keyIds.get(item.getName().toLowerCase(Locale.ROOT));
+                if (id != null && !keys.contains(id)) {
+                    keys.add(id);
+                    commands.add(command);
+                }
+            }
+            keysHere[r] = new int[keys.size()];
+            for (int i = 0; i < keysHere[r].length; i++) {
+                keysHere[r][i] = keys.get(i);
+            }
+            takeCommand[r] = commands.toArray(new String[0]);
+        }
+        doorsIn = new int[roomCount][];
+        for (int r = 0; r < roomCount; r++) {
+            doorsIn[r] = new int[inCount[r]];
+            inCount[r] = 0;
+        }
+        for (int r = 0; r < roomCount; r++) {
+            for (int to : doorsOut[r]) {
+                doorsIn[to][inCount[to]++] = r;
+            }
+        }
+    }
+
+    // Escape within a game's turn limit, searched on every core
+    public Report verify() {
+        return verify(GameEngine.MAX_TURNS - 1, ForkJoinPool.commonPool());
+    }
+
+    // maxTurns: most commands to search. The engine's limit of MAX_TURNS means
+    // the exit has to be reached on turn MAX_TURNS - 1 at the latest.
+    public Report verify(int maxTurns, ForkJoinPool pool) {
+        Report report = new Report();
+        long start = System.nanoTime();
+        reachability(report);
+        if (report.escapable) {
+            usefulness();
+            search(report, maxTurns, pool);
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private void reachability(Report report) {
+        boolean[] reached = new boolean[roomCount];
+        boolean[] held = new boolean[keyNames.length];
+        List<List<Integer>> waiting = new ArrayList<>(); // key -> rooms found locked behind it
+        for (int k = 0; k < keyNames.length; k++) {
+            waiting.add(new ArrayList<>());
+        }
+        int[] queue = new int[roomCount];
+        int count = 0;
+        reached[world.getStartRoom()] = true;
+        queue[count++] = world.getStartRoom();
+        for (int head = 0; head < count; head++) {
+            int room = queue[head];
+            for (int k : keysHere[room]) {
+                if (!held[k]) {
+                    held[k] = true;
+                    for (int behind : waiting.get(k)) {
+                        if (!reached[behind]) {
+                            reached[behind] = true;
+                            queue[count++] = behind;
+                        }
+                    }
+                }
+            }
+            for (int next : doorsOut[room]) {
+                if (reached[next]) {
+                    continue;
+                }
+                if (lock[next] >= 0 && !held[lock[next]]) {
+                    waiting.get(lock[next]).add(next);
+                    continue;
+                }
+                reached[next] = true;
+                queue[count++] = next;
+            }
+        }
+
+        for (int r = 0; r < roomCount; r++) {
+            WorldDefinition.RoomDef def = world.getRoom(r);
+            if (reached[r]) {
+                report.escapable |= def.isExit();
+                continue;
+            }
+            report.unreachableRooms.add(def.getName());
+            for (WorldDefinition.ComponentDef c : def.getContents()) {
+                report.unreachableItems.add(c.getName());
+                if (c instanceof WorldDefinition.PuzzleDef && ((WorldDefinition.PuzzleDef) c).getReward() != null) {
+                    report.unreachableItems.add(((WorldDefinition.PuzzleDef) c).getReward().getName());
+                }
+            }
+        }
+    }
+
+    // Rooms from which the exit, or a room with a useful key, can be walked to
+    // (locks aside), and the keys of locked useful rooms. Anywhere else is a dead
+    // end for escaping, so the search never goes there or picks those keys up.
+    private void usefulness() {
+        useful = new boolean[roomCount];
+        usefulKey = new boolean[keyNames.length];
+        int[] queue = new int[roomCount];
+        int count = 0;
+        for (int r = 0; r < roomCount; r++) {
+            if (world.getRoom(r).isExit()) {
+                useful[r] = true;
+                queue[count++] = r;
+            }
+        }
+        // Walking the doors backwards from what's useful; a useful locked room
+        // makes its key useful, which makes the rooms holding that key useful too
+        List<List<Integer>> keyRooms = new ArrayList<>();
+        for (int k = 0; k < keyNames.length; k++) {
+            keyRooms.add(new ArrayList<>());
+        }
+        for (int r = 0; r < roomCount; r++) {
+            for (int k : keysHere[r]) {
+                keyRooms.get(k).add(r);
+            }
+        }
+        for (int head = 0; head < count; head++) {
+            int room = queue[head];
+            if (lock[room] >= 0 && !usefulKey[lock[room]]) {
+                usefulKey[lock[room]] = true;
+                for (int holder : keyRooms.get(lock[room])) {
+                    if (!useful[holder]) {
+                        useful[holder] = true;
+                        queue[count++] = holder;
+                    }
+                }
+            }
+            for (int from : doorsIn[room]) {
+                if (!useful[from]) {
+                    useful[from] = true;
+                    queue[count++] = from;
+                }
+            }
+        }
+    }
+
+    private void search(Report report, int maxTurns, ForkJoinPool pool) {
+        int[] toExit = distanceToExit();
+        Kept kept = new Kept();
+        Trails trails = new Trails();
+        long[] first = new long[words];
+        first[0] = world.getStartRoom();
+        State initial = new State(first, Trail.EMPTY, null, null);
+        kept.add(initial);
+        AtomicReference<State> escape = new AtomicReference<>();
+        List<State> frontier = Collections.singletonList(initial);
+        for (int turn = 1; turn <= maxTurns && !frontier.isEmpty(); turn++) {
+            List<State> current = frontier;
+            int turnsLeft = maxTurns - turn;
+            frontier = pool.submit(() -> current.parallelStream()
+                    .flatMap(s -> expand(s, kept, trails, escape, toExit, turnsLeft).stream())
+                    .collect(Collectors.toList())).join();
+            report.statesExplored = kept.size();
+            // Every shorter route was ruled out, so an escape on this turn is the fastest
+            // even if the turn itself was cut short
+            if (escape.get() != null) {
+                report.minTurns = turn;
+                report.commands = escape.get().commands();
+                report.exact = replays(report.commands);
+                return;
+            }
+            if (kept.isFull()) {
+                return;
+            }
+            report.turnsSearched = turn;
+        }
+        report.turnsSearched = maxTurns; // nothing left that could still make it in time
+    }
+
+    private List<State> expand(State s, Kept kept, Trails trails, AtomicReference<State> escape, int[] toExit,
+                               int turnsLeft) {
+        ArrayList<State> next = new ArrayList<>();
+        int room = s.room();
+        for (int to : doorsOut[room]) {
+            if (useful[to] && (lock[to] < 0 || s.holds(lock[to]))) {
+                visit(s.moveTo(to, "move " + world.getRoom(to).getName(), trails), kept, escape, toExit, turnsLeft, next);
+            }
+        }
+        if (s.trail != Trail.EMPTY) {
+            visit(s.back(), kept, escape, toExit, turnsLeft, next);
+        }
+        for (int i = 0; i < keysHere[room].length; i++) {
+            int k = keysHere[room][i];
+            if (usefulKey[k] && !s.holds(k)) {
+                visit(s.take(k, takeCommand[room][i]), kept, escape, toExit, turnsLeft, next);
+            }
+        }
+        return next;
+    }
+
+    private void visit(State s, Kept kept, AtomicReference<State> escape, int[] toExit, int turnsLeft,
+                       List<State> next) {
+        if (world.getRoom(s.room()).isExit()) {
+            escape.compareAndSet(null, s);
+            return;
+        }
+        if (kept.isFull() || s.turnsToExit(toExit) > turnsLeft || s.loops() || !kept.add(s)) {
+            return;
+        }
+        next.add(s);
+    }
+
+    // Fewest doors from each room to the exit with locks ignored, so never more
+    // than the turns it really takes
+    private int[] distanceToExit() {
+        int[] distance = new int[roomCount];
+        Arrays.fill(distance, Integer.MAX_VALUE);
+        int[] queue = new int[roomCount];
+        int count = 0;
+        for (int r = 0; r < roomCount; r++) {
+            if (world.getRoom(r).isExit()) {
+                distance[r] = 0;
+                queue[count++] = r;
+            }
+        }
+        for (int head = 0; head < count; head++) {
+            int room = queue[head];
+            for (int from : doorsIn[room]) {
+                if (distance[from] == Integer.MAX_VALUE) {
+                    distance[from] = distance[room] + 1;
+                    queue[count++] = from;
+                }
+            }
+        }
+        return distance;
+    }
+
+    // The commands found are checked on a real GameEngine, in case the engine
+    // refuses something the search allowed
+    private boolean replays(List<String> commands) {
+        GameEngine engine = new GameEngine(world, DiscardOutput.INSTANCE);
+        for (String command : commands) {
+            if (engine.executeTurn(command).getStatus() != CommandResult.Status.OK) {
+                return false;
+            }
+        }
+        return !engine.isGameRunning() && engine.winConditionCheck();
+    }
+
+    // Per room and move history, the key sets it has been reached with so far,
+    // none a subset of another. Breadth-first order means those were reached in
+    // as few turns or fewer, so a state whose keys are a subset of one of them
+    // can do nothing new and is dropped. Places lock separately so workers
+    // rarely contend.
+    private static final class Kept {
+        private final ConcurrentHashMap<Long, List<long[]>> byPlace = new ConcurrentHashMap<>();
+        private final AtomicLong size = new AtomicLong();
+
+        boolean add(State s) {
+            long place = (long) s.trail.id << 32 | s.room();
+            List<long[]> sets = byPlace.computeIfAbsent(place, p -> new ArrayList<>(1));
+            synchronized (sets) {
+                for (long[] kept : sets) {
+                    if (contains(kept, s.bits)) {
+                        return false;
+                    }
+                }
+                sets.removeIf(kept -> contains(s.bits, kept));
+                sets.add(s.bits);
+                size.incrementAndGet();
+                return true;
+            }
+        }
+
+        long size() {
+            return size.get();
+        }
+
+        boolean isFull() {
+            return size.get() >= MAX_STATES;
+        }
+
+        // Whether key set a holds every key of b
+        private static boolean contains(long[] a, long[] b) {
+            for (int i = 1; i < a.length; i++) {
+                if ((b[i] & ~a[i]) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // A move history like Player's: the rooms 'back' returns to, most recent first
+    private static final class Trail {
+        static final Trail EMPTY = new Trail(-1, null, 0);
+
+        final int room;
+        final Trail below;
+        final int id;
+        final int depth;
+
+        Trail(int room, Trail below, int id) {
+            this.room = room;
+            this.below = below;
+            this.id = id;
+            this.depth = below == null ? 0 : below.depth + 1;
+        }
+
+        // Whether this history is t with more rooms on top
+        boolean startsWith(Trail t) {
+            Trail here = this;
+            while (here.depth > t.depth) {
+                here = here.below;
+            }
+            return here == t;
+        }
+    }
+
+    // Interns the histories of one search, so equal histories are one Trail with one id
+    private static final class Trails {
+        private final ConcurrentHashMap<Long, Trail> byTop = new ConcurrentHashMap<>();
+        private final AtomicInteger nextId = new AtomicInteger(1);
+
+        // Like Player, keeps only the last Player.HISTORY_DEPTH rooms
+        Trail push(Trail below, int room) {
+            if (Player.HISTORY_DEPTH == 0) {
+                return Trail.EMPTY;
+            }
+            if (below.depth == Player.HISTORY_DEPTH) {
+                below = withoutOldest(below);
+            }
+            Trail under = below;
+            return byTop.computeIfAbsent((long) under.id << 32 | room,
+                    k -> new Trail(room, under, nextId.getAndIncrement()));
+        }
+
+        private Trail withoutOldest(Trail t) {
+            return t.below == Trail.EMPTY ? Trail.EMPTY : push(withoutOldest(t.below), t.room);
+        }
+    }
+
+    private static final class State {
+        final long[] bits;    // [0] = room, then key bits
+        final Trail trail;
+        final State parent;
+        final String command; // what got here from parent
+
+        State(long[] bits, Trail trail, State parent, String command) {
+            this.bits = bits;
+            this.trail = trail;
+            this.parent = parent;
+            this.command = command;
+        }
+
+        int room() {
+            return (int) bits[0];
+        }
+
+        boolean holds(int key) {
+            return (bits[1 + (key >>> 6)] & (1L << key)) != 0;
+        }
+
+        State moveTo(int room, String how, Trails trails) {
+            long[] b = bits.clone();
+            b[0] = room;
+            // Straight back to where it came from: Player drops that room from the history
+            Trail t = trail.room == room ? trail.below : trails.push(trail, room());
+            return new State(b, t, this, how);
+        }
+
+        State back() {
+            long[] b = bits.clone();
+            b[0] = trail.room;
+            return new State(b, trail.below, this, "back");
+        }
+
+        State take(int key, String how) {
+            long[] b = bits.clone();
+            b[1 + (key >>> 6)] |= 1L << key;
+            return new State(b, trail, this, how);
+        }
+
+        // Fewest turns to the exit with locks ignored: walking on from here,
+        // or from a room some 'back's away
+        int turnsToExit(int[] toExit) {
+            long best = toExit[room()];
+            int backs = 1;
+            for (Trail t = trail; t != Trail.EMPTY && backs < best; t = t.below, backs++) {
+                best = Math.min(best, (long) backs + toExit[t.room]);
+            }
+            return (int) Math.min(best, Integer.MAX_VALUE);
+        }
+
+        // Back in a room it was in before with the same keys and, under some
+        // rooms added since, the same history. The search never needs such a
+        // state: if a route went on from here, either it would go back into one of
+        // the added rooms, which repeats an earlier state exactly, or it would
+        // never touch them and so would work from the earlier state, turns sooner.
+        // (Moving into the room on top of the history counts as going back.) That
+        // only holds while the history is whole, so not past a full one.
+        boolean loops() {
+            for (State a = parent; a != null; a = a.parent) {
+                if (a.trail.depth == Player.HISTORY_DEPTH) {
+                    return false;
+                }
+                if (a.bits[0] == bits[0] && Arrays.equals(a.bits, bits) && trail.startsWith(a.trail)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        List<String> commands() {
+            ArrayList<String> list = new ArrayList<>();
+            for (State s = this; s.parent != null; s = s.parent) {
+                list.add(s.command);
+            }
+            Collections.reverse(list);
+            return list;
+        }
+    }
+
+    public static final class Report {
+        private boolean escapable;      // the exit can be reached at all
+        private int minTurns = -1;      // -1 if not within the turns searched
+        private boolean exact;          // minTurns was confirmed by replaying commands
+        private List<String> commands = Collections.emptyList();
+        private int turnsSearched;      // every route this long or shorter was tried
+        private long statesExplored;
+        private long elapsedNanos;
+        private final List<String> unreachableRooms = new ArrayList<>();
+        private final List<String> unreachableItems = new ArrayList<>();
+
+        public boolean isEscapable() {
+            return escapable;
+        }
+
+        public int getMinTurns() {
+            return minTurns;
+        }
+
+        public boolean isExact() {
+            return exact;
+        }
+
+        public List<String> getCommands() {
+            return commands;
+        }
+
+        public int getTurnsSearched() {
+            return turnsSearched;
+        }
+
+        public long getStatesExplored() {
+            return statesExplored;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public List<String> getUnreachableRooms() {
+            return unreachableRooms;
+        }
+
+        public List<String> getUnreachableItems() {
+            return unreachableItems;
+        }
+    }
+
+    // Usage: java WorldVerifier [<file.world> | <file.bin> | generate <rooms> <seed>] [maxTurns] [threads]
+    public static void main(String[] args) throws IOException, WorldFormatException {
+        WorldDefinition world;
+        int next = 1;
+        if (args.length == 0) {
+            world = GameEngine.setupGame();
+        } else if (args[0].equals("generate")) {
+            world = new WorldGenerator(Long.parseLong(args[2])).rooms(Integer.parseInt(args[1])).generate();
+            next = 3;
+        } else if (args[0].endsWith(".world")) {
+            world = WorldCompiler.readText(Path.of(args[0]));
+        } else {
+            world = MappedWorld.open(Path.of(args[0])).toDefinition();
+        }
+        int maxTurns = args.length > next ? Integer.parseInt(args[next]) : GameEngine.MAX_TURNS - 1;
+        int threads = args.length > next + 1 ? Integer.parseInt(args[next + 1])
+                : Runtime.getRuntime().availableProcessors();
+
+        Report r = new WorldVerifier(world).verify(maxTurns, new ForkJoinPool(threads));
+        System.out.println("Rooms:             " + world.getRoomCount());
+        System.out.println("Escapable:         " + (r.isEscapable() ? "yes" : "no"));
+        if (r.getMinTurns() >= 0) {
+            System.out.println("Fewest turns:      " + r.getMinTurns()
+                    + (r.isExact() ? "" : " or more (the search's route didn't replay)"));
+            System.out.println("Route:             " + String.join(", ", r.getCommands()));
+        } else if (r.isEscapable()) {
+            System.out.println("Fewest turns:      more than " + r.getTurnsSearched()
+                    + (r.getTurnsSearched() < maxTurns ? " (stopped at " + MAX_STATES + " states)" : ""));
+        }
+        System.out.println("Unreachable rooms: " + summary(r.getUnreachableRooms()));
+        System.out.println("Unreachable items: " + summary(r.getUnreachableItems()));
+        System.out.println("States explored:   " + r.getStatesExplored());
+        System.out.printf("Time:              %.1f ms on %d threads%n", r.getElapsedNanos() / 1e6, threads);
+    }
+
+    private static String summary(List<String> names) {
+        if (names.isEmpty()) {
+            return "none";
+        }
+        int shown = Math.min(names.size(), 10);
+        return names.size() + " (" + String.join(", ", names.subList(0, shown)) + (shown < names.size() ? ", ..." : "") + ")";
+    }
+}
@@ -0,0 +1,212 @@
+import bench.Workload;
+
+// Builds the workloads measured by bench.HotPathBenchmark. Lives in the default
+// package so it can reach the game classes; the benchmark loads it by name.
+public class HotPaths {
+
+    public static Workload create(String path, int size) throws Exception {
+        BufferedOutput out = new BufferedOutput();
+        switch (path) {
+            case "Room.inspect": {
+                Room room = crowdedRoom(size);
+                return () -> {
+                    out.clear();
+                    room.inspect(out);
+                    return out;
+                };
+            }
+            case "Room.inspect.changed": {
+                Room room = crowdedRoom(size);
+                Item item = room.findItem("Item0");
+                return () -> {
+                    room.removeContent(item); // a pickup and a drop since the last look
+                    room.addContent(item);
+                    out.clear();
+                    room.inspect(out);
+                    return out;
+                };
+            }
+            case "Room.findItem": {
+                Room room = crowdedRoom(size);
+                String name = "item" + (size / 2 - 1);
+                return () -> room.findItem(name);
+            }
+            case "Room.findPuzzle": {
+                Room room = crowdedRoom(size);
+                String name = "RIDDLE" + (size / 2 - 1);
+                return () -> room.findPuzzle(name);
+            }
+            case "CommandParser.parse": {
+                WorldDefinition world = engineWorld(size);
+                CommandParser parser = new CommandParser(world.getNames());
+                String line = "solve Riddle0 answer0";
+                return () -> {
+                    parser.parse(line);
+                    return parser.word() == parser.rest() ? null : parser; // resolve both words
+                };
+            }
+            case "Player.showInventory": {
+                Player player = loadedPlayer(size, out);
+                return () -> {
+                    out.clear();
+                    player.showInventory();
+                    return out;
+                };
+            }
+            case "Player.hasKey": {
+                Player player = loadedPlayer(size, out);
+                return () -> player.hasKey("MissingKey");
+            }
+            case "Room.exploreRecursive": {
+                Room start = generatedStart(size);
+                return () -> {
+                    out.clear();
+                    start.exploreRecursive(0, out);
+                    return out;
+                };
+            }
+            case "Room.exploreRecursive.cold": {
+                Room start = generatedStart(size);
+                return () -> {
+                    RoomGraph.of(start).structureChanged(); // drop the cache every time
+                    out.clear();
+                    start.exploreRecursive(0, out);
+                    return out;
+                };
+            }
+            case "Room.maxDepthRecursive": {
+                Room start = generatedStart(size);
+                return start::maxDepthRecursive;
+            }
+            case "Room.containsItemRecursive": {
+                Room start = generatedStart(size);
+                return () -> start.containsItemRecursive("NoSuchItem");
+            }
+            case "RouteHints.hint": {
+                WorldDefinition world = new WorldGenerator(size).rooms(Math.max(2, size)).generate();
+                RouteHints hints = world.routeHints();
+                Player player = new Player(world.instantiate()[world.getStartRoom()], out);
+                int room = world.getStartRoom();
+                return () -> hints.hint(room, player);
+            }
+            case "CodePuzzle.attemptSolve": {
+                // size sessions taking turns at guessing one lock's code
+                int maxAttempts = 60_000;
+                CodePuzzle lock = new CodePuzzle("Safe", 1, null, "1234", maxAttempts);
+                long[] owners = new long[size];
+                int[] used = new int[size];
+                for (int i = 0; i < size; i++) {
+                    owners[i] = AttemptTable.newOwner();
+                }
+                int[] next = {0};
+                return () -> {
+                    int s = next[0];
+                    next[0] = s + 1 == size ? 0 : s + 1;
+                    if (++used[s] == maxAttempts) {
+                        AttemptTable.INSTANCE.release(owners[s], lock.getLock());
+                        used[s] = 1;
+                    }
+                    out.clear();
+                    return lock.attemptSolve("0000", owners[s], out);
+                };
+            }
+            case "RiddlePuzzle.attemptSolve": {
+                RiddlePuzzle riddle = new RiddlePuzzle("Sphinx", 1, null, "?", "Keyboard");
+                return () -> riddle.attemptSolve("PIANO", out);
+            }
+            default:
+                if (path.startsWith("processCommand.")) {
+                    return command(path.substring("processCommand.".length()), size, out);
+                }
+                throw new IllegalArgumentException("Unknown hot path: " + path);
+        }
+    }
+
+    private static Workload command(String command, int size, BufferedOutput out) {
+        GameEngine engine = new GameEngine(engineWorld(size), out);
+        Player player = engine.getPlayer();
+        for (int i = 0; i < size; i++) {
+            player.addToInventory(new Item("Thing" + i, i % 97, ItemType.TOOL, null));
+        }
+        switch (command) {
+            case "help":
+                return () -> run(engine, out, "help");
+            case "look":
+                return () -> run(engine, out, "look");
+            case "status":
+                return () -> run(engine, out, "status");
+            case "inventory":
+                return () -> run(engine, out, "inventory");
+            case "map":
+                return () -> run(engine, out, "map");
+            case "inspect":
+                return () -> run(engine, out, "inspect Item" + (size / 2 - 1));
+            case "pickup-missing":
+                return () -> run(engine, out, "pickup Nothing");
+            case "solve-wrong":
+                return () -> run(engine, out, "solve Riddle0 wrong");
+            case "move+back":
+                return () -> {
+                    run(engine, out, "move Side");
+                    return run(engine, out, "back");
+                };
+            case "move-locked":
+                return () -> run(engine, out, "move Vault");
+            case "unknown":
+                return () -> run(engine, out, "dance");
+            default:
+                throw new IllegalArgumentException("Unknown command workload: " + command);
+        }
+    }
+
+    private static Object run(GameEngine engine, BufferedOutput out, String command) {
+        out.clear();
+        try {
+            engine.processCommand(command);
+        } catch (InvalidCommandException | LockedRoomException | InvalidPuzzleAnswerException e) {
+            return e;
+        }
+        return out;
+    }
+
+    // Hall holds size/2 items and size/2 riddles; Side is open, Vault needs a key nobody has
+    private static WorldDefinition engineWorld(int size) {
+        WorldDefinition.Builder world = new WorldDefinition.Builder();
+        int hall = world.addRoom("Hall", false);
+        int side = world.addRoom("Side", false);
+        int vault = world.addRoom("Vault", true, "VaultKey");
+        world.connect(hall, side).connect(side, hall).connect(hall, vault);
+        for (int i = 0; i < size / 2; i++) {
+            world.addItem(hall, "Item" + i, i % 50, ItemType.TOOL, "Item number " + i);
+            world.addRiddlePuzzle(hall, "Riddle" + i, i % 7, null, "What is " + i + "?", "answer" + i);
+        }
+        world.setStartRoom(hall);
+        return world.build();
+    }
+
+    private static Room crowdedRoom(int size) {
+        Room room = new Room("Crowded", false);
+        for (int i = 0; i < size / 2; i++) {
+            room.addContent(new Item("Item" + i, i % 50, ItemType.TOOL, null));
+            room.addContent(new RiddlePuzzle("Riddle" + i, (i * 31) % 10, null, "?", "x"));
+        }
+        for (int i = 0; i < 8; i++) {
+            room.addConnectedRoom(new Room("Exit" + i, false, i % 2 == 0 ? "Key" + i : null));
+        }
+        return room;
+    }
+
+    private static Player loadedPlayer(int size, OutputSink out) {
+        Player player = new Player(new Room("Bench", false), out);
+        for (int i = 0; i < size; i++) {
+            boolean key = i % 10 == 0;
+            player.addToInventory(new Item((key ? "Key" : "Thing") + i, (i * 7919) % 1000, key ? ItemType.KEY : ItemType.TOOL, null));
+        }
+        return player;
+    }
+
+    private static Room generatedStart(int rooms) {
+        WorldDefinition world = new WorldGenerator(rooms).rooms(Math.max(2, rooms)).generate();
+        return world.instantiate()[world.getStartRoom()];
+    }
+}
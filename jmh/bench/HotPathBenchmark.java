@@ -0,0 +1,56 @@
+package bench;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Average time per operation for each engine hot path. size means components in
+// the room and items in the inventory, or rooms in the world for the map methods
+// and route hints.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HotPathBenchmark {
+    @Param({
+            "processCommand.help", "processCommand.look", "processCommand.status",
+            "processCommand.inventory", "processCommand.map", "processCommand.inspect",
+            "processCommand.pickup-missing", "processCommand.solve-wrong", "processCommand.move+back",
+            "processCommand.move-locked", "processCommand.unknown",
+            "CommandParser.parse", "Room.inspect", "Room.inspect.changed", "Room.findItem", "Room.findPuzzle",
+            "Player.showInventory", "Player.hasKey",
+            "Room.exploreRecursive", "Room.exploreRecursive.cold",
+            "Room.maxDepthRecursive", "Room.containsItemRecursive", "RouteHints.hint",
+            "CodePuzzle.attemptSolve", "RiddlePuzzle.attemptSolve"
+    })
+    public String path;
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        Method create = Class.forName("HotPaths").getMethod("create", String.class, int.class);
+        workload = (Workload) create.invoke(null, path, size);
+    }
+
+    @Benchmark
+    public Object run() throws Exception {
+        return workload.run();
+    }
+}
@@ -0,0 +1,9 @@
+package bench;
+
+// One operation on the game, prepared by HotPaths. Game classes are in the
+// default package, which named packages can't import, so benchmarks only see
+// them through this interface.
+@FunctionalInterface
+public interface Workload {
+    Object run() throws Exception;
+}